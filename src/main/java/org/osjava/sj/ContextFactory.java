@@ -1,6 +1,9 @@
 package org.osjava.sj;
 
+import org.osjava.sj.jndi.MemoryContext;
 import org.osjava.sj.loader.JndiLoader;
+import org.osjava.sj.loader.NioBasedJndiLoader;
+import org.osjava.sj.loader.VariableSubstitution;
 
 import javax.naming.Context;
 import java.util.Hashtable;
@@ -20,13 +23,27 @@ class ContextFactory {
         overwriteWithSystemProperty(SimpleJndi.ROOT, env);
         overwriteWithSystemProperty(SimpleJndi.ENC, env);
         overwriteWithSystemProperty(SimpleJndi.SHARED, env);
+        overwriteWithSystemProperty(SimpleJndi.CLOSE_ON_LAST_HANDLE, env);
         overwriteWithSystemProperty(SimpleJndi.JNDI_SYNTAX_SEPARATOR, env);
         overwriteWithSystemProperty(SimpleJndi.FILENAME_TO_CONTEXT, env);
         overwriteWithSystemProperty(SimpleJndi.PATH_SEPARATOR, env);
+        overwriteWithSystemProperty(SimpleJndi.SEAL, env);
+        overwriteWithSystemProperty(SimpleJndi.TEMPLATE_CACHE, env);
+        overwriteWithSystemProperty(SimpleJndi.LOAD_THREADS, env);
+        overwriteWithSystemProperty(SimpleJndi.WATCH, env);
+        overwriteWithSystemProperty(SimpleJndi.WATCH_DEBOUNCE, env);
+        overwriteWithSystemProperty(SimpleJndi.SNAPSHOT, env);
         overwriteWithSystemProperty(JndiLoader.DELIMITER, env);
         overwriteWithSystemProperty(JndiLoader.COLON_REPLACE, env);
+        overwriteWithSystemProperty(JndiLoader.CHARSET, env);
+        overwriteWithSystemProperty(NioBasedJndiLoader.PARALLEL_PARSE, env);
+        overwriteWithSystemProperty(VariableSubstitution.SECRETS, env);
         overwriteWithSystemProperty(Context.OBJECT_FACTORIES, env);
         overwriteWithSystemProperty(IGNORE_CLOSE, env);
+        overwriteWithSystemProperty(MemoryContext.REFERENCE_RETRY_BACKOFF, env);
+        overwriteWithSystemProperty(MemoryContext.PATH_INDEX, env);
+        overwriteWithSystemProperty(MemoryContext.FAST_MISS, env);
+        overwriteWithSystemProperty(MemoryContext.NEGATIVE_CACHE_SIZE, env);
         overwriteWithSystemProperty("jndi.syntax.direction", env);
         overwriteWithSystemProperty(CONTEXT_FACTORY, env);
 
@@ -40,14 +40,13 @@
 
 package org.osjava.sj;
 
-import org.apache.commons.lang.BooleanUtils;
+import org.osjava.sj.jndi.DelegatingMemoryContext;
 import org.osjava.sj.jndi.MemoryContext;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.spi.InitialContextFactory;
 import java.util.Hashtable;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
 
@@ -59,8 +58,42 @@ import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
  */
 public class MemoryContextFactory extends ContextFactory implements InitialContextFactory {
 
-    private static final ConcurrentHashMap<String, Context> contextsByRoot =
-            new ConcurrentHashMap<String, Context>();
+    private static final SharedContexts sharedContexts = new SharedContexts(new SharedContexts.Loader() {
+        @Override
+        public Context load(Hashtable<String, String> environment) {
+            return new MemoryContext(environment);
+        }
+
+        @Override
+        public Context handle(final SharedContextHandle handle) {
+            return new DelegatingMemoryContext((MemoryContext) handle.getTarget()) {
+                @Override
+                public Object addToEnvironment(String name, Object object) {
+                    return IGNORE_CLOSE.equals(name) ? handle.updateIgnoreClose(object) : super.addToEnvironment(name, object);
+                }
+
+                @Override
+                public Object removeFromEnvironment(String name) {
+                    return IGNORE_CLOSE.equals(name) ? handle.updateIgnoreClose(null) : super.removeFromEnvironment(name);
+                }
+
+                @Override
+                public Hashtable getEnvironment() {
+                    return handle.environment(super.getEnvironment());
+                }
+
+                @Override
+                public void close() throws NamingException {
+                    handle.close();
+                }
+
+                @Override
+                public void forceClose() throws NamingException {
+                    handle.forceClose();
+                }
+            };
+        }
+    });
 
     /**
      * @see javax.naming.spi.InitialContextFactory#getInitialContext(java.util.Hashtable)
@@ -81,47 +114,25 @@ public class MemoryContextFactory extends ContextFactory implements InitialConte
             return new MemoryContext(environment);
         }
         else {
-            String root = (String) environment.get("org.osjava.sj.root");
-            final Context ctx = contextsByRoot.get(root);
-            // ctx.listBindings("").hasMore(): Ob alle Kontexte zerstört wurden.
-            if (ctx != null) {
-                String ignoreClose = (String) environment.get(IGNORE_CLOSE);
-                ctx.addToEnvironment(
-                        IGNORE_CLOSE,
-                        BooleanUtils.toStringTrueFalse(BooleanUtils.toBoolean(ignoreClose)));
-                return ctx;
-            }
-            else {
-                final String finalRoot = root;
-                MemoryContext context = new MemoryContext(environment) {
-                    private boolean isClosed;
-                    @Override
-                    public void close() throws NamingException {
-                        // When already closed getEnvironment() throws an Exception.
-                        if (!isClosed) {
-                            String ignoreClose = (String) getEnvironment().get(IGNORE_CLOSE);
-                            if (!BooleanUtils.toBoolean(ignoreClose)) {
-                                // first remove, so the context will be removed even when close()
-                                // throws an Exception
-                                contextsByRoot.remove(finalRoot);
-                                super.forceClose();
-                                isClosed = true;
-                            }
-                        }
-                    }
-
-                };
-                contextsByRoot.put(root, context);
-                return context;
-            }
+            return sharedContexts.acquire(environment);
         }
     }
 
+    /**
+     * Closes the shared contexts no longer used, i. e. those only obtained with {@link MemoryContext#IGNORE_CLOSE}
+     * set.
+     *
+     * @return Number of contexts closed.
+     */
+    public static int evictUnused() throws NamingException {
+        return sharedContexts.evictUnused();
+    }
+
     /**
      * package-private: Only for Testing!
      */
     static void clearCache() {
-        contextsByRoot.clear();
+        sharedContexts.clear();
     }
 
 }
@@ -0,0 +1,453 @@
+package org.osjava.sj;
+
+import org.osjava.sj.jndi.MemoryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Loaded roots kept as templates for contexts that are not shared, see {@link SimpleJndi#TEMPLATE_CACHE}. A template
+ * is loaded once per environment and reused until a file under its roots changes. Every context handed out is a
+ * {@link MemoryContext#copy()} of the template: No files are read again, only the context tree is copied.
+ * <p>
+ * The copy is a full one, subtrees are not shared until written. Creating a context therefore still costs time and
+ * memory in proportion to the whole namespace: Every subcontext and every binding entry is created anew, only the
+ * bound values are shared. What a template saves is reading and parsing the files, not the tree.
+ * <p>
+ * Typed values, e. g. DataSources and beans, are converted by each copy on first lookup, so no two contexts share
+ * them. Strings and other immutable values are shared, lists of values are copied. A root binding any other object is
+ * not cached.
+ * <p>
+ * Changes are noticed through one {@link WatchService} shared by all templates, so a context is copied without
+ * touching the files. As the events arrive asynchronously, a context created right after a change may still be copied
+ * from the old template. A template is closed, when it was replaced or evicted and all contexts copied from it are
+ * closed. At most {@link #MAX_TEMPLATES} are kept, the least recently used are evicted.
+ */
+class RootTemplates {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RootTemplates.class);
+    static final int MAX_TEMPLATES = 16;
+    private static final Set<Class<?>> IMMUTABLE = new HashSet<Class<?>>(Arrays.<Class<?>>asList(String.class,
+            Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+            Double.class, BigInteger.class, BigDecimal.class));
+    private static final ReentrantLock lock = new ReentrantLock();
+    /* Least recently used first. Guarded by lock. */
+    private static final LinkedHashMap<Hashtable<String, String>, Template> templates =
+            new LinkedHashMap<Hashtable<String, String>, Template>(16, 0.75f, true);
+
+    static InitialContext newContext(Hashtable<String, String> environment) throws NamingException {
+        final Hashtable<String, String> env = new Hashtable<String, String>(environment);
+        // Templates are reloaded on changes anyway.
+        env.remove(SimpleJndi.WATCH);
+        final Template cached = acquire(env);
+        if (cached != null) {
+            try {
+                return new CopiedInitialContext(env, cached.copy(), cached);
+            }
+            catch (NamingException | RuntimeException e) {
+                cached.release();
+                throw e;
+            }
+        }
+        LOGGER.debug("Loading template for {}", env.get(SimpleJndi.ROOT));
+        final SimpleJndi simpleJndi = new SimpleJndi(env);
+        simpleJndi.deferConversion = true;
+        // Started before loading, so changes made while loading cause another reload next time.
+        final ChangeWatch watch = ChangeWatch.start(simpleJndi.rootPaths().values());
+        final SimpleJndi.RootInitialContext loaded;
+        try {
+            loaded = (SimpleJndi.RootInitialContext) simpleJndi.loadRoot();
+        }
+        catch (NamingException | RuntimeException e) {
+            watch.close();
+            throw e;
+        }
+        final Context root = loaded.getRootContext();
+        if (!(root instanceof MemoryContext)) {
+            LOGGER.warn("{} is set, but {} can not be copied.", SimpleJndi.TEMPLATE_CACHE, root.getClass().getName());
+            watch.close();
+            return loaded;
+        }
+        final Template template = new Template(loaded, (MemoryContext) root, watch);
+        final MemoryContext copy;
+        try {
+            copy = template.copy();
+        }
+        catch (NotCopyable e) {
+            LOGGER.info("{} is not cached: It binds a {}, which all contexts would share.", env.get(SimpleJndi.ROOT),
+                    e.getMessage());
+            watch.close();
+            return loaded;
+        }
+        catch (NamingException | RuntimeException e) {
+            template.release();
+            throw e;
+        }
+        put(env, template);
+        return new CopiedInitialContext(env, copy, template);
+    }
+
+    /**
+     * @return The template for env acquired for one more copy. null: No template or it is outdated.
+     */
+    private static Template acquire(Hashtable<String, String> env) {
+        Template outdated = null;
+        lock.lock();
+        try {
+            final Template template = templates.get(env);
+            if (template == null) {
+                return null;
+            }
+            if (!template.watch.isChanged() && template.acquire()) {
+                return template;
+            }
+            templates.remove(env);
+            outdated = template;
+        }
+        finally {
+            lock.unlock();
+            if (outdated != null) {
+                outdated.release();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps template for env, replacing and evicting others.
+     */
+    private static void put(Hashtable<String, String> env, Template template) {
+        final List<Template> removed = new ArrayList<Template>();
+        // The cache's own reference.
+        template.acquire();
+        lock.lock();
+        try {
+            final Template replaced = templates.put(env, template);
+            if (replaced != null) {
+                removed.add(replaced);
+            }
+            for (Iterator<Template> it = templates.values().iterator(); templates.size() > MAX_TEMPLATES; ) {
+                removed.add(it.next());
+                it.remove();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        // Closed only once the contexts copied from them are closed as well.
+        for (Template outdated : removed) {
+            outdated.release();
+        }
+    }
+
+    /**
+     * package-private: Only for Testing!
+     */
+    static void clear() {
+        final List<Template> removed;
+        lock.lock();
+        try {
+            removed = new ArrayList<Template>(templates.values());
+            templates.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+        for (Template template : removed) {
+            template.release();
+        }
+    }
+
+    /**
+     * package-private: Only for Testing!
+     */
+    static int size() {
+        lock.lock();
+        try {
+            return templates.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bound objects of the copies: Shared, if immutable. {@link Reference}s, e. g. typed values to be converted, are
+     * resolved by each copy separately. Lists of values are copied.
+     */
+    private static final UnaryOperator<Object> VALUES = new UnaryOperator<Object>() {
+        @Override
+        public Object apply(Object value) {
+            if (value == null || value instanceof Reference || value instanceof Enum
+                    || IMMUTABLE.contains(value.getClass())) {
+                return value;
+            }
+            if (value.getClass() == LinkedList.class) {
+                // Multi-values, as bound by the loader.
+                final List<Object> copy = new LinkedList<Object>();
+                for (Object element : (List<?>) value) {
+                    copy.add(apply(element));
+                }
+                return copy;
+            }
+            throw new NotCopyable(value.getClass().getName());
+        }
+    };
+
+    private static final class Template {
+        final SimpleJndi.RootInitialContext loaded;
+        final MemoryContext root;
+        final ChangeWatch watch;
+        /* The cache and every copy not closed yet. 1: Created for the first copy. */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Template(SimpleJndi.RootInitialContext loaded, MemoryContext root, ChangeWatch watch) {
+            this.loaded = loaded;
+            this.root = root;
+            this.watch = watch;
+        }
+
+        MemoryContext copy() throws NamingException {
+            return root.copy(VALUES);
+        }
+
+        /**
+         * @return false: Already closed.
+         */
+        boolean acquire() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                watch.close();
+                try {
+                    loaded.close();
+                }
+                catch (NamingException e) {
+                    LOGGER.warn("Closing template failed.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Notices changes under the roots of a template, without walking the files for every context. Every directory
+     * under a root is registered, for a file or an archive the directory it is in. Roots that do not exist, e. g.
+     * classpath roots, are not watched.
+     * <p>
+     * All templates share one {@link WatchService}, i. e. one inotify instance on Linux, instead of one each. A
+     * directory watched by several templates has one {@link WatchKey}, its events are handed to all of them. The
+     * service is closed, when no directory is watched anymore.
+     */
+    private static final class ChangeWatch {
+        private static final ReentrantLock watchLock = new ReentrantLock();
+        /* Guarded by watchLock. */
+        private static WatchService watchService;
+        /* Guarded by watchLock. The watches interested in each key. */
+        private static final Map<WatchKey, Set<ChangeWatch>> watches = new HashMap<WatchKey, Set<ChangeWatch>>();
+
+        /* Guarded by watchLock. */
+        private final Set<WatchKey> keys = new HashSet<WatchKey>();
+        /* true: Something changed or the roots could not be watched. */
+        private volatile boolean changed;
+
+        static ChangeWatch start(Collection<Path> roots) {
+            final ChangeWatch watch = new ChangeWatch();
+            watchLock.lock();
+            try {
+                // Changes from before must not count for this watch.
+                dispatch();
+                for (Path root : roots) {
+                    watch.register(root.toAbsolutePath());
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.warn("Can not watch {}. The template is not reused.", roots, e);
+                watch.close();
+            }
+            finally {
+                watchLock.unlock();
+            }
+            return watch;
+        }
+
+        private void register(Path root) throws IOException {
+            if (Files.isDirectory(root)) {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                        registerDirectory(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            else if (Files.exists(root)) {
+                registerDirectory(root.getParent());
+            }
+        }
+
+        private void registerDirectory(Path dir) throws IOException {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+            }
+            // Registering a directory again returns its existing key.
+            final WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            Set<ChangeWatch> interested = watches.get(key);
+            if (interested == null) {
+                interested = new HashSet<ChangeWatch>();
+                watches.put(key, interested);
+            }
+            interested.add(this);
+            keys.add(key);
+        }
+
+        /**
+         * Marks the watches of all keys signalled since the last call as changed. Must hold watchLock.
+         */
+        private static void dispatch() {
+            if (watchService == null) {
+                return;
+            }
+            WatchKey key;
+            try {
+                while ((key = watchService.poll()) != null) {
+                    key.pollEvents();
+                    final Set<ChangeWatch> interested = watches.get(key);
+                    if (interested != null) {
+                        for (ChangeWatch watch : interested) {
+                            watch.changed = true;
+                        }
+                    }
+                    key.reset();
+                }
+            }
+            catch (ClosedWatchServiceException e) {
+                for (Set<ChangeWatch> interested : watches.values()) {
+                    for (ChangeWatch watch : interested) {
+                        watch.changed = true;
+                    }
+                }
+            }
+        }
+
+        boolean isChanged() {
+            if (!changed) {
+                watchLock.lock();
+                try {
+                    dispatch();
+                }
+                finally {
+                    watchLock.unlock();
+                }
+            }
+            return changed;
+        }
+
+        void close() {
+            changed = true;
+            watchLock.lock();
+            try {
+                for (WatchKey key : keys) {
+                    final Set<ChangeWatch> interested = watches.get(key);
+                    if (interested != null && interested.remove(this) && interested.isEmpty()) {
+                        watches.remove(key);
+                        key.cancel();
+                    }
+                }
+                keys.clear();
+                if (watches.isEmpty() && watchService != null) {
+                    try {
+                        watchService.close();
+                    }
+                    catch (IOException e) {
+                        LOGGER.warn("Closing WatchService failed.", e);
+                    }
+                    watchService = null;
+                }
+            }
+            finally {
+                watchLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Thrown while copying a template, that binds an object all copies would share.
+     */
+    private static final class NotCopyable extends RuntimeException {
+        NotCopyable(String className) {
+            super(className, null, false, false);
+        }
+    }
+
+    /**
+     * An InitialContext around an existing root context instead of one created by the
+     * {@link javax.naming.spi.InitialContextFactory}. Releases the template the root was copied from when closed.
+     */
+    private static final class CopiedInitialContext extends InitialContext {
+
+        private Template template;
+
+        CopiedInitialContext(Hashtable<String, String> environment, Context root, Template template) throws NamingException {
+            super(true);
+            myProps = new Hashtable<Object, Object>(environment);
+            defaultInitCtx = root;
+            gotDefault = true;
+            this.template = template;
+        }
+
+        @Override
+        public void close() throws NamingException {
+            try {
+                super.close();
+            }
+            finally {
+                if (template != null) {
+                    template.release();
+                    template = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package org.osjava.sj;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.jndi.NamespaceBatch;
+import org.osjava.sj.loader.NioBasedJndiLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Binding;
+import javax.naming.Name;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Reloads the files changed under the roots of a context while it is in use. See {@link SimpleJndi#WATCH}.
+ * <p>
+ * Every directory under the roots is registered with a {@link WatchService}. Events are collected until none arrived
+ * for {@link SimpleJndi#WATCH_DEBOUNCE} milliseconds, so a burst of changes causes one reload. A reload parses only
+ * the changed files, skipping those whose content did not change, and compares the bindings they produce with those
+ * they produced before. The difference is committed as one {@link NamespaceBatch}, so lookups see the namespace
+ * either before or after a reload, never in between.
+ * <p>
+ * Each file is parsed once more when watching starts, to know what it contributes. A name bound by more than one
+ * file is taken from the root declared first, as when loading. jarMarkerClass, classpath and archive roots are not
+ * watched.
+ */
+final class RootWatcher implements Runnable, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RootWatcher.class);
+    private static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+    /* Effective value of a name, that is not bound by any file. */
+    private static final Object ABSENT = new Object();
+
+    private final MemoryContext target;
+    private final Hashtable<?, ?> contextEnvironment;
+    private final NameParser parser;
+    private final Hashtable<String, String> env;
+    private NioBasedJndiLoader loader;
+    private final List<Root> roots = new ArrayList<Root>();
+    private final long debounceMillis;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+    private final Set<Path> registered = new HashSet<Path>();
+    private final Map<Path, Source> sources = new HashMap<Path, Source>();
+    /* Values bound to a name by the files, the one in effect first. */
+    private final Map<String, List<Claim>> claims = new HashMap<String, List<Claim>>();
+    /* Number of files and directories needing a context. */
+    private final Map<String, Integer> contexts = new HashMap<String, Integer>();
+    private volatile boolean closed;
+    /* For testing: Number of files parsed and of event bursts processed. */
+    final AtomicInteger parsed = new AtomicInteger();
+    final AtomicInteger bursts = new AtomicInteger();
+
+    private RootWatcher(MemoryContext target, Hashtable<String, String> env) throws IOException, NamingException {
+        this.target = target;
+        contextEnvironment = target.getEnvironment();
+        parser = target.getNameParser("");
+        this.env = env;
+        loader = new NioBasedJndiLoader(env);
+        final String debounce = env.get(SimpleJndi.WATCH_DEBOUNCE);
+        debounceMillis = debounce != null ? Long.parseLong(debounce.trim()) : DEFAULT_DEBOUNCE_MILLIS;
+        watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * @param paths The roots as given in {@link SimpleJndi#ROOT}, already loaded into target.
+     * @param target The context the roots were loaded into.
+     */
+    static RootWatcher start(String[] paths, MemoryContext target, Hashtable<String, String> env) throws IOException, NamingException {
+        final RootWatcher watcher = new RootWatcher(target, env);
+        try {
+            final boolean preserveFileName = BooleanUtils.toBoolean(env.get(SimpleJndi.FILENAME_TO_CONTEXT));
+            for (String path : paths) {
+                final File file = new File(path).getAbsoluteFile();
+                if (path.startsWith("jarMarkerClass=") || path.startsWith("classpath:") || NioBasedJndiLoader.isArchive(file)) {
+                    LOGGER.warn("{} is not watched.", path);
+                    continue;
+                }
+                if (file.exists()) {
+                    watcher.roots.add(new Root(watcher.roots.size(), file, file.isDirectory(), preserveFileName));
+                }
+            }
+            final Set<Path> found = new TreeSet<Path>();
+            for (Root root : watcher.roots) {
+                watcher.scan(root.path, found);
+            }
+            for (Path path : found) {
+                final Root root = watcher.rootOf(path);
+                if (root != null) {
+                    watcher.track(path, watcher.read(root, path, null));
+                }
+            }
+        }
+        catch (IOException | NamingException | RuntimeException e) {
+            watcher.close();
+            throw e;
+        }
+        final Thread thread = new Thread(watcher, "simple-jndi-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return watcher;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                final Set<Path> dirty = new LinkedHashSet<Path>();
+                boolean overflow = collect(watchService.take(), dirty);
+                WatchKey key;
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= collect(key, dirty);
+                }
+                try {
+                    reload(overflow ? null : dirty);
+                }
+                catch (Exception e) {
+                    LOGGER.error("Reloading {} failed.", dirty, e);
+                }
+                bursts.incrementAndGet();
+            }
+        }
+        catch (ClosedWatchServiceException | InterruptedException e) {
+            LOGGER.debug("Stopped watching {}", roots);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        }
+        catch (IOException e) {
+            LOGGER.warn("Closing WatchService failed.", e);
+        }
+    }
+
+    /**
+     * @return true: Events were lost.
+     */
+    private boolean collect(WatchKey key, Set<Path> dirty) {
+        final Path dir = keys.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            }
+            else if (dir != null) {
+                dirty.add(dir.resolve((Path) event.context()));
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+            if (dir != null) {
+                registered.remove(dir);
+                dirty.add(dir);
+            }
+        }
+        return overflow;
+    }
+
+    /**
+     * @param dirty Paths of changed files and directories. null: Check all of them.
+     */
+    private void reload(@Nullable Set<Path> dirty) throws IOException, NamingException {
+        // Variables in the files reloaded are replaced with the system properties and environment variables of now.
+        loader = new NioBasedJndiLoader(env);
+        final Set<Path> candidates = new TreeSet<Path>();
+        if (dirty == null) {
+            candidates.addAll(sources.keySet());
+            for (Root root : roots) {
+                scan(root.path, candidates);
+            }
+        }
+        else {
+            for (Path path : dirty) {
+                final Source source = sources.get(path);
+                if (source != null) {
+                    candidates.add(path);
+                    if (source.directory) {
+                        // A removed or renamed directory: Its content is gone too.
+                        for (Path tracked : sources.keySet()) {
+                            if (tracked.startsWith(path)) {
+                                candidates.add(tracked);
+                            }
+                        }
+                    }
+                }
+                if (Files.exists(path)) {
+                    scan(path, candidates);
+                }
+            }
+        }
+        final Map<Path, Source> changes = new LinkedHashMap<Path, Source>();
+        for (Path path : candidates) {
+            final Root root = rootOf(path);
+            if (root == null) {
+                continue;
+            }
+            final Source previous = sources.get(path);
+            if (!Files.exists(path)) {
+                if (previous != null) {
+                    changes.put(path, null);
+                }
+                continue;
+            }
+            try {
+                final Source source = read(root, path, previous);
+                if (source != previous) {
+                    changes.put(path, source);
+                }
+            }
+            catch (IOException | NamingException e) {
+                // Keep what was loaded before, e. g. a file still being written.
+                LOGGER.error("Can not reload {}", path, e);
+            }
+        }
+        if (!changes.isEmpty()) {
+            apply(changes);
+        }
+    }
+
+    /**
+     * Registers every directory at or below path and adds it and the files found to found. Root directories are
+     * registered, but not added.
+     */
+    private void scan(Path path, final Set<Path> found) throws IOException {
+        if (!Files.isDirectory(path)) {
+            if (isRoot(path)) {
+                register(path.getParent());
+            }
+            found.add(path);
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(dir);
+                if (!isRoot(dir)) {
+                    found.add(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                found.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path dir) throws IOException {
+        if (registered.add(dir)) {
+            keys.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+        }
+    }
+
+    private boolean isRoot(Path path) {
+        for (Root root : roots) {
+            if (root.path.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private Root rootOf(Path path) {
+        for (Root root : roots) {
+            if (root.directory ? path.startsWith(root.path) : path.equals(root.path)) {
+                return root;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return CRC32 and length of the content of file, streamed.
+     */
+    private static long hash(Path file) throws IOException {
+        try (CheckedInputStream in = new CheckedInputStream(Files.newInputStream(file), new CRC32())) {
+            final byte[] buffer = new byte[8192];
+            long length = 0;
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                length += read;
+            }
+            return in.getChecksum().getValue() ^ (length << 32);
+        }
+    }
+
+    /**
+     * Loads path into a detached context to see what it contributes.
+     *
+     * @return previous, if the content of the file did not change.
+     */
+    private Source read(Root root, Path path, @Nullable Source previous) throws IOException, NamingException {
+        final MemoryContext detached = new MemoryContext(contextEnvironment);
+        final Source source;
+        if (Files.isDirectory(path)) {
+            source = new Source(root, path, true, 0);
+            loader.createDirectoryContexts(root.file, path, detached);
+        }
+        else {
+            final long hash = hash(path);
+            if (previous != null && !previous.directory && previous.hash == hash) {
+                return previous;
+            }
+            source = new Source(root, path, false, hash);
+            if (root.directory) {
+                loader.loadFile(root.file, path, detached);
+            }
+            else {
+                loader.load(path.toFile(), detached, root.preserveFileName);
+            }
+            parsed.incrementAndGet();
+        }
+        collect(detached, parser.parse(""), source);
+        return source;
+    }
+
+    private static void collect(MemoryContext context, Name prefix, Source source) throws NamingException {
+        final NamingEnumeration<Binding> bindings = context.listBindings("");
+        while (bindings.hasMore()) {
+            final Binding binding = bindings.next();
+            final Name name = ((Name) prefix.clone()).add(binding.getName());
+            if (binding.getObject() instanceof MemoryContext) {
+                source.contexts.add(name.toString());
+                collect((MemoryContext) binding.getObject(), name, source);
+            }
+            else {
+                source.bindings.put(name.toString(), binding.getObject());
+            }
+        }
+    }
+
+    /**
+     * Replaces what each changed path contributed and commits the names whose effective binding changed.
+     *
+     * @param changes The new contribution of each path, null for removed paths.
+     */
+    private void apply(Map<Path, Source> changes) throws NamingException {
+        final Set<String> names = new LinkedHashSet<String>();
+        final Set<String> contextNames = new TreeSet<String>();
+        for (Map.Entry<Path, Source> change : changes.entrySet()) {
+            for (Source source : new Source[] {sources.get(change.getKey()), change.getValue()}) {
+                if (source != null) {
+                    names.addAll(source.bindings.keySet());
+                    contextNames.addAll(source.contexts);
+                }
+            }
+        }
+        final Map<String, Object> before = new HashMap<String, Object>();
+        for (String name : names) {
+            before.put(name, effective(name));
+        }
+        final Set<String> contextsBefore = new HashSet<String>();
+        for (String name : contextNames) {
+            if (contexts.containsKey(name)) {
+                contextsBefore.add(name);
+            }
+        }
+        for (Map.Entry<Path, Source> change : changes.entrySet()) {
+            untrack(change.getKey());
+            if (change.getValue() != null) {
+                track(change.getKey(), change.getValue());
+            }
+        }
+
+        final Set<String> removedContexts = new HashSet<String>();
+        // Sorted, so parents come first.
+        final Set<String> addedContexts = new LinkedHashSet<String>();
+        for (String name : contextNames) {
+            final boolean needed = contexts.containsKey(name);
+            if (contextsBefore.contains(name) && !needed) {
+                removedContexts.add(name);
+            }
+            else if (!contextsBefore.contains(name) && needed
+                    && (isBelow(name, addedContexts) || !isBound(name))) {
+                addedContexts.add(name);
+            }
+        }
+        final NamespaceBatch batch = target.batch();
+        final List<String> rebinds = new ArrayList<String>();
+        for (String name : names) {
+            if (isBelow(name, removedContexts)) {
+                continue;
+            }
+            final Object value = effective(name);
+            final Object previous = before.get(name);
+            if (value == ABSENT) {
+                if (previous != ABSENT) {
+                    batch.unbind(name);
+                }
+            }
+            else if (!Objects.equals(previous, value)) {
+                rebinds.add(name);
+            }
+        }
+        for (String name : removedContexts) {
+            if (!isBelow(name, removedContexts)) {
+                batch.unbind(name);
+            }
+        }
+        for (String name : addedContexts) {
+            batch.createSubcontext(name);
+        }
+        for (String name : rebinds) {
+            batch.rebind(name, effective(name));
+        }
+        batch.commit();
+        LOGGER.info("Reloaded {} files and directories.", changes.size());
+    }
+
+    private void track(Path path, Source source) {
+        sources.put(path, source);
+        for (Map.Entry<String, Object> binding : source.bindings.entrySet()) {
+            List<Claim> list = claims.get(binding.getKey());
+            if (list == null) {
+                list = new ArrayList<Claim>(1);
+                claims.put(binding.getKey(), list);
+            }
+            final Claim claim = new Claim(source, binding.getValue());
+            int i = 0;
+            while (i < list.size() && list.get(i).source.compareTo(source) < 0) {
+                i++;
+            }
+            list.add(i, claim);
+        }
+        for (String name : source.contexts) {
+            final Integer count = contexts.get(name);
+            contexts.put(name, count == null ? 1 : count + 1);
+        }
+    }
+
+    private void untrack(Path path) {
+        final Source source = sources.remove(path);
+        if (source == null) {
+            return;
+        }
+        for (String name : source.bindings.keySet()) {
+            final List<Claim> list = claims.get(name);
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i).source == source) {
+                    list.remove(i);
+                    break;
+                }
+            }
+            if (list.isEmpty()) {
+                claims.remove(name);
+            }
+        }
+        for (String name : source.contexts) {
+            final int count = contexts.get(name);
+            if (count == 1) {
+                contexts.remove(name);
+            }
+            else {
+                contexts.put(name, count - 1);
+            }
+        }
+    }
+
+    private Object effective(String name) {
+        final List<Claim> list = claims.get(name);
+        return list == null ? ABSENT : list.get(0).value;
+    }
+
+    private boolean isBound(String name) throws NamingException {
+        try {
+            target.lookup(name);
+            return true;
+        }
+        catch (NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true: An ancestor of name is in names.
+     */
+    private boolean isBelow(String name, Set<String> names) throws NamingException {
+        if (names.isEmpty()) {
+            return false;
+        }
+        final Name parsed = parser.parse(name);
+        for (int i = parsed.size() - 1; i > 0; i--) {
+            if (names.contains(parsed.getPrefix(i).toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Root {
+        final int index;
+        final File file;
+        final Path path;
+        final boolean directory;
+        final boolean preserveFileName;
+
+        Root(int index, File file, boolean directory, boolean preserveFileName) {
+            this.index = index;
+            this.file = file;
+            this.path = file.toPath();
+            this.directory = directory;
+            this.preserveFileName = preserveFileName;
+        }
+
+        @Override
+        public String toString() {
+            return file.toString();
+        }
+    }
+
+    /**
+     * What a file or directory contributes to the namespace.
+     */
+    private static final class Source implements Comparable<Source> {
+        final Root root;
+        final Path path;
+        final boolean directory;
+        final long hash;
+        final Map<String, Object> bindings = new LinkedHashMap<String, Object>();
+        final Set<String> contexts = new LinkedHashSet<String>();
+
+        Source(Root root, Path path, boolean directory, long hash) {
+            this.root = root;
+            this.path = path;
+            this.directory = directory;
+            this.hash = hash;
+        }
+
+        /**
+         * Earlier roots first, within a root in order of the paths.
+         */
+        @Override
+        public int compareTo(@NotNull Source other) {
+            final int byRoot = Integer.compare(root.index, other.root.index);
+            return byRoot != 0 ? byRoot : path.compareTo(other.path);
+        }
+    }
+
+    private static final class Claim {
+        final Source source;
+        final Object value;
+
+        Claim(Source source, Object value) {
+            this.source = source;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.osjava.sj;
+
+import org.apache.commons.lang.BooleanUtils;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
+
+/**
+ * One user's share of a context shared by many, see {@link SharedContexts}. The context returned to the user delegates
+ * everything to the shared context except close(), which only releases this handle, and
+ * {@link org.osjava.sj.jndi.MemoryContext#IGNORE_CLOSE}, which is kept per handle instead of in the shared
+ * environment. The returned context is of the same type as without sharing, see {@link SharedContexts.Loader#handle}.
+ */
+final class SharedContextHandle {
+
+    private final SharedContexts.Shared shared;
+    private final Context target;
+    /* Not a monitor, so that a virtual thread closing the shared context can unmount. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean ignoreClose;
+    private boolean closed;
+
+    SharedContextHandle(SharedContexts.Shared shared, Context target, boolean ignoreClose) {
+        this.shared = shared;
+        this.target = target;
+        this.ignoreClose = ignoreClose;
+    }
+
+    /**
+     * @return The shared context.
+     */
+    Context getTarget() {
+        return target;
+    }
+
+    void close() throws NamingException {
+        lock.lock();
+        try {
+            if (!ignoreClose && !closed) {
+                closed = true;
+                shared.release();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the shared context now, regardless of other handles.
+     */
+    void forceClose() throws NamingException {
+        lock.lock();
+        try {
+            closed = true;
+            shared.forceClose();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets {@link org.osjava.sj.jndi.MemoryContext#IGNORE_CLOSE} for this handle only.
+     *
+     * @param propVal null: Removed.
+     * @return The previous value.
+     */
+    Object updateIgnoreClose(Object propVal) {
+        final boolean ignoreClose = BooleanUtils.toBoolean((String) propVal);
+        lock.lock();
+        try {
+            final Object old = BooleanUtils.toStringTrueFalse(this.ignoreClose);
+            if (!closed && ignoreClose != this.ignoreClose) {
+                this.ignoreClose = ignoreClose;
+                if (ignoreClose) {
+                    shared.ignore();
+                }
+                else {
+                    shared.retain();
+                }
+            }
+            return old;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isIgnoreClose() {
+        lock.lock();
+        try {
+            return ignoreClose;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param sharedEnvironment The environment of the shared context.
+     * @return sharedEnvironment with the properties of this handle.
+     */
+    Hashtable<Object, Object> environment(Hashtable<?, ?> sharedEnvironment) {
+        final Hashtable<Object, Object> env = new Hashtable<Object, Object>(sharedEnvironment);
+        if (isIgnoreClose()) {
+            env.put(IGNORE_CLOSE, "true");
+        }
+        return env;
+    }
+
+    @Override
+    public String toString() {
+        return "SharedContextHandle{ignoreClose=" + ignoreClose + ", closed=" + closed + '}';
+    }
+}
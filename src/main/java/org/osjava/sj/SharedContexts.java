@@ -0,0 +1,225 @@
+package org.osjava.sj;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.ConfigurationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
+
+/**
+ * Registry of the contexts shared per root, see {@link SimpleJndi#SHARED}. Each root is loaded exactly once, even when
+ * many threads ask for it at the same time: They wait for the first one to finish loading. Every
+ * {@link #acquire(Hashtable)} returns a new context for a {@link SharedContextHandle}, of the same type the factory
+ * returned before contexts were shared this way. The shared context is closed by the first handle closed, as it always
+ * has been, or with {@link SimpleJndi#CLOSE_ON_LAST_HANDLE} set when the last handle is closed. All users of a root
+ * must agree on {@link SimpleJndi#CLOSE_ON_LAST_HANDLE}.
+ * <p>
+ * Handles acquired with {@link org.osjava.sj.jndi.MemoryContext#IGNORE_CLOSE} are not counted. A context only used by
+ * such handles stays loaded until {@link #evictUnused()} is called.
+ */
+class SharedContexts {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedContexts.class);
+
+    interface Loader {
+        /**
+         * @param environment Without {@link org.osjava.sj.jndi.MemoryContext#IGNORE_CLOSE}: close() on the returned
+         * context must really close it.
+         */
+        Context load(Hashtable<String, String> environment) throws NamingException;
+
+        /**
+         * @return The context returned to one user of the context loaded: Delegates to handle's target, but closes
+         * and keeps {@link org.osjava.sj.jndi.MemoryContext#IGNORE_CLOSE} through handle.
+         */
+        Context handle(SharedContextHandle handle);
+    }
+
+    private final ConcurrentHashMap<String, Shared> contextsByRoot = new ConcurrentHashMap<String, Shared>();
+    private final Loader loader;
+
+    SharedContexts(Loader loader) {
+        this.loader = loader;
+    }
+
+    Context acquire(Hashtable<String, String> environment) throws NamingException {
+        final String root = environment.get(SimpleJndi.ROOT);
+        final boolean ignoreClose = BooleanUtils.toBoolean(environment.get(IGNORE_CLOSE));
+        while (true) {
+            final Shared shared = contextsByRoot.computeIfAbsent(root, Shared::new);
+            final Context context = shared.acquire(environment, !ignoreClose);
+            if (context != null) {
+                return loader.handle(new SharedContextHandle(shared, context, ignoreClose));
+            }
+            // Closed meanwhile by its last handle: Load again.
+        }
+    }
+
+    /**
+     * Closes all contexts without open handles, i. e. those only used by handles that ignore close().
+     *
+     * @return Number of contexts closed.
+     */
+    int evictUnused() throws NamingException {
+        int evicted = 0;
+        for (Shared shared : contextsByRoot.values()) {
+            if (shared.evictIfUnused()) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Forgets all contexts without closing them. package-private: Only for Testing!
+     */
+    void clear() {
+        contextsByRoot.clear();
+    }
+
+    /**
+     * The context of one root and the number of its handles, that have to be closed before it is closed.
+     */
+    final class Shared {
+        private final String root;
+        /* A ReentrantLock instead of a monitor lets waiting virtual threads unmount while the root is loaded. */
+        private final ReentrantLock lock = new ReentrantLock();
+        private Context context;
+        private boolean closeOnLastHandle;
+        private int handles;
+        private boolean closed;
+
+        Shared(String root) {
+            this.root = root;
+        }
+
+        /**
+         * @return null if this has been closed meanwhile.
+         */
+        Context acquire(Hashtable<String, String> environment, boolean counted) throws NamingException {
+            final boolean closeOnLastHandle = BooleanUtils.toBoolean(environment.get(SimpleJndi.CLOSE_ON_LAST_HANDLE));
+            lock.lock();
+            try {
+                if (closed) {
+                    return null;
+                }
+                if (context == null) {
+                    final Hashtable<String, String> env = new Hashtable<String, String>(environment);
+                    env.remove(IGNORE_CLOSE);
+                    try {
+                        context = loader.load(env);
+                        this.closeOnLastHandle = closeOnLastHandle;
+                    }
+                    catch (NamingException | RuntimeException e) {
+                        closed = true;
+                        contextsByRoot.remove(root, this);
+                        throw e;
+                    }
+                }
+                else if (closeOnLastHandle != this.closeOnLastHandle) {
+                    throw new ConfigurationException(SimpleJndi.CLOSE_ON_LAST_HANDLE + "=" + closeOnLastHandle
+                            + " conflicts with " + this.closeOnLastHandle + " the shared context of root " + root
+                            + " was loaded with.");
+                }
+                if (counted) {
+                    handles++;
+                }
+                return context;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * A handle, that ignored close() so far, will be closed.
+         */
+        void retain() {
+            lock.lock();
+            try {
+                if (!closed) {
+                    handles++;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * A handle, that will ignore close() from now on, no longer counts. Unlike release() it never closes the
+         * context: Other handles keep using it.
+         */
+        void ignore() {
+            lock.lock();
+            try {
+                if (!closed) {
+                    handles--;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void release() throws NamingException {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                handles--;
+                if (closeOnLastHandle && handles > 0) {
+                    return;
+                }
+                close();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void forceClose() throws NamingException {
+            lock.lock();
+            try {
+                if (!closed) {
+                    close();
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        boolean evictIfUnused() throws NamingException {
+            lock.lock();
+            try {
+                if (closed || handles > 0) {
+                    return false;
+                }
+                close();
+                return true;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        private void close() throws NamingException {
+            closed = true;
+            // First remove, so the context will be removed even when close() throws an Exception.
+            contextsByRoot.remove(root, this);
+            LOGGER.debug("Closing shared context of root {}", root);
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+}
@@ -35,18 +35,43 @@ import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.osjava.sj.jndi.DelegatingMemoryContext;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.loader.DetachedNamespace;
 import org.osjava.sj.loader.JndiLoader;
+import org.osjava.sj.loader.NamespaceSnapshot;
 import org.osjava.sj.loader.NioBasedJndiLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.InterruptedNamingException;
 import javax.naming.NamingException;
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SimpleJndi {
 
@@ -55,13 +80,53 @@ public class SimpleJndi {
     /** Option for top level space (ENC), e.g. "java:comp/env". */
     public static final String ENC = "org.osjava.sj.space";
     public static final String SHARED = "org.osjava.sj.jndi.shared";
+    /**
+     * true: A shared context is closed when all InitialContexts obtained for it are closed, not already by the first
+     * one. See {@link SharedContexts}.
+     */
+    public static final String CLOSE_ON_LAST_HANDLE = "org.osjava.sj.jndi.closeOnLastHandle";
     public static final String JNDI_SYNTAX_SEPARATOR = "jndi.syntax.separator";
     private static final Logger logger = LoggerFactory.getLogger(SimpleJndi.class);
     public static final String FILENAME_TO_CONTEXT = "org.osjava.sj.filenameToContext";
     public static final String PATH_SEPARATOR = "org.osjava.sj.pathSeparator";
+    /** true: Freeze the namespace after loading. See {@link MemoryContext#seal()}. */
+    public static final String SEAL = "org.osjava.sj.seal";
+    /**
+     * true: Contexts that are not shared are copied from a template, that is loaded once per root and environment and
+     * reloaded only when a file under the root changed. See {@link RootTemplates}.
+     */
+    public static final String TEMPLATE_CACHE = "org.osjava.sj.templateCache";
+    /**
+     * Number of threads loading the roots, when there are more than one. Default 1: One root after another on the
+     * calling thread. See {@link #LOAD_EXECUTOR}.
+     */
+    public static final String LOAD_THREADS = "org.osjava.sj.loadThreads";
+    /**
+     * A {@link java.util.concurrent.Executor} instance to load the roots on, instead of threads created for
+     * {@link #LOAD_THREADS}. Can only be set programmatically, not in jndi.properties.
+     */
+    public static final String LOAD_EXECUTOR = "org.osjava.sj.loadExecutor";
+    /**
+     * true: Watch the root directories and files and reload those changed while the context is in use. Not supported
+     * together with {@link #SEAL}. See {@link RootWatcher}.
+     */
+    public static final String WATCH = "org.osjava.sj.watch";
+    /** Milliseconds without further changes, before changed files are reloaded. Default 500. */
+    public static final String WATCH_DEBOUNCE = "org.osjava.sj.watchDebounce";
+    /**
+     * Path of a file to store what was parsed from the roots in. Later starts load the roots from it, as long as no
+     * file under the roots changed. See {@link NamespaceSnapshot}.
+     */
+    public static final String SNAPSHOT = "org.osjava.sj.snapshot";
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleJndi.class);
 
     private Hashtable<String, String> env;
+    /* null, if SNAPSHOT is not set. */
+    private NamespaceSnapshot snapshot;
+    /* true: Typed values are converted on first lookup. See JndiLoader#setDeferConversion(). */
+    boolean deferConversion;
+    /* Retaining the archives loaded from until the context is closed. */
+    private final List<NioBasedJndiLoader> loaders = Collections.synchronizedList(new ArrayList<NioBasedJndiLoader>());
 
     SimpleJndi(Hashtable<String, String> environment) {
         this.env = environment;
@@ -69,74 +134,333 @@ public class SimpleJndi {
 
     InitialContext loadRoot() throws NamingException {
 
-        final InitialContext initialContext = new InitialContext(env);
+        final RootInitialContext initialContext = new RootInitialContext(env);
+        initialContext.loaders = loaders;
         Context ctxt = initialContext;
         ctxt = createENC(env, ctxt);
 //        FileBasedJndiLoader loader = new FileBasedJndiLoader(env);
-        NioBasedJndiLoader loader = new NioBasedJndiLoader(env);
         String root = getRoot(env);
         if (root != null && !root.isEmpty()) {
             final String[] roots = extractRoots(root);
-            for (String path : roots) {
-                if (!path.startsWith("jarMarkerClass=")) {
-                    final File rootFile = new File(path);
-                    LOGGER.debug("Loading {}", rootFile.getAbsolutePath());
-                    try {
-                        loader.load(rootFile, ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
-                    }
-                    catch (Exception e) {
-                        String message = "Unable to load: " + rootFile.getAbsolutePath();
-                        throwException(initialContext, e, message);
-                    }
+            final String snapshotFile = env.get(SNAPSHOT);
+            if (snapshotFile != null) {
+                snapshot = NamespaceSnapshot.open(new File(snapshotFile), fingerprint(), env);
+            }
+            try {
+                // Not through the InitialContext, so that a root is attached in one batch.
+                final Context target = ctxt instanceof MemoryContext ? ctxt : initialContext.getRootContext();
+                if (roots.length > 1 && (getLoadExecutor() != null || getLoadThreads() > 1)) {
+                    loadConcurrently(roots, target);
                 }
                 else {
-                    LOGGER.debug("Processing path={}", path);
-                    String[] parts = StringUtils.split(path, "=,");
-                    for (int i = 0; i < parts.length; i++) {
-                        String part = parts[i];
-                        LOGGER.debug("Split to: {}", part);
+                    NioBasedJndiLoader loader = newLoader();
+                    for (String path : roots) {
+                        load(path, loader, new DetachedNamespace(target)).attachTo(target);
                     }
-                    URL pathToJar = null;
-                    try {
-                        Class<?> clazz = Class.forName(parts[1]);
-                        pathToJar = clazz.getProtectionDomain().getCodeSource().getLocation();
-                        File jarFile = new File(pathToJar.toURI());
-                        loader.loadJar(jarFile, parts[3], ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
-                    }
-                    catch (ClassNotFoundException e) {
-                        String msg = "Unable to load jarMarkerClass";
-                        throwException(initialContext, e, msg);
+                }
+            }
+            catch (NamingException e) {
+                initialContext.close();
+                throw e;
+            }
+            if (snapshot != null && snapshot.isModified()) {
+                try {
+                    snapshot.write(new File(snapshotFile));
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Unable to write snapshot {}", snapshotFile, e);
+                }
+            }
+            if (BooleanUtils.toBoolean(env.get(WATCH))) {
+                watch(initialContext, ctxt, roots);
+            }
+        }
+        else {
+            logger.warn("Mistakenly no root provided?");
+        }
+        if (BooleanUtils.toBoolean(env.get(SEAL))) {
+            seal(initialContext);
+        }
+        return initialContext;
+    }
+
+    /**
+     * @return A hash over path, size and modification time of every file and directory under the roots. Changes,
+     * when a file is modified, added or removed. For jarMarkerClass roots the jar file is considered.
+     */
+    long fingerprint() {
+        final long[] hash = {17};
+        for (Map.Entry<String, Path> root : rootPaths().entrySet()) {
+            final String path = root.getKey();
+            final Path rootPath = root.getValue();
+            try {
+                Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        add(dir, attrs);
+                        return FileVisitResult.CONTINUE;
                     }
-                    catch (URISyntaxException e) {
-                        String msg = "Unable to resolve path to jar file: " + pathToJar;
-                        throwException(initialContext, e, msg);
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        add(file, attrs);
+                        return FileVisitResult.CONTINUE;
                     }
-                    catch (Exception e) {
-                        String msg = "Unable to load root from jar. jarMarkerClass: " + parts[1] + " root: " + parts[3];
-                        throwException(initialContext, e, msg);
+
+                    private void add(Path file, BasicFileAttributes attrs) {
+                        hash[0] = 31 * (31 * (31 * hash[0] + file.hashCode()) + attrs.size())
+                                + attrs.lastModifiedTime().toMillis();
                     }
+                });
+            }
+            catch (IOException e) {
+                // e. g. missing root: loadRoot() will complain.
+                hash[0] = 31 * hash[0] + path.hashCode();
+            }
+        }
+        return hash[0];
+    }
+
+    /**
+     * @return The file or directory of every root in the file system by its declaration. For jarMarkerClass roots the
+     * jar file. Without the roots, that can not be located.
+     */
+    @NotNull
+    Map<String, Path> rootPaths() {
+        final Map<String, Path> paths = new LinkedHashMap<String, Path>();
+        final String root = getRoot(env);
+        if (root == null || root.isEmpty()) {
+            return paths;
+        }
+        for (String path : extractRoots(root)) {
+            if (!path.startsWith("jarMarkerClass=")) {
+                paths.put(path, Paths.get(path));
+            }
+            else {
+                try {
+                    final Class<?> clazz = Class.forName(StringUtils.split(path, "=,")[1]);
+                    paths.put(path, Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()));
+                }
+                catch (Exception e) {
+                    LOGGER.debug("Can not locate jar of {}", path, e);
                 }
             }
         }
+        return paths;
+    }
+
+    private NioBasedJndiLoader newLoader() {
+        final NioBasedJndiLoader loader = new NioBasedJndiLoader(env);
+        loader.setDeferConversion(deferConversion);
+        loader.setRetainArchives(true);
+        loaders.add(loader);
+        return loader;
+    }
+
+    private void seal(RootInitialContext initialContext) throws NamingException {
+        final Context rootContext = initialContext.getRootContext();
+        if (rootContext instanceof MemoryContext) {
+            final long saved = ((MemoryContext) rootContext).seal();
+            LOGGER.info("Sealed root {}. Approximately {} bytes of heap saved.", env.get(ROOT), saved);
+        }
         else {
-            logger.warn("Mistakenly no root provided?");
+            LOGGER.warn("{} is set, but {} can not be sealed.", SEAL, rootContext.getClass().getName());
         }
-        return initialContext;
     }
 
-    private void throwException(final InitialContext initialContext, final Exception e, final String msg) throws NamingException {
+    /**
+     * @param ctxt The namespace filled. Attached to the context loaded for by the caller.
+     */
+    @NotNull
+    private DetachedNamespace load(String path, NioBasedJndiLoader loader, DetachedNamespace ctxt) throws NamingException {
+        if (path.startsWith("classpath:")) {
+            LOGGER.debug("Loading {}", path);
+            try {
+                loader.loadClasspath(path.substring("classpath:".length()), getClassLoader(), ctxt,
+                        BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
+            }
+            catch (Exception e) {
+                throw loadFailure(e, "Unable to load: " + path);
+            }
+        }
+        else if (!path.startsWith("jarMarkerClass=")) {
+            final File rootFile = new File(path);
+            LOGGER.debug("Loading {}", rootFile.getAbsolutePath());
+            try {
+                if (NioBasedJndiLoader.isArchive(rootFile)) {
+                    loader.loadArchive(rootFile.toPath(), "/", ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
+                }
+                else if (snapshot != null) {
+                    snapshot.load(rootFile, loader, ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
+                }
+                else {
+                    loader.load(rootFile, ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
+                }
+            }
+            catch (Exception e) {
+                String message = "Unable to load: " + rootFile.getAbsolutePath();
+                throw loadFailure(e, message);
+            }
+        }
+        else {
+            LOGGER.debug("Processing path={}", path);
+            String[] parts = StringUtils.split(path, "=,");
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i];
+                LOGGER.debug("Split to: {}", part);
+            }
+            URL pathToJar = null;
+            try {
+                Class<?> clazz = Class.forName(parts[1]);
+                pathToJar = clazz.getProtectionDomain().getCodeSource().getLocation();
+                File jarFile = new File(pathToJar.toURI());
+                loader.loadJar(jarFile, parts[3], ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
+            }
+            catch (ClassNotFoundException e) {
+                String msg = "Unable to load jarMarkerClass";
+                throw loadFailure(e, msg);
+            }
+            catch (URISyntaxException e) {
+                String msg = "Unable to resolve path to jar file: " + pathToJar;
+                throw loadFailure(e, msg);
+            }
+            catch (Exception e) {
+                String msg = "Unable to load root from jar. jarMarkerClass: " + parts[1] + " root: " + parts[3];
+                throw loadFailure(e, msg);
+            }
+        }
+        return ctxt;
+    }
+
+    /**
+     * Loads every root into a {@link DetachedNamespace} on the executor configured by {@link #LOAD_EXECUTOR} or
+     * {@link #LOAD_THREADS}. The namespaces are then attached to ctxt in the order the roots were declared, so the
+     * result does not depend on which root finished first. If loading a root fails, the failure of the first such
+     * root in declaration order is thrown.
+     */
+    private void loadConcurrently(String[] roots, Context ctxt) throws NamingException {
+        Executor executor = getLoadExecutor();
+        ExecutorService ownExecutor = null;
+        if (executor == null) {
+            ownExecutor = Executors.newFixedThreadPool(Math.min(getLoadThreads(), roots.length), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(@NotNull Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "simple-jndi-loader-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor = ownExecutor;
+        }
+        final List<FutureTask<DetachedNamespace>> tasks = new ArrayList<FutureTask<DetachedNamespace>>(roots.length);
+        try {
+            for (final String path : roots) {
+                final DetachedNamespace detached = new DetachedNamespace(ctxt);
+                final FutureTask<DetachedNamespace> task = new FutureTask<DetachedNamespace>(new Callable<DetachedNamespace>() {
+                    @Override
+                    public DetachedNamespace call() throws NamingException {
+                        return load(path, newLoader(), detached);
+                    }
+                });
+                tasks.add(task);
+                executor.execute(task);
+            }
+            for (FutureTask<DetachedNamespace> task : tasks) {
+                loaded(task).attachTo(ctxt);
+            }
+        }
+        finally {
+            for (FutureTask<DetachedNamespace> task : tasks) {
+                task.cancel(true);
+            }
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
+    }
+
+    @NotNull
+    private static DetachedNamespace loaded(FutureTask<DetachedNamespace> task) throws NamingException {
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedNamingException e2 = new InterruptedNamingException("Interrupted while loading roots");
+            e2.setRootCause(e);
+            throw e2;
+        }
+        catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof NamingException) {
+                throw (NamingException) cause;
+            }
+            final NamingException e2 = new NamingException("Unable to load root");
+            e2.setRootCause(cause);
+            throw e2;
+        }
+    }
+
+    private void watch(RootInitialContext initialContext, Context ctxt, String[] roots) throws NamingException {
+        final Context target = ctxt instanceof MemoryContext ? ctxt : initialContext.getRootContext();
+        if (BooleanUtils.toBoolean(env.get(SEAL))) {
+            LOGGER.warn("{} is ignored: A sealed namespace can not be reloaded.", WATCH);
+        }
+        else if (!(target instanceof MemoryContext)) {
+            LOGGER.warn("{} is set, but {} can not be reloaded.", WATCH, target.getClass().getName());
+        }
+        else {
+            try {
+                initialContext.watcher = RootWatcher.start(roots, (MemoryContext) target, env);
+            }
+            catch (IOException e) {
+                initialContext.close();
+                throw loadFailure(e, "Unable to watch: " + env.get(ROOT));
+            }
+        }
+    }
+
+    @Nullable
+    private Executor getLoadExecutor() {
+        final Object executor = ((Hashtable<?, ?>) env).get(LOAD_EXECUTOR);
+        return executor instanceof Executor ? (Executor) executor : null;
+    }
+
+    private int getLoadThreads() {
+        final String threads = env.get(LOAD_THREADS);
+        return threads != null ? Integer.parseInt(threads.trim()) : 1;
+    }
+
+    private NamingException loadFailure(final Exception e, final String msg) {
         LOGGER.error(msg, e);
-        initialContext.close();
         NamingException e2 = new NamingException(msg);
         e2.setRootCause(e);
-        throw e2;
+        return e2;
     }
 
     @NotNull
     String[] extractRoots(String root) {
         String pathSeparator = env.get(PATH_SEPARATOR);
-        return root.split(
+        final String[] roots = root.split(
                 pathSeparator == null ? File.pathSeparator : pathSeparator);
+        final List<String> joined = new ArrayList<String>(roots.length);
+        for (int i = 0; i < roots.length; i++) {
+            // The colon of "classpath:" is no path separator.
+            if (roots[i].equals("classpath") && i + 1 < roots.length && root.contains("classpath:")) {
+                joined.add("classpath:" + roots[++i]);
+            }
+            else {
+                joined.add(roots[i]);
+            }
+        }
+        return joined.toArray(new String[joined.size()]);
+    }
+
+    private static ClassLoader getClassLoader() {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return contextClassLoader != null ? contextClassLoader : SimpleJndi.class.getClassLoader();
     }
 
     /**
@@ -161,6 +485,41 @@ public class SimpleJndi {
         return ctxt;
     }
 
+    /**
+     * Gives access to the context created by the {@link javax.naming.spi.InitialContextFactory}.
+     */
+    static class RootInitialContext extends InitialContext {
+
+        /* null, if WATCH is not set. */
+        RootWatcher watcher;
+        /* Their archives are released when closed. */
+        List<NioBasedJndiLoader> loaders = Collections.emptyList();
+
+        RootInitialContext(Hashtable<?, ?> environment) throws NamingException {
+            super(environment);
+        }
+
+        @Override
+        public void close() throws NamingException {
+            try {
+                if (watcher != null) {
+                    watcher.close();
+                }
+                super.close();
+            }
+            finally {
+                for (NioBasedJndiLoader loader : new ArrayList<NioBasedJndiLoader>(loaders)) {
+                    loader.releaseArchives();
+                }
+            }
+        }
+
+        Context getRootContext() throws NamingException {
+            final Context context = getDefaultInitCtx();
+            return context instanceof DelegatingMemoryContext ? ((DelegatingMemoryContext) context).getTarget() : context;
+        }
+    }
+
     @Nullable
     private String getRoot(Hashtable env) {
         String root = (String) env.get(ROOT);
@@ -34,11 +34,9 @@ import org.apache.commons.lang.BooleanUtils;
 import org.osjava.sj.jndi.DelimiterConvertingContext;
 
 import javax.naming.Context;
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.naming.spi.InitialContextFactory;
 import java.util.Hashtable;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
 
@@ -48,14 +46,53 @@ import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
  * @author Henri Yandell, Holger Thurow
  */
 public class SimpleJndiContextFactory extends ContextFactory implements InitialContextFactory {
-    private static final ConcurrentHashMap<String, DelimiterConvertingContext> contextsByRoot =
-            new ConcurrentHashMap<String, DelimiterConvertingContext>();
+    private static final SharedContexts sharedContexts = new SharedContexts(new SharedContexts.Loader() {
+        @Override
+        public Context load(Hashtable<String, String> environment) throws NamingException {
+            return new SimpleJndi(environment).loadRoot();
+        }
+
+        @Override
+        public Context handle(final SharedContextHandle handle) {
+            return new DelimiterConvertingContext(handle.getTarget()) {
+                @Override
+                public Object addToEnvironment(String key, Object value) throws NamingException {
+                    return IGNORE_CLOSE.equals(key) ? handle.updateIgnoreClose(value) : super.addToEnvironment(key, value);
+                }
+
+                @Override
+                public Object removeFromEnvironment(String key) throws NamingException {
+                    return IGNORE_CLOSE.equals(key) ? handle.updateIgnoreClose(null) : super.removeFromEnvironment(key);
+                }
+
+                @Override
+                public Hashtable getEnvironment() throws NamingException {
+                    return handle.environment(super.getEnvironment());
+                }
+
+                @Override
+                public void close() throws NamingException {
+                    handle.close();
+                }
+            };
+        }
+    });
 
     /**
      * package-private: Only for Testing!
      */
     static void clearCache() {
-        contextsByRoot.clear();
+        sharedContexts.clear();
+    }
+
+    /**
+     * Closes the shared contexts no longer used, i. e. those only obtained with
+     * {@link org.osjava.sj.jndi.MemoryContext#IGNORE_CLOSE} set.
+     *
+     * @return Number of contexts closed.
+     */
+    public static int evictUnused() throws NamingException {
+        return sharedContexts.evictUnused();
     }
 
     /**
@@ -68,40 +105,13 @@ public class SimpleJndiContextFactory extends ContextFactory implements InitialC
         final Boolean isShared = Boolean.valueOf(
                 (String) environment.get(SimpleJndi.SHARED));
         if (!isShared) {
+            if (BooleanUtils.toBoolean((String) environment.get(SimpleJndi.TEMPLATE_CACHE))) {
+                return new DelimiterConvertingContext(RootTemplates.newContext(environment));
+            }
             return new DelimiterConvertingContext(new SimpleJndi(environment).loadRoot());
         }
         else {
-            final String root = (String) environment.get(SimpleJndi.ROOT);
-            final Context ctx = contextsByRoot.get(root);
-            if (ctx != null) {
-                String ignoreClose = (String) environment.get(IGNORE_CLOSE);
-                ctx.addToEnvironment(
-                        IGNORE_CLOSE,
-                        BooleanUtils.toStringTrueFalse(BooleanUtils.toBoolean(ignoreClose)));
-                return ctx;
-            }
-            else {
-                InitialContext context = new SimpleJndi(environment).loadRoot();
-                final DelimiterConvertingContext delimiterConvertingContext = new DelimiterConvertingContext(context) {
-                    private boolean isClosed;
-
-                    @Override
-                    public void close() throws NamingException {
-                        // When already closed getEnvironment() throws an Exception.
-                        if (!isClosed) {
-                            String ignoreClose = (String) getEnvironment().get(IGNORE_CLOSE);
-                            if (!BooleanUtils.toBoolean(ignoreClose)) {
-                                // first remove, so the context will be removed even when close() throws an Exception.
-                                contextsByRoot.remove(root);
-                                target.close();
-                                isClosed = true;
-                            }
-                        }
-                    }
-                };
-                contextsByRoot.put(root, delimiterConvertingContext);
-                return delimiterConvertingContext;
-            }
+            return sharedContexts.acquire(environment);
         }
     }
 }
@@ -55,25 +55,28 @@ import java.util.Map;
 public class ContextBindings implements NamingEnumeration {
     
     /**
-     * A Map of the bindings of a Context.
+     * The iterator utilized in the Enumeration. null after close().
      */
-    private Map bindings = null;
-    
-    /**
-     * The iterator utilized in the Enumeration
-     */
-    private Iterator iterator = null;
+    private Iterator<? extends Map.Entry<?, ?>> iterator = null;
 
     /**
      * Creates a ContextBindings object based upon an a Map of names and the objects 
-     * the names are bound to.  If <code>table</code> is modified after instantiation 
-     * of ContextBindings, behavior is undefined and should be considered invalid.
+     * the names are bound to. Nothing is copied: If <code>table</code> is a concurrent map,
+     * the enumeration is weakly consistent, otherwise <code>table</code> must not be
+     * modified while enumerating.
      * 
      * @param table The table upon which the ContextBindings is based.
      */
     public ContextBindings(Map table) {
-        bindings = table;
-        iterator = bindings.keySet().iterator();
+        this(((Map<?, ?>) table).entrySet().iterator());
+    }
+
+    /**
+     * @param iterator Names and bound objects. Values may be {@link MemoryContext.Entry}s, which are enumerated as the
+     * object they hold under the name they were bound with.
+     */
+    ContextBindings(Iterator<? extends Map.Entry<?, ?>> iterator) {
+        this.iterator = iterator;
     }
 
     /**
@@ -96,7 +99,7 @@ public class ContextBindings implements NamingEnumeration {
      * @throws NamingException if a naming exception is encountered
      */
     public boolean hasMore() throws NamingException {
-        if(bindings == null) {
+        if(iterator == null) {
             throw new NamingException();
         }
         return hasMoreElements();
@@ -109,12 +112,17 @@ public class ContextBindings implements NamingEnumeration {
      *         name
      */
     public Object nextElement() {
-        if(bindings == null) { 
+        if(iterator == null) { 
             return null;
         }
-        Object name = iterator.next();
-        /* What comes out of the iterator should be a CompoundName */
-        return new Binding(name.toString(), bindings.get(name));
+        Map.Entry<?, ?> binding = iterator.next();
+        Object object = binding.getValue();
+        String name = binding.getKey().toString();
+        if(object instanceof MemoryContext.Entry) {
+            name = ((MemoryContext.Entry) object).name(name);
+            object = ((MemoryContext.Entry) object).listed();
+        }
+        return new Binding(name, object);
     }
 
     /**
@@ -125,7 +133,7 @@ public class ContextBindings implements NamingEnumeration {
      * @throws NamingException if a naming exception occurs
      */
     public Object next() throws NamingException {
-        if(bindings == null) {
+        if(iterator == null) {
             throw new NamingException();
         }
         return nextElement();
@@ -135,7 +143,6 @@ public class ContextBindings implements NamingEnumeration {
      * Close the ContextBindings instance, rendering it inoperable.
      */
     public void close() {
-        bindings = null;
         iterator = null;
     }
 
@@ -41,6 +41,7 @@ package org.osjava.sj.jndi;
 import javax.naming.Binding;
 import javax.naming.NameClassPair;
 import javax.naming.NamingException;
+import java.util.Iterator;
 import java.util.Map;
 
 /**
@@ -64,6 +65,10 @@ public class ContextNames extends ContextBindings {
         super(table);
     }
 
+    ContextNames(Iterator<? extends Map.Entry<?, ?>> iterator) {
+        super(iterator);
+    }
+
     /**
      * Returns a {@link NameClassPair} created from the next available name.
      * 
@@ -85,8 +90,9 @@ public class ContextNames extends ContextBindings {
     public Object next() throws NamingException {
         Binding binding = null;
         binding = (Binding)super.next();
+        Object object = binding.getObject();
         return new NameClassPair(binding.getName(), 
-            binding.getObject().getClass().getName());
+            object == null ? null : object.getClass().getName());
     }
 }
 
@@ -0,0 +1,17 @@
+package org.osjava.sj.jndi;
+
+import javax.naming.RefAddr;
+import javax.naming.Reference;
+
+/**
+ * A {@link Reference} bound in place of a value, that is only created when needed, e. g. a converted value of a root
+ * loaded from a snapshot. Unlike other References it stands for the value itself: A {@link MemoryContext} resolves it
+ * on lookup and also before list() and listBindings() show it, so that they show the value as if it had been bound
+ * directly.
+ */
+public class DeferredReference extends Reference {
+
+    public DeferredReference(String className, RefAddr addr, String factory, String factoryLocation) {
+        super(className, addr, factory, factoryLocation);
+    }
+}
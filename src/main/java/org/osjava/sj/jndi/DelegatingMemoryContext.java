@@ -0,0 +1,262 @@
+package org.osjava.sj.jndi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * A {@link MemoryContext} delegating everything to another one, e. g. one user's handle of a shared context, that is
+ * closed differently. Subclasses override what they handle themselves. Its own bindings stay empty.
+ */
+public class DelegatingMemoryContext extends MemoryContext {
+
+    protected final MemoryContext target;
+
+    public DelegatingMemoryContext(@NotNull MemoryContext target) {
+        super(target.getEnvironment());
+        this.target = target;
+    }
+
+    /**
+     * @return The context delegated to.
+     */
+    @NotNull
+    public MemoryContext getTarget() {
+        return target;
+    }
+
+    @Override
+    public Object lookup(@NotNull Name name) throws NamingException {
+        return target.lookup(name);
+    }
+
+    @Override
+    public Object lookup(@NotNull String name) throws NamingException {
+        return target.lookup(name);
+    }
+
+    @Override
+    public LookupHandle handle(@NotNull String name) {
+        return target.handle(name);
+    }
+
+    @Override
+    public void bind(@NotNull Name name, @Nullable Object object) throws NamingException {
+        target.bind(name, object);
+    }
+
+    @Override
+    public void bind(@NotNull String name, @Nullable Object object) throws NamingException {
+        target.bind(name, object);
+    }
+
+    @Override
+    public void rebind(@NotNull Name name, @Nullable Object object) throws NamingException {
+        target.rebind(name, object);
+    }
+
+    @Override
+    public void rebind(@NotNull String name, @Nullable Object object) throws NamingException {
+        target.rebind(name, object);
+    }
+
+    @Override
+    public boolean bindIfAbsent(@NotNull Name name, @Nullable Object object) throws NamingException {
+        return target.bindIfAbsent(name, object);
+    }
+
+    @Override
+    public boolean bindIfAbsent(@NotNull String name, @Nullable Object object) throws NamingException {
+        return target.bindIfAbsent(name, object);
+    }
+
+    @Override
+    public Object computeIfAbsent(@NotNull Name name, @NotNull Function<? super Name, ?> factory) throws NamingException {
+        return target.computeIfAbsent(name, factory);
+    }
+
+    @Override
+    public Object computeIfAbsent(@NotNull String name, @NotNull Function<? super Name, ?> factory) throws NamingException {
+        return target.computeIfAbsent(name, factory);
+    }
+
+    @Override
+    public Context createSubcontexts(@NotNull Name name) throws NamingException {
+        return target.createSubcontexts(name);
+    }
+
+    @Override
+    public Context createSubcontexts(@NotNull String name) throws NamingException {
+        return target.createSubcontexts(name);
+    }
+
+    @Override
+    public void unbind(@NotNull Name name) throws NamingException {
+        target.unbind(name);
+    }
+
+    @Override
+    public void unbind(@NotNull String name) throws NamingException {
+        target.unbind(name);
+    }
+
+    @Override
+    public void rename(@NotNull Name oldName, @NotNull Name newName) throws NamingException {
+        target.rename(oldName, newName);
+    }
+
+    @Override
+    public void rename(@NotNull String oldName, @NotNull String newName) throws NamingException {
+        target.rename(oldName, newName);
+    }
+
+    @Override
+    public NamingEnumeration list(@NotNull Name name) throws NamingException {
+        return target.list(name);
+    }
+
+    @Override
+    public NamingEnumeration list(@NotNull String name) throws NamingException {
+        return target.list(name);
+    }
+
+    @Override
+    public NamingEnumeration listBindings(@NotNull Name name) throws NamingException {
+        return target.listBindings(name);
+    }
+
+    @Override
+    public NamingEnumeration listBindings(@NotNull String name) throws NamingException {
+        return target.listBindings(name);
+    }
+
+    @Override
+    public NamingEnumeration<Binding> listBindings(@NotNull String name, @Nullable String after, int limit) throws NamingException {
+        return target.listBindings(name, after, limit);
+    }
+
+    @Override
+    public void destroySubcontext(Name name) throws NamingException {
+        target.destroySubcontext(name);
+    }
+
+    @Override
+    public void destroySubcontext(String name) throws NamingException {
+        target.destroySubcontext(name);
+    }
+
+    @Override
+    public Context createSubcontext(Name name) throws NamingException {
+        return target.createSubcontext(name);
+    }
+
+    @Override
+    public Context createSubcontext(String name) throws NamingException {
+        return target.createSubcontext(name);
+    }
+
+    @Override
+    public NamespaceBatch batch() {
+        return target.batch();
+    }
+
+    @Override
+    public Object lookupLink(Name name) throws NamingException {
+        return target.lookupLink(name);
+    }
+
+    @Override
+    public Object lookupLink(String name) throws NamingException {
+        return target.lookupLink(name);
+    }
+
+    @Override
+    public NameParser getNameParser(Name name) throws NamingException {
+        return target.getNameParser(name);
+    }
+
+    @Override
+    public NameParser getNameParser(String name) throws NamingException {
+        return target.getNameParser(name);
+    }
+
+    @Override
+    public Name composeName(Name name, Name prefix) throws NamingException {
+        return target.composeName(name, prefix);
+    }
+
+    @Override
+    public String composeName(String name, String prefix) throws NamingException {
+        return target.composeName(name, prefix);
+    }
+
+    @Override
+    public Object addToEnvironment(String name, Object object) {
+        return target.addToEnvironment(name, object);
+    }
+
+    @Override
+    public Object removeFromEnvironment(String name) {
+        return target.removeFromEnvironment(name);
+    }
+
+    @Override
+    public Hashtable getEnvironment() {
+        // null: Called by the constructor of MemoryContext.
+        return target != null ? target.getEnvironment() : super.getEnvironment();
+    }
+
+    @Override
+    public void close() throws NamingException {
+        target.close();
+    }
+
+    @Override
+    public String getNameInNamespace() {
+        return target.getNameInNamespace();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return target.isEmpty();
+    }
+
+    @Override
+    public void forceClose() throws NamingException {
+        target.forceClose();
+    }
+
+    @Override
+    public long seal() {
+        return target.seal();
+    }
+
+    @Override
+    public boolean isSealed() {
+        return target.isSealed();
+    }
+
+    @Override
+    public MemoryContext copy() throws NamingException {
+        return target.copy();
+    }
+
+    @Override
+    public MemoryContext copy(@NotNull UnaryOperator<Object> values) throws NamingException {
+        return target.copy(values);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{target=" + target + '}';
+    }
+}
@@ -33,18 +33,40 @@ package org.osjava.sj.jndi;
 
 import javax.naming.*;
 import java.util.Hashtable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 /**
  * Converts between org.osjava.sj.delimiter for parsing property files and jndi.syntax.separator for lookups when they are different.
+ * A delimiter, that is a regular expression, is converted like the keys in the files, see
+ * {@link JndiUtils#delimiterPattern(String)}: With "\.|/" and separator "/", "a.b" is looked up as "a/b".
  */
 public class DelimiterConvertingContext implements Context {
 
     protected Context target;
+    /* Cached from the target's environment, so that converting a name does not copy the environment. */
+    private volatile String separator;
+    private volatile String delimiter;
+    /* null: delimiter is a single char. Set with delimiter. */
+    private volatile Pattern delimiterPattern;
 
     public DelimiterConvertingContext(Context ctxt) {
         // ctxt ist ein MemoryContext.
         this.target = ctxt;
+        try {
+            readSeparators(ctxt.getEnvironment());
+        }
+        catch (NamingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void readSeparators(Hashtable env) {
+        separator = (String) env.get("jndi.syntax.separator");
+        final String delimiter = (String) env.get("org.osjava.sj.delimiter");
+        delimiterPattern = delimiter != null ? JndiUtils.delimiterPattern(delimiter) : null;
+        this.delimiter = delimiter;
     }
 
     public Object lookup(Name name) throws NamingException {
@@ -57,11 +79,20 @@ public class DelimiterConvertingContext implements Context {
     }
 
     String normalizeSeparator(String name) throws NamingException {
-        final Hashtable<String, String> env = getEnvironment();
-        final String separator = env.get("jndi.syntax.separator");
+        final String separator = this.separator;
         if (separator != null) {
-            final String delimiter = env.get("org.osjava.sj.delimiter");
-            if (!separator.equals(delimiter)) {
+            final String delimiter = this.delimiter;
+            final Pattern pattern = delimiterPattern;
+            if (delimiter == null || separator.equals(delimiter)) {
+                return name;
+            }
+            if (pattern != null) {
+                final Matcher matcher = pattern.matcher(name);
+                if (matcher.find()) {
+                    name = matcher.replaceAll(Matcher.quoteReplacement(separator));
+                }
+            }
+            else if (name.contains(delimiter)) {
                 name = name.replace(delimiter, separator);
             }
         }
@@ -170,11 +201,15 @@ public class DelimiterConvertingContext implements Context {
     }
 
     public Object addToEnvironment(String key, Object value) throws NamingException {
-        return this.target.addToEnvironment(key, value);
+        final Object previous = this.target.addToEnvironment(key, value);
+        readSeparators(this.target.getEnvironment());
+        return previous;
     }
 
     public Object removeFromEnvironment(String key) throws NamingException {
-        return this.target.removeFromEnvironment(key);
+        final Object previous = this.target.removeFromEnvironment(key);
+        readSeparators(this.target.getEnvironment());
+        return previous;
     }
 
     public Hashtable getEnvironment() throws NamingException {
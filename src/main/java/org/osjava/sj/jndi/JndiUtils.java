@@ -1,11 +1,14 @@
 package org.osjava.sj.jndi;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osjava.sj.loader.JndiLoader;
 
 import javax.naming.*;
 import java.util.Enumeration;
 import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * @author Holger Thurow (thurow.h@gmail.com)
@@ -52,5 +55,31 @@ public class JndiUtils {
         return new CompoundName(objName, envCopy);
     }
 
+    /**
+     * A delimiter of one character is taken literally. A longer delimiter is a regular expression, e. g. "\.|/". One,
+     * that is no valid regular expression, is taken literally, as by CompoundName.
+     *
+     * @param delimiter See {@link JndiLoader#DELIMITER}.
+     * @return The pattern matching delimiter. null: delimiter is a single char.
+     * @throws IllegalArgumentException if delimiter matches an empty string.
+     */
+    @Nullable
+    public static Pattern delimiterPattern(@NotNull String delimiter) {
+        if (delimiter.length() <= 1) {
+            return null;
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(delimiter);
+            if (pattern.matcher("").matches()) {
+                throw new IllegalArgumentException(JndiLoader.DELIMITER + " must not match an empty string: " + delimiter);
+            }
+        }
+        catch (PatternSyntaxException e) {
+            pattern = Pattern.compile(Pattern.quote(delimiter));
+        }
+        return pattern;
+    }
+
 
 }
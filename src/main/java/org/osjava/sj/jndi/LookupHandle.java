@@ -0,0 +1,125 @@
+package org.osjava.sj.jndi;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.naming.NamingException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A name looked up once and then served from a cache, as long as the namespace it was resolved in has not been
+ * modified. Every {@link MemoryContext} tree counts its modifications. {@link #get()} compares that counter with the
+ * value it had when the name was resolved, which is a single volatile read when nothing has changed. After any bind(),
+ * rebind(), unbind(), rename() or destroySubcontext() in the tree the name is resolved again.
+ * <p>
+ * Names that pass a context other than a MemoryContext, or that need the full NameParser, are not cached: Every get()
+ * is a plain {@link MemoryContext#lookup(String)} then.
+ * <pre>
+ * MemoryContext root = (MemoryContext) new InitialContext().lookup("");
+ * LookupHandle orders = root.handle("java:comp/env/jdbc/orders");
+ * DataSource ds = (DataSource) orders.get();
+ * </pre>
+ *
+ * @see MemoryContext#handle(String)
+ */
+public final class LookupHandle {
+
+    private final MemoryContext context;
+    private final String name;
+    /* Immutable, so it can be published without synchronization. */
+    private Resolved resolved;
+
+    LookupHandle(@NotNull MemoryContext context, @NotNull String name) {
+        this.context = context;
+        this.name = name;
+    }
+
+    /**
+     * @return The object bound to {@link #getName()}, see {@link MemoryContext#lookup(String)}.
+     */
+    public Object get() throws NamingException {
+        final Resolved resolved = this.resolved;
+        if (resolved != null && resolved.isCurrent()) {
+            return resolved.value;
+        }
+        final Stamps stamps = new Stamps();
+        final Object value = context.lookupTracked(name, stamps);
+        if (value == MemoryContext.UNTRACKED) {
+            this.resolved = null;
+            return context.lookup(name);
+        }
+        this.resolved = new Resolved(value, stamps);
+        return value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "LookupHandle{name=" + name + '}';
+    }
+
+    /**
+     * The modification counters of the contexts a name was resolved in and their values at that time. Mostly a
+     * single counter, because subcontexts share the counter of their root.
+     */
+    static final class Stamps {
+        private AtomicLong[] counters = new AtomicLong[1];
+        private long[] values = new long[1];
+        private int size;
+
+        void add(AtomicLong counter) {
+            for (int i = 0; i < size; i++) {
+                if (counters[i] == counter) {
+                    return;
+                }
+            }
+            if (size == counters.length) {
+                counters = Arrays.copyOf(counters, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            counters[size] = counter;
+            values[size] = counter.get();
+            size++;
+        }
+    }
+
+    private static final class Resolved {
+        private final Object value;
+        private final AtomicLong counter;
+        private final long stamp;
+        /* null when all contexts share one counter */
+        private final AtomicLong[] otherCounters;
+        private final long[] otherStamps;
+
+        Resolved(Object value, Stamps stamps) {
+            this.value = value;
+            this.counter = stamps.counters[0];
+            this.stamp = stamps.values[0];
+            if (stamps.size > 1) {
+                otherCounters = Arrays.copyOfRange(stamps.counters, 1, stamps.size);
+                otherStamps = Arrays.copyOfRange(stamps.values, 1, stamps.size);
+            }
+            else {
+                otherCounters = null;
+                otherStamps = null;
+            }
+        }
+
+        boolean isCurrent() {
+            if (counter.get() != stamp) {
+                return false;
+            }
+            if (otherCounters != null) {
+                for (int i = 0; i < otherCounters.length; i++) {
+                    if (otherCounters[i].get() != otherStamps[i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -41,6 +41,13 @@ import org.slf4j.LoggerFactory;
 import javax.naming.*;
 import javax.naming.spi.NamingManager;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * @author Robert M. Zigweid
@@ -49,16 +56,74 @@ import java.util.*;
 public class MemoryContext implements Cloneable, Context  {
 
     public static final String IGNORE_CLOSE = "org.osjava.sj.jndi.ignoreClose";
+    /**
+     * Milliseconds a failed resolution of a bound {@link Reference} is remembered. Lookups within this period fail
+     * immediately instead of calling the ObjectFactory again. Default 0: Every lookup retries.
+     */
+    public static final String REFERENCE_RETRY_BACKOFF = "org.osjava.sj.jndi.referenceRetryBackoff";
+    /**
+     * true: Maintain an index from the full path of every binding to the binding, so that deep names are looked up
+     * from the root context with a single hash probe. Names containing the separator and everything bound below them
+     * are not indexed, their lookups walk the tree.
+     */
+    public static final String PATH_INDEX = "org.osjava.sj.jndi.pathIndex";
+    /**
+     * true: Throw a {@link NameNotFoundException} without stack trace when a name is not bound. For applications that
+     * probe many optional names.
+     */
+    public static final String FAST_MISS = "org.osjava.sj.jndi.fastMiss";
+    /**
+     * Maximum number of names not found by {@link #lookup(String)} a context remembers, until the next modification of
+     * its tree. Default 0: No negative lookup cache.
+     */
+    public static final String NEGATIVE_CACHE_SIZE = "org.osjava.sj.jndi.negativeCacheSize";
     private Properties envAsProperties;
 
-    private Map<Name, Object> namesToObjects = Collections.synchronizedMap(new HashMap<Name, Object>());
-    private Map<Name, Context> subContexts = Collections.synchronizedMap(new HashMap<Name, Context>());
+    /**
+     * Objects and subcontexts bound to this context, keyed by their atomic name. Reads never lock, so concurrent lookups
+     * neither serialize on a monitor nor pin virtual threads. A {@link ConcurrentHashMap} until the context is sealed,
+     * a {@link SealedBindings} afterwards.
+     */
+    private Map<String, Entry> bindings = new ConcurrentHashMap<String, Entry>();
+    /* jndi.syntax.ignorecase and jndi.syntax.trimblanks: Keys of bindings are folded by key(). */
+    private boolean ignoreCase;
+    private boolean trimBlanks;
+    /* true: No more bind(), rebind(), unbind() etc. See seal(). */
+    private volatile boolean sealed;
     private Hashtable env = new Hashtable();
     private NameParser nameParser;
     /* The full name of this context. */
     private Name nameInNamespace = null;
     private boolean nameLock = false;
+    /* true: lookup(String) may split names itself instead of parsing them into a CompoundName. */
+    private boolean fastLookup;
+    /* Separator used by the fast lookup path. null for flat names. */
+    private String fastLookupSeparator;
+    /* See REFERENCE_RETRY_BACKOFF */
+    private long referenceRetryBackoffNanos;
+    /* Root relative path to binding, shared by all subcontexts of the root. null: No index, or this context is not
+     * indexed. See PATH_INDEX and indexable(). */
+    private volatile ConcurrentHashMap<String, Entry> pathIndex;
+    /* Path of this context in pathIndex ending with the separator. "" for the root. */
+    private String indexPrefix = "";
+    /* Incremented on every modification of the tree. Shared by all subcontexts created by createSubcontext(). */
+    private AtomicLong modifications = new AtomicLong();
+    /* Incremented whenever a name is bound or unbound in this context only. See sortedNames. */
+    private final AtomicLong namesVersion = new AtomicLong();
+    /* For listBindings(String, String, int). null: Not needed yet. Outdated, if its version is not namesVersion. */
+    private volatile SortedNames sortedNames;
+    /* See FAST_MISS */
+    private boolean fastMiss;
+    /* See NEGATIVE_CACHE_SIZE */
+    private int negativeCacheSize;
+    /* Names not found by lookup(String) with the modification count at that time. Created on the first miss. */
+    private volatile ConcurrentHashMap<String, Miss> misses;
+    /* Locks of NamespaceBatch publication. Shared like modifications. */
+    private Publications publications = new Publications();
+    /* Returned by lookupTracked() for names a LookupHandle can not track. */
+    static final Object UNTRACKED = new Object();
     private static Logger LOGGER = LoggerFactory.getLogger(MemoryContext.class);
+    private static final ThreadLocal<NameRegion> NAME_REGION = ThreadLocal.withInitial(NameRegion::new);
 
     /**
      * @param env a Hashtable containing the Context's environment.
@@ -94,6 +159,8 @@ public class MemoryContext implements Cloneable, Context  {
             envAsProperties = props;
         }
 
+        ignoreCase = BooleanUtils.toBoolean((String) this.env.get("jndi.syntax.ignorecase"));
+        trimBlanks = BooleanUtils.toBoolean((String) this.env.get("jndi.syntax.trimblanks"));
         if(parser == null) {
             try {
                 nameParser = new SimpleNameParser(this);
@@ -107,6 +174,19 @@ public class MemoryContext implements Cloneable, Context  {
                  */
                 e.printStackTrace();
             }
+            initFastLookup();
+            if (fastLookupSeparator != null && BooleanUtils.toBoolean((String) this.env.get(PATH_INDEX))) {
+                pathIndex = new ConcurrentHashMap<String, Entry>();
+            }
+        }
+        final Object backoff = this.env.get(REFERENCE_RETRY_BACKOFF);
+        if (backoff != null) {
+            referenceRetryBackoffNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(backoff.toString().trim()));
+        }
+        fastMiss = BooleanUtils.toBoolean((String) this.env.get(FAST_MISS));
+        final Object negativeCacheSize = this.env.get(NEGATIVE_CACHE_SIZE);
+        if (negativeCacheSize != null) {
+            this.negativeCacheSize = Integer.parseInt(negativeCacheSize.toString().trim());
         }
         try {
             nameInNamespace = nameParser.parse("");
@@ -116,6 +196,36 @@ public class MemoryContext implements Cloneable, Context  {
         }
     }
 
+    /**
+     * The fast path of {@link #lookup(String)} is only taken when the syntax of the environment splits names on plain
+     * separators, i. e. when a {@link CompoundName} built by {@link SimpleNameParser} would contain exactly the
+     * substrings between the separators.
+     */
+    private void initFastLookup() {
+        final String[] unsupported = {"jndi.syntax.escape", "jndi.syntax.beginquote", "jndi.syntax.beginquote2",
+                "jndi.syntax.separator.ava", "jndi.syntax.separator.typeval"};
+        for (String property : unsupported) {
+            if (env.get(property) != null) {
+                return;
+            }
+        }
+        if (ignoreCase || trimBlanks) {
+            return;
+        }
+        final Object direction = env.get("jndi.syntax.direction");
+        if (direction == null || "flat".equals(direction)) {
+            fastLookupSeparator = null;
+            fastLookup = true;
+        }
+        else if ("left_to_right".equals(direction)) {
+            final Object separator = env.get("jndi.syntax.separator");
+            if (separator instanceof String && !((String) separator).isEmpty()) {
+                fastLookupSeparator = (String) separator;
+                fastLookup = true;
+            }
+        }
+    }
+
     /* **********************************************************************
      * Implementation of methods specified by java.lang.naming.Context      *
      * **********************************************************************/
@@ -123,8 +233,7 @@ public class MemoryContext implements Cloneable, Context  {
     @Override
     public String toString() {
         return "MemoryContext{" +
-                "namesToObjects=" + namesToObjects +
-                ", subContexts=" + subContexts +
+                "bindings=" + bindings +
                 ", env=" + env +
                 ", nameParser=" + nameParser +
                 ", nameInNamespace=" + nameInNamespace +
@@ -139,46 +248,103 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public Object lookup(@NotNull Name name) throws NamingException {
+        // Optimistic: Valid, if no NamespaceBatch was applied meanwhile. See Publications.
+        final StampedLock lock = publications.lock;
+        final long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                final Object object = lookupName(name);
+                if (lock.validate(stamp)) {
+                    return object;
+                }
+            }
+            catch (NamingException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        final long readStamp = lock.readLock();
+        try {
+            return lookupName(name);
+        }
+        finally {
+            lock.unlockRead(readStamp);
+        }
+    }
+
+    private Object lookupName(@NotNull Name name) throws NamingException {
         if (name.size() == 0) {
             return newInstance();
         }
         else {
-            Name objName = name.getPrefix(1);
-            objName = JndiUtils.toCompoundName(objName, envAsProperties);
+            String objName = name.get(0);
+            Entry entry = bindings.get(key(objName));
             if (name.size() > 1) { // A subcontext is lookuped.
-                if (subContexts.containsKey(objName)) {
-                    return subContexts.get(objName).lookup(name.getSuffix(1));
+                if (entry != null && entry.isContext) {
+                    return ((Context) entry.value).lookup(name.getSuffix(1));
                 }
-                String msg = "MemoryContext#lookup(\"{}\"): Invalid subcontext '{}' in context '{}': {}";
-                LOGGER.error(msg, name, objName, getNameInNamespace(), this);
+                LOGGER.error("MemoryContext#lookup(\"{}\"): Invalid subcontext '{}' in context '{}'", name, objName, nameInNamespace);
                 throw new NamingException();
             }
             else { // Can be a subcontext or an object.
-                name = JndiUtils.toCompoundName(name, envAsProperties);
-                if (namesToObjects.containsKey(name)) {
-                    Object o = namesToObjects.get(objName);
-                    if (o instanceof Reference) {
-                        Object instance;
-                        try {
-                            instance = NamingManager.getObjectInstance(o, null, null, getEnvironment());
-                        }
-                        catch (Exception e) {
-                            LOGGER.error("", e);
-                            NamingException namingException = new NamingException();
-                            namingException.setRootCause(e);
-                            throw namingException;
-                        }
-                        o = instance == o ? null : instance;
-                        namesToObjects.put(objName, o);
-                    }
-                    return o;
+                if (entry != null) {
+                    return resolve(objName, entry);
                 }
-                if (subContexts.containsKey(name)) {
-                    return subContexts.get(name);
+                LOGGER.debug("MemoryContext#lookup() {} not found in '{}'", name, nameInNamespace);
+                throw notFound(name.toString());
+            }
+        }
+    }
+
+    /**
+     * @return The bound object. A {@link Reference} is replaced by the object it refers to. Only one thread calls the
+     * ObjectFactory, concurrent lookups of the same binding wait for its result.
+     */
+    private Object resolve(String objName, Entry entry) throws NamingException {
+        final Resolution resolution = entry.resolution;
+        if (resolution == null) {
+            return entry.value;
+        }
+        if (resolution.resolved) {
+            return resolution.instance;
+        }
+        resolution.throwIfBackingOff(objName);
+        resolution.lock.lock();
+        try {
+            if (resolution.resolved) {
+                return resolution.instance;
+            }
+            resolution.throwIfBackingOff(objName);
+            Object instance;
+            try {
+                instance = NamingManager.getObjectInstance(entry.value, null, null, getEnvironment());
+            }
+            catch (Exception e) {
+                LOGGER.error("", e);
+                if (referenceRetryBackoffNanos > 0) {
+                    resolution.failure = e;
+                    resolution.retryAt = System.nanoTime() + referenceRetryBackoffNanos;
                 }
-                LOGGER.debug("MemoryContext#lookup() {} not found in {}", name, this);
-                throw new NameNotFoundException(name.toString());
+                NamingException namingException = new NamingException();
+                namingException.setRootCause(e);
+                throw namingException;
             }
+            instance = instance == entry.value ? null : instance;
+            resolution.instance = instance;
+            resolution.resolved = true;
+            if (!sealed) {
+                // Only replace the binding we resolved. A concurrent rebind() wins.
+                final Entry resolved = new Entry(instance, entry.name);
+                final ConcurrentHashMap<String, Entry> pathIndex = this.pathIndex;
+                if (bindings.replace(key(objName), entry, resolved) && pathIndex != null) {
+                    pathIndex.replace(indexPrefix + objName, entry, resolved);
+                }
+            }
+            return instance;
+        }
+        finally {
+            resolution.lock.unlock();
         }
     }
 
@@ -202,7 +368,182 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public Object lookup(@NotNull String name) throws NamingException {
-        return lookup(nameParser.parse(name));
+        if (!fastLookup || name.isEmpty()) {
+            return lookup(nameParser.parse(name));
+        }
+        // Like lookup(Name)
+        final StampedLock lock = publications.lock;
+        final long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                final Object object = lookupString(name);
+                if (lock.validate(stamp)) {
+                    return object;
+                }
+            }
+            catch (NamingException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        final long readStamp = lock.readLock();
+        try {
+            return lookupString(name);
+        }
+        finally {
+            lock.unlockRead(readStamp);
+        }
+    }
+
+    private Object lookupString(@NotNull String name) throws NamingException {
+        if (pathIndex != null && indexPrefix.isEmpty()) {
+            final Entry entry = pathIndex.get(name);
+            if (entry != null) {
+                if (entry.resolution == null) {
+                    return entry.value;
+                }
+                if (entry.resolution.resolved) {
+                    return entry.resolution.instance;
+                }
+                // Unresolved Reference: Resolved by the context it is bound in.
+            }
+        }
+        final ConcurrentHashMap<String, Miss> misses = this.misses;
+        if (misses != null) {
+            final Miss miss = misses.get(name);
+            if (miss != null) {
+                if (miss.modification == modifications.get()) {
+                    throw notFound(miss.remainingName);
+                }
+                misses.remove(name, miss);
+            }
+        }
+        // Walk the name in place: No CompoundName, no substrings, no copies of the environment.
+        final String separator = fastLookupSeparator;
+        final int length = name.length();
+        // Read before the bindings, so a miss is never cached with a count that already includes its bind().
+        final long modification = modifications.get();
+        boolean cacheable = negativeCacheSize > 0;
+        MemoryContext ctx = this;
+        int start = 0;
+        while (true) {
+            int end = separator == null ? -1 : name.indexOf(separator, start);
+            if (separator != null && (end == start || end == length - separator.length())) {
+                // Empty components have their own rules in CompoundName.
+                return lookup(nameParser.parse(name));
+            }
+            final Entry entry = ctx.get(name, start, end < 0 ? length : end);
+            if (end < 0) {
+                if (entry == null) {
+                    LOGGER.debug("MemoryContext#lookup() {} not found in '{}'", name, ctx.nameInNamespace);
+                    final String remainingName = name.substring(start);
+                    if (cacheable) {
+                        remember(name, new Miss(modification, remainingName));
+                    }
+                    throw notFound(remainingName);
+                }
+                return entry.value instanceof Reference ? ctx.resolve(name.substring(start), entry) : entry.value;
+            }
+            if (entry == null || !entry.isContext) {
+                LOGGER.error("MemoryContext#lookup(\"{}\"): Invalid subcontext in context '{}'", name, ctx.nameInNamespace);
+                throw new NamingException();
+            }
+            if (!(entry.value instanceof MemoryContext)) {
+                // Foreign context: Let it parse the name by itself.
+                return lookup(nameParser.parse(name));
+            }
+            ctx = (MemoryContext) entry.value;
+            // Only misses in this tree are invalidated by its modification counter.
+            cacheable &= ctx.modifications == modifications;
+            start = end + separator.length();
+        }
+    }
+
+    private NameNotFoundException notFound(String name) {
+        return fastMiss ? new StacklessNameNotFoundException(name) : new NameNotFoundException(name);
+    }
+
+    /**
+     * Adds a miss to the negative lookup cache. When the cache is full, it is cleared, which also drops misses that
+     * are stale since the last modification.
+     */
+    private void remember(String name, Miss miss) {
+        ConcurrentHashMap<String, Miss> misses = this.misses;
+        if (misses == null) {
+            misses = new ConcurrentHashMap<String, Miss>();
+            this.misses = misses;
+        }
+        else if (misses.size() >= negativeCacheSize) {
+            misses.clear();
+        }
+        misses.put(name, miss);
+    }
+
+    /**
+     * Returns a handle for repeated lookups of name. See {@link LookupHandle}.
+     */
+    public LookupHandle handle(@NotNull String name) {
+        return new LookupHandle(this, name);
+    }
+
+    /**
+     * Like the fast path of {@link #lookup(String)}, but records the modification counter of every context passed.
+     *
+     * @return {@link #UNTRACKED} if name can not be tracked, e. g. because it is not bound or passes a context that is
+     * not a MemoryContext. Call {@link #lookup(String)} then.
+     */
+    Object lookupTracked(@NotNull String name, @NotNull LookupHandle.Stamps stamps) throws NamingException {
+        if (!fastLookup || name.isEmpty()) {
+            return UNTRACKED;
+        }
+        final long stamp = publications.lock.tryOptimisticRead();
+        if (stamp == 0) {
+            return UNTRACKED;
+        }
+        final Object object = walkTracked(name, stamps);
+        return publications.lock.validate(stamp) ? object : UNTRACKED;
+    }
+
+    private Object walkTracked(@NotNull String name, @NotNull LookupHandle.Stamps stamps) throws NamingException {
+        final String separator = fastLookupSeparator;
+        final int length = name.length();
+        MemoryContext ctx = this;
+        int start = 0;
+        while (true) {
+            // Read the counter before the bindings, so a concurrent modification is never missed.
+            stamps.add(ctx.modifications);
+            int end = separator == null ? -1 : name.indexOf(separator, start);
+            if (separator != null && (end == start || end == length - separator.length())) {
+                return UNTRACKED;
+            }
+            final Entry entry = ctx.get(name, start, end < 0 ? length : end);
+            if (entry == null) {
+                return UNTRACKED;
+            }
+            if (end < 0) {
+                return entry.value instanceof Reference ? ctx.resolve(name.substring(start), entry) : entry.value;
+            }
+            if (!(entry.value instanceof MemoryContext)) {
+                return UNTRACKED;
+            }
+            ctx = (MemoryContext) entry.value;
+            start = end + separator.length();
+        }
+    }
+
+    /**
+     * @return The entry bound under <code>name.substring(start, end)</code> without creating the substring.
+     */
+    @Nullable
+    private Entry get(String name, int start, int end) {
+        final NameRegion region = NAME_REGION.get();
+        try {
+            return bindings.get(region.set(name, start, end));
+        }
+        finally {
+            region.clear();
+        }
     }
 
     /**
@@ -210,33 +551,30 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public void bind(@NotNull Name name, @Nullable Object object) throws NamingException {
+        checkNotSealed();
         if(name.size() == 0) {
             throw new InvalidNameException("Cannot bind to an empty name.");
         }
         else if(name.size() > 1) {
-            Name prefix = name.getPrefix(1);
-            if(subContexts.containsKey(prefix)) {
-                subContexts.get(prefix).bind(name.getSuffix(1), object);
+            String prefix = name.get(0);
+            Entry entry = bindings.get(key(prefix));
+            if(entry != null && entry.isContext) {
+                ((Context) entry.value).bind(name.getSuffix(1), object);
             }
             else {
                 LOGGER.error("No such subcontext: {} in {}", prefix, this);
-                throw new NameNotFoundException(prefix + "");
+                throw new NameNotFoundException(prefix);
             }
         }
         else {
             /* Determine if the name is already bound */
-            if(namesToObjects.containsKey(name) ||
-                    subContexts.containsKey(name)) {
+            final Entry entry = newEntry(name.get(0), object);
+            if(bindings.putIfAbsent(key(name.get(0)), entry) != null) {
                 LOGGER.error("bind() {} already bound in {}", name, this);
                 throw new NameAlreadyBoundException("Name " + name.toString()
                     + " already bound.  Use rebind() to override");
             }
-            if (object instanceof Context) {
-                subContexts.put(name, (Context) object);
-            }
-            else {
-                namesToObjects.put(name, object);
-            }
+            indexed(name.get(0), entry);
         }
     }
 
@@ -249,20 +587,27 @@ public class MemoryContext implements Cloneable, Context  {
     }
 
     /**
+     * Walks to the target context once and replaces the binding there atomically. Concurrent lookups see either the
+     * old or the new object, never no binding.
+     *
      * @see javax.naming.Context#rebind(javax.naming.Name, java.lang.Object)
      */
     @Override
     public void rebind(@NotNull Name name, @Nullable Object object) throws NamingException {
+        checkNotSealed();
         if(name.isEmpty()) {
             throw new InvalidNameException("Cannot bind to empty name");
         }
-        /* Look up the target context first. */
-        Object targetContext = lookup(name.getPrefix(name.size() - 1));
-        if(targetContext == null || !(targetContext instanceof Context)) {
-            throw new NamingException("Cannot bind object.  Target context does not exist.");
+        if(name.size() > 1) {
+            Entry entry = bindings.get(key(name.get(0)));
+            if(entry == null || !entry.isContext) {
+                throw new NamingException("Cannot bind object.  Target context does not exist.");
+            }
+            ((Context) entry.value).rebind(name.getSuffix(1), object);
+        }
+        else {
+            put(name.get(0), object);
         }
-        unbind(name);
-        bind(name, object);
     }
 
     /**
@@ -273,17 +618,148 @@ public class MemoryContext implements Cloneable, Context  {
         rebind(nameParser.parse(name), object);
     }
 
+    /**
+     * Binds object, if name is not bound yet. Check and bind are atomic.
+     *
+     * @return false: name was already bound, nothing changed.
+     * @throws NameNotFoundException if the target context does not exist.
+     */
+    public boolean bindIfAbsent(@NotNull Name name, @Nullable Object object) throws NamingException {
+        final MemoryContext target = targetContext(name);
+        final String objName = name.get(name.size() - 1);
+        final Entry entry = target.newEntry(objName, object);
+        if (target.bindings.putIfAbsent(target.key(objName), entry) != null) {
+            return false;
+        }
+        target.indexed(objName, entry);
+        return true;
+    }
+
+    public boolean bindIfAbsent(@NotNull String name, @Nullable Object object) throws NamingException {
+        return bindIfAbsent(nameParser.parse(name), object);
+    }
+
+    /**
+     * Looks up name and, if not bound, binds the object created by factory. Concurrent calls for the same name call
+     * factory only once, the others wait and get its result. The factory must not modify the target context itself.
+     * Like {@link java.util.Map#computeIfAbsent(Object, java.util.function.Function)}, but a null returned by factory
+     * is bound as well.
+     *
+     * @return The object bound to name, see {@link #lookup(Name)}.
+     * @throws NameNotFoundException if the target context does not exist.
+     */
+    public Object computeIfAbsent(@NotNull Name name, @NotNull Function<? super Name, ?> factory) throws NamingException {
+        final MemoryContext target = targetContext(name);
+        final String objName = name.get(name.size() - 1);
+        final Entry existing = target.bindings.get(target.key(objName));
+        if (existing != null) {
+            return target.resolve(objName, existing);
+        }
+        final Entry[] created = new Entry[1];
+        final Entry entry = target.bindings.computeIfAbsent(target.key(objName),
+                key -> created[0] = target.newEntry(objName, factory.apply(name)));
+        if (entry == created[0]) {
+            target.indexed(objName, entry);
+        }
+        return target.resolve(objName, entry);
+    }
+
+    public Object computeIfAbsent(@NotNull String name, @NotNull Function<? super Name, ?> factory) throws NamingException {
+        return computeIfAbsent(nameParser.parse(name), factory);
+    }
+
+    /**
+     * Like {@link #createSubcontext(Name)}, but creates missing parent contexts as well and returns an already existing
+     * context instead of throwing a {@link NameAlreadyBoundException}. Every context is created atomically, concurrent
+     * calls end up with the same contexts.
+     *
+     * @return The context bound to name.
+     * @throws NameAlreadyBoundException if a component of name is bound to an object, that is not a context.
+     */
+    public Context createSubcontexts(@NotNull Name name) throws NamingException {
+        checkNotSealed();
+        if (name.isEmpty()) {
+            throw new InvalidNameException("Cannot bind to empty name");
+        }
+        final String objName = name.get(0);
+        Entry entry = bindings.get(key(objName));
+        if (entry == null) {
+            final MemoryContext newContext = newSubcontext(objName);
+            final Entry created = newEntry(objName, newContext);
+            entry = bindings.putIfAbsent(key(objName), created);
+            if (entry == null) {
+                indexed(objName, created);
+                entry = created;
+            }
+        }
+        if (!entry.isContext) {
+            throw new NameAlreadyBoundException("Name " + objName + " is already bound to an object, that is not a context.");
+        }
+        final Context context = (Context) entry.value;
+        if (name.size() == 1) {
+            return context;
+        }
+        if (context instanceof MemoryContext) {
+            return ((MemoryContext) context).createSubcontexts(name.getSuffix(1));
+        }
+        // Foreign context: Only the methods of Context are available.
+        Context current = context;
+        for (int i = 1; i < name.size(); i++) {
+            final Name component = name.getSuffix(i).getPrefix(1);
+            Object next;
+            try {
+                next = current.lookup(component);
+            }
+            catch (NameNotFoundException e) {
+                next = current.createSubcontext(component);
+            }
+            if (!(next instanceof Context)) {
+                throw new NameAlreadyBoundException("Name " + component + " is already bound to an object, that is not a context.");
+            }
+            current = (Context) next;
+        }
+        return current;
+    }
+
+    public Context createSubcontexts(@NotNull String name) throws NamingException {
+        return createSubcontexts(nameParser.parse(name));
+    }
+
+    /**
+     * @return The MemoryContext the last component of name is bound in.
+     * @throws NameNotFoundException if it does not exist or is not a MemoryContext.
+     */
+    private MemoryContext targetContext(Name name) throws NamingException {
+        if (name.isEmpty()) {
+            throw new InvalidNameException("Cannot bind to empty name");
+        }
+        MemoryContext target = this;
+        for (int i = 0; i < name.size() - 1; i++) {
+            final Entry entry = target.bindings.get(target.key(name.get(i)));
+            if (entry == null || !(entry.value instanceof MemoryContext)) {
+                throw new NameNotFoundException("The subcontext " + name.getPrefix(i + 1) + " was not found (" + name + ").");
+            }
+            target = (MemoryContext) entry.value;
+        }
+        target.checkNotSealed();
+        return target;
+    }
+
     /**
      * @see javax.naming.Context#unbind(javax.naming.Name)
      */
     @Override
     public void unbind(@NotNull Name name) throws NamingException {
+        checkNotSealed();
         if(name.isEmpty()) {
             throw new InvalidNameException("Cannot unbind to empty name");
         }
         else if(name.size() == 1) {
-            namesToObjects.remove(name);
-            subContexts.remove(name);
+            final Entry removed = bindings.remove(key(name.get(0)));
+            if (removed != null) {
+                unindex(name.get(0), removed);
+                modifications.incrementAndGet();
+            }
         }
         else {
             Object targetContext = lookup(name.getPrefix(name.size() - 1));
@@ -312,6 +788,7 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public void rename(@NotNull Name oldName, @NotNull Name newName) throws NamingException {
+        checkNotSealed();
         /* Confirm that this works.  We might have to catch the exception */
         Object old = lookup(oldName);
         if(newName.isEmpty()) {
@@ -355,24 +832,19 @@ public class MemoryContext implements Cloneable, Context  {
 //      if name is a properties file, we should return the keys (?)
 //      issues: default.properties ?
         if(name == null || name.isEmpty()) {
-            /* Because there are two mappings that need to be used here,
-             * create a new mapping and add the two maps to it.  This also 
-             * adds the safety of cloning the two maps so the original is
-             * unharmed. */
-            Map enumStore = new HashMap();
-            enumStore.putAll(namesToObjects);
-            enumStore.putAll(subContexts);
-            NamingEnumeration enumerator = new ContextNames(enumStore);
-            return enumerator;
+            resolveDeferred();
+            /* Enumerates the live bindings without copying them. Weakly
+             * consistent, like the iterators of ConcurrentHashMap. */
+            return new ContextNames(bindings.entrySet().iterator());
         }
         /* Look for a subcontext */
-        Name subName = name.getPrefix(1);
-        if(namesToObjects.containsKey(subName)) {
+        Entry entry = bindings.get(key(name.get(0)));
+        if(entry != null && !entry.isContext) {
             /* Nope, actual object */
             throw new NotContextException(name + " cannot be listed");
         }
-        if(subContexts.containsKey(subName)) {
-            return subContexts.get(subName).list(name.getSuffix(1));
+        if(entry != null) {
+            return ((Context) entry.value).list(name.getSuffix(1));
         }
         /* Couldn't find the subcontext and it wasn't pointing at us, throw
          * an exception. */
@@ -381,6 +853,19 @@ public class MemoryContext implements Cloneable, Context  {
     }
 
 
+    /**
+     * Resolves the {@link DeferredReference}s bound to this context, so that listing it shows the values they stand
+     * for.
+     */
+    private void resolveDeferred() throws NamingException {
+        for (Map.Entry<String, Entry> binding : bindings.entrySet()) {
+            final Entry entry = binding.getValue();
+            if (entry.value instanceof DeferredReference) {
+                resolve(entry.name(binding.getKey()), entry);
+            }
+        }
+    }
+
     /**
      * @see javax.naming.Context#list(java.lang.String)
      */
@@ -395,19 +880,15 @@ public class MemoryContext implements Cloneable, Context  {
     @Override
     public NamingEnumeration listBindings(@NotNull Name name) throws NamingException {
         if(name == null || name.isEmpty()) {
-            /* Because there are two mappings that need to be used here,
-             * create a new mapping and add the two maps to it.  This also 
-             * adds the safety of cloning the two maps so the original is
-             * unharmed. */
-            Map enumStore = new HashMap();
-            enumStore.putAll(namesToObjects);
-            enumStore.putAll(subContexts);
-            return new ContextBindings(enumStore);
+            resolveDeferred();
+            /* Enumerates the live bindings without copying them. Weakly
+             * consistent, like the iterators of ConcurrentHashMap. */
+            return new ContextBindings(bindings.entrySet().iterator());
         }
         /* Look for a subcontext */
-        Name subName = name.getPrefix(1);
-        if(subContexts.containsKey(subName)) {
-            return subContexts.get(subName).listBindings(name.getSuffix(1));
+        Entry entry = bindings.get(key(name.get(0)));
+        if(entry != null && entry.isContext) {
+            return ((Context) entry.value).listBindings(name.getSuffix(1));
         }
         else {
         /* Couldn't find the subcontext and it wasn't pointing at us, throw an exception. */
@@ -422,6 +903,98 @@ public class MemoryContext implements Cloneable, Context  {
     public NamingEnumeration listBindings(@NotNull String name) throws NamingException {
         return listBindings(nameParser.parse(name));
     }
+
+    /**
+     * One page of {@link #listBindings(String)}: At most limit bindings of the context name whose names are greater
+     * than after, sorted by name. Pass the name of the last binding as after to get the next page. Huge contexts can
+     * be walked this way with memory bounded by limit.
+     * <p>
+     * The names are sorted once and kept until a name is bound or unbound in that context, so a page costs a binary
+     * search for after and limit lookups. Other contexts of the tree can be modified meanwhile without the names
+     * being sorted again.
+     *
+     * @param after null: Start with the first binding.
+     */
+    public NamingEnumeration<Binding> listBindings(@NotNull String name, @Nullable String after, int limit) throws NamingException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        final Name parsed = nameParser.parse(name);
+        if (!parsed.isEmpty()) {
+            final Object target = lookup(parsed);
+            if (target instanceof MemoryContext) {
+                return ((MemoryContext) target).listBindings("", after, limit);
+            }
+            return scanBindings(name, after, limit);
+        }
+        final SortedNames sorted = sortedNames();
+        int from = 0;
+        if (after != null) {
+            from = Arrays.binarySearch(sorted.names, after);
+            from = from < 0 ? -from - 1 : from + 1;
+        }
+        final Map<String, Entry> page = new LinkedHashMap<String, Entry>();
+        for (int i = from; i < sorted.names.length && page.size() < limit; i++) {
+            Entry entry = bindings.get(sorted.keys[i]);
+            if (entry != null && entry.value instanceof DeferredReference) {
+                resolve(sorted.names[i], entry);
+                entry = bindings.get(sorted.keys[i]);
+            }
+            // null: Unbound since the names were sorted.
+            if (entry != null) {
+                page.put(sorted.names[i], entry);
+            }
+        }
+        return new ContextBindings(page);
+    }
+
+    /**
+     * @return The names bound in this context, sorted again only if a name was bound or unbound since last time.
+     */
+    private SortedNames sortedNames() {
+        // Read before the bindings: A concurrent modification makes the result outdated at once.
+        final long version = namesVersion.get();
+        SortedNames sorted = sortedNames;
+        if (sorted != null && sorted.version == version) {
+            return sorted;
+        }
+        final TreeMap<String, String> keys = new TreeMap<String, String>();
+        for (Map.Entry<String, Entry> binding : bindings.entrySet()) {
+            keys.put(binding.getValue().name(binding.getKey()), binding.getKey());
+        }
+        sorted = new SortedNames(version, keys.keySet().toArray(new String[0]), keys.values().toArray(new String[0]));
+        sortedNames = sorted;
+        return sorted;
+    }
+
+    /**
+     * {@link #listBindings(String, String, int)} for a context, that is not a MemoryContext: Scans all its bindings for
+     * every page.
+     */
+    private NamingEnumeration<Binding> scanBindings(String name, String after, int limit) throws NamingException {
+        final TreeMap<String, Object> page = new TreeMap<String, Object>();
+        final NamingEnumeration all = listBindings(name);
+        try {
+            while (all.hasMore()) {
+                final Binding binding = (Binding) all.next();
+                final String bindingName = binding.getName();
+                if (after != null && bindingName.compareTo(after) <= 0) {
+                    continue;
+                }
+                if (page.size() < limit) {
+                    page.put(bindingName, binding.getObject());
+                }
+                else if (bindingName.compareTo(page.lastKey()) < 0) {
+                    page.pollLastEntry();
+                    page.put(bindingName, binding.getObject());
+                }
+            }
+        }
+        finally {
+            all.close();
+        }
+        return new ContextBindings(page);
+    }
     /* End of List functionality */
 
     /**
@@ -429,27 +1002,76 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public void destroySubcontext(Name name) throws NamingException {
+        checkNotSealed();
+        Entry entry = bindings.get(key(name.get(0)));
         if(name.size() > 1) {
-            if(subContexts.containsKey(name.getPrefix(1))) {
-                Context subContext = subContexts.get(name.getPrefix(1));
-                destroySubcontexts(subContext);
+            if(entry != null && entry.isContext) {
+                destroySubcontexts((Context) entry.value);
                 return;
             } 
             /* IMPROVE: Better message might be necessary */
             throw new NameNotFoundException();
         }
         /* Look at the contextStore to see if the name is bound there */
-        if(namesToObjects.containsKey(name)) {
+        if(entry != null && !entry.isContext) {
             throw new NotContextException();
         }
         /* Look for the subcontext */
-        if(!subContexts.containsKey(name)) {
+        if(entry == null) {
             throw new NameNotFoundException();
         }
-        Context subContext = subContexts.get(name);
+        Context subContext = (Context) entry.value;
         destroySubcontexts(subContext);
         subContext.close();
-        subContexts.remove(name);
+        if (bindings.remove(key(name.get(0)), entry)) {
+            unindex(name.get(0), entry);
+            modifications.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes an unbound entry and, if it is a context, everything below it from {@link #pathIndex}. Only the unbound
+     * subtree is walked, not the whole index.
+     */
+    private void unindex(String objName, Entry removed) {
+        namesVersion.incrementAndGet();
+        final ConcurrentHashMap<String, Entry> pathIndex = this.pathIndex;
+        if (pathIndex == null) {
+            return;
+        }
+        pathIndex.remove(indexPrefix + objName, removed);
+        if (removed.value instanceof MemoryContext && ((MemoryContext) removed.value).pathIndex == pathIndex) {
+            ((MemoryContext) removed.value).unindexAll(pathIndex);
+        }
+    }
+
+    /**
+     * Removes everything bound in this unbound context and below it from pathIndex. Bindings made in it afterwards are
+     * not indexed anymore.
+     */
+    private void unindexAll(ConcurrentHashMap<String, Entry> pathIndex) {
+        this.pathIndex = null;
+        final Map<String, Entry> bindings = this.bindings;
+        if (bindings == null) {
+            // Closed: Its bindings were unbound and unindexed one by one.
+            return;
+        }
+        for (Map.Entry<String, Entry> binding : bindings.entrySet()) {
+            final Entry entry = binding.getValue();
+            pathIndex.remove(indexPrefix + entry.name(binding.getKey()), entry);
+            if (entry.value instanceof MemoryContext && ((MemoryContext) entry.value).pathIndex == pathIndex) {
+                ((MemoryContext) entry.value).unindexAll(pathIndex);
+            }
+        }
+    }
+
+    /**
+     * @return false: objName can not be part of a path in {@link #pathIndex}, because the path would not split into
+     * the names it was built from, e. g. "a/b" bound in the root would collide with "b" bound in "a". Such bindings and
+     * everything below them are found by walking the tree.
+     */
+    private boolean indexable(String objName) {
+        return !objName.isEmpty() && !objName.contains(fastLookupSeparator);
     }
 
     private void destroySubcontexts(Context context) throws NamingException {
@@ -487,11 +1109,13 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public Context createSubcontext(Name name) throws NamingException {
+        checkNotSealed();
         Context newContext;
 
         if(name.size() > 1) {
-            if(subContexts.containsKey(name.getPrefix(1))) {
-                Context subContext = subContexts.get(name.getPrefix(1));
+            Entry entry = bindings.get(key(name.get(0)));
+            if(entry != null && entry.isContext) {
+                Context subContext = (Context) entry.value;
                 newContext = subContext.createSubcontext(name.getSuffix(1));
                 return newContext;
             }
@@ -499,19 +1123,199 @@ public class MemoryContext implements Cloneable, Context  {
                 throw new NameNotFoundException("The subcontext " + name.getPrefix(1) + " was not found (" + name + ").");
             }
         }
-        try {
-            lookup(name);
-        }
-        catch (NameNotFoundException ignore) { }
+        newContext = newSubcontext(name.get(0));
+        bind(name, newContext);
+        return newContext;
+    }
 
+    /**
+     * @return A new, not yet bound subcontext of this context's tree.
+     */
+    MemoryContext newSubcontext(String objName) throws NamingException {
         Name contextName = getNameParser((Name)null).parse(getNameInNamespace());
-        contextName.addAll(name);
-        newContext = new MemoryContext(this.env);
-        ((MemoryContext)newContext).setNameInNamespace(contextName);
-        bind(name, newContext);
+        contextName.add(objName);
+        MemoryContext newContext = new MemoryContext(this.env);
+        newContext.setNameInNamespace(contextName);
+        newContext.modifications = modifications;
+        newContext.publications = publications;
+        final ConcurrentHashMap<String, Entry> pathIndex = this.pathIndex;
+        if (pathIndex != null && indexable(objName)) {
+            newContext.pathIndex = pathIndex;
+            newContext.indexPrefix = indexPrefix + objName + fastLookupSeparator;
+        }
+        return newContext;
+    }
+
+    /**
+     * @return A new subcontext like {@link #newSubcontext(String)}, that can be filled before it is bound, because
+     * nothing bound in it is visible through {@link #pathIndex} yet. To be bound with
+     * {@link #attach(String, MemoryContext)}.
+     */
+    MemoryContext newDetachedSubcontext(String objName) throws NamingException {
+        final MemoryContext newContext = newSubcontext(objName);
+        newContext.pathIndex = null;
         return newContext;
     }
 
+    /**
+     * Binds subcontext, created by {@link #newDetachedSubcontext(String)}, and adds everything bound in it to
+     * {@link #pathIndex}. For {@link NamespaceBatch}.
+     */
+    void attach(String objName, MemoryContext subcontext) {
+        put(objName, subcontext);
+        final ConcurrentHashMap<String, Entry> pathIndex = this.pathIndex;
+        if (pathIndex != null && indexable(objName)) {
+            subcontext.index(pathIndex, indexPrefix + objName + fastLookupSeparator);
+        }
+    }
+
+    private void index(ConcurrentHashMap<String, Entry> pathIndex, String indexPrefix) {
+        this.pathIndex = pathIndex;
+        this.indexPrefix = indexPrefix;
+        for (Map.Entry<String, Entry> binding : bindings.entrySet()) {
+            final Entry entry = binding.getValue();
+            final String objName = entry.name != null ? entry.name : binding.getKey();
+            if (!indexable(objName)) {
+                continue;
+            }
+            pathIndex.put(indexPrefix + objName, entry);
+            if (entry.value instanceof MemoryContext && ((MemoryContext) entry.value).isSameTree(this)) {
+                ((MemoryContext) entry.value).index(pathIndex, indexPrefix + objName + fastLookupSeparator);
+            }
+        }
+    }
+
+    /**
+     * Starts a batch of modifications published atomically by {@link NamespaceBatch#commit()}.
+     */
+    public NamespaceBatch batch() {
+        return new NamespaceBatch(this);
+    }
+
+    /**
+     * @return The binding of an atomic name, null if not bound.
+     */
+    @Nullable
+    Entry entry(String objName) {
+        return bindings.get(key(objName));
+    }
+
+    /**
+     * @return objName as key of {@link #bindings}: Trimmed, if jndi.syntax.trimblanks is set, in lower case, if
+     * jndi.syntax.ignorecase is set, like {@link CompoundName#equals(Object)} compares components.
+     */
+    String key(String objName) {
+        if (trimBlanks) {
+            objName = objName.trim();
+        }
+        if (ignoreCase) {
+            objName = objName.toLowerCase(Locale.ENGLISH);
+        }
+        return objName;
+    }
+
+    /**
+     * @return A new entry, that remembers the spelling of objName for list() and listBindings(), if keys are folded.
+     */
+    private Entry newEntry(String objName, Object object) {
+        return new Entry(object, ignoreCase || trimBlanks ? objName : null);
+    }
+
+    /**
+     * @return true: This context belongs to the same tree as other, i. e. was created by createSubcontext() from
+     * the same root.
+     */
+    boolean isSameTree(MemoryContext other) {
+        return publications == other.publications;
+    }
+
+    /**
+     * Binds or rebinds an atomic name without any checks. For {@link NamespaceBatch} and {@link #rebind(Name, Object)}.
+     */
+    void put(String objName, Object object) {
+        final Entry entry = newEntry(objName, object);
+        final Entry replaced = bindings.put(key(objName), entry);
+        if (replaced != null) {
+            unindex(objName, replaced);
+        }
+        indexed(objName, entry);
+    }
+
+    /**
+     * Adds a new binding to {@link #pathIndex} and counts the modification.
+     */
+    private void indexed(String objName, Entry entry) {
+        namesVersion.incrementAndGet();
+        final ConcurrentHashMap<String, Entry> pathIndex = this.pathIndex;
+        if (pathIndex != null && indexable(objName)) {
+            pathIndex.put(indexPrefix + objName, entry);
+        }
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * Unbinds an atomic name without any checks. For {@link NamespaceBatch}.
+     */
+    void remove(String objName) {
+        final Entry removed = bindings.remove(key(objName));
+        if (removed != null) {
+            unindex(objName, removed);
+            modifications.incrementAndGet();
+        }
+    }
+
+    /**
+     * Applies publication while lookups in this tree wait. Batches of one tree are published one after the other.
+     */
+    void publish(Publication publication) throws NamingException {
+        checkNotSealed();
+        final Publications publications = this.publications;
+        publications.writers.lock();
+        try {
+            publication.validate();
+            final long stamp = publications.lock.writeLock();
+            try {
+                publication.verify();
+                publication.apply();
+            }
+            finally {
+                publications.lock.unlockWrite(stamp);
+            }
+        }
+        finally {
+            publications.writers.unlock();
+        }
+    }
+
+    /**
+     * Lookups read a tree optimistically, without locking, and validate afterwards, that no batch was applied
+     * meanwhile. Only if one was, they wait for it in {@link StampedLock#readLock()} and look up again holding the
+     * read lock. They never spin. Locks instead of monitors let waiting virtual threads unmount.
+     */
+    private static final class Publications {
+        /* Held for writing while a batch is applied. */
+        final StampedLock lock = new StampedLock();
+        /* Held while a batch is validated and applied, so that batches do not interleave. Lookups go on meanwhile. */
+        final ReentrantLock writers = new ReentrantLock();
+    }
+
+    /**
+     * See {@link #publish(Publication)}.
+     */
+    interface Publication {
+        /** Throws, if the publication would fail. Lookups are not blocked yet. */
+        void validate() throws NamingException;
+
+        /**
+         * Throws, if the tree was modified outside of a batch since validate(), so that apply() would fail. Lookups
+         * are blocked already, so only cheap checks.
+         */
+        void verify() throws NamingException;
+
+        /** Must not fail and must not look up anything in the tree. */
+        void apply();
+    }
+
     /**
      * @see javax.naming.Context#createSubcontext(java.lang.String)
      */
@@ -533,7 +1337,7 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public Object lookupLink(String name) throws NamingException {
-        return lookup(nameParser.parse(name));
+        return lookup(name);
     }
 
     /**
@@ -547,9 +1351,9 @@ public class MemoryContext implements Cloneable, Context  {
            (name.size() == 1 && name.toString().equals(getNameInNamespace()))) {
             return nameParser;
         }
-        Name subName = name.getPrefix(1); 
-        if(subContexts.containsKey(subName)) {
-            return subContexts.get(subName).getNameParser(name.getSuffix(1));
+        Entry entry = bindings.get(key(name.get(0)));
+        if(entry != null && entry.isContext) {
+            return ((Context) entry.value).getNameParser(name.getSuffix(1));
         }
         throw new NotContextException();
     }
@@ -650,7 +1454,7 @@ public class MemoryContext implements Cloneable, Context  {
      * @return true of the context is empty, else false.
      */
     public boolean isEmpty() {
-        return (namesToObjects.size() > 0 || subContexts.size() > 0);
+        return bindings.size() > 0;
     }
 
     /**
@@ -673,10 +1477,238 @@ public class MemoryContext implements Cloneable, Context  {
     }
 
     public void forceClose() throws NamingException {
-        destroySubcontexts(this);
+        if (sealed) {
+            // A sealed tree can not be unbound. Close the subcontexts and drop the references.
+            for (Entry entry : bindings.values()) {
+                if (entry.isContext) {
+                    ((Context) entry.value).close();
+                }
+            }
+        }
+        else {
+            destroySubcontexts(this);
+        }
         env = null;
-        namesToObjects = null;
-        subContexts = null;
+        bindings = null;
+    }
+
+    /**
+     * Freezes this context and all its {@link MemoryContext} subcontexts. The bindings are moved into compact immutable
+     * tables, that are read without any synchronization. Afterwards bind(), rebind(), unbind(), rename(),
+     * createSubcontext() and destroySubcontext() throw an {@link OperationNotSupportedException}. Bound
+     * {@link Reference}s are still resolved on first lookup. Call it when no other thread modifies the tree anymore.
+     *
+     * @return Approximate number of bytes of heap saved.
+     */
+    public long seal() {
+        if (sealed) {
+            return 0;
+        }
+        sealed = true;
+        long saved = 0;
+        for (Entry entry : bindings.values()) {
+            if (entry.value instanceof MemoryContext) {
+                saved += ((MemoryContext) entry.value).seal();
+            }
+        }
+        final SealedBindings sealedBindings = new SealedBindings(bindings);
+        saved += SealedBindings.estimatedHeapSizeOfConcurrentHashMap(bindings.size())
+                - sealedBindings.estimatedHeapSize();
+        bindings = sealedBindings;
+        return saved;
+    }
+
+    /**
+     * @return true: See {@link #seal()}.
+     */
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * Copies this context and all subcontexts created by {@link #createSubcontext(Name)}. The copy is a new tree, that
+     * can be modified independently of this one. The bound objects themselves are not copied, but shared by both trees.
+     * Unresolved {@link Reference}s are resolved separately in each tree. The copy of a sealed tree is sealed.
+     */
+    public MemoryContext copy() throws NamingException {
+        return copy(UnaryOperator.identity());
+    }
+
+    /**
+     * Like {@link #copy()}, but binds what values returns for each bound object in the copy, e. g. a copy of a mutable
+     * object. Subcontexts of this tree are copied as by copy().
+     */
+    public MemoryContext copy(@NotNull UnaryOperator<Object> values) throws NamingException {
+        final MemoryContext copy = new MemoryContext(env);
+        if (!nameInNamespace.isEmpty()) {
+            copy.setNameInNamespace((Name) nameInNamespace.clone());
+        }
+        copyBindings(copy, values);
+        if (sealed) {
+            copy.seal();
+        }
+        return copy;
+    }
+
+    private void copyBindings(MemoryContext copy, UnaryOperator<Object> values) throws NamingException {
+        for (Map.Entry<String, Entry> binding : bindings.entrySet()) {
+            final String objName = binding.getValue().name(binding.getKey());
+            Object value = binding.getValue().value;
+            if (value instanceof MemoryContext && ((MemoryContext) value).isSameTree(this)) {
+                final MemoryContext subcontext = copy.newSubcontext(objName);
+                ((MemoryContext) value).copyBindings(subcontext, values);
+                value = subcontext;
+            }
+            else {
+                value = values.apply(value);
+            }
+            final Entry entry = copy.newEntry(objName, value);
+            copy.bindings.put(binding.getKey(), entry);
+            copy.indexed(objName, entry);
+        }
+    }
+
+    private void checkNotSealed() throws OperationNotSupportedException {
+        if (sealed) {
+            throw new OperationNotSupportedException("Context " + getNameInNamespace() + " is sealed.");
+        }
+    }
+
+    /**
+     * The names bound in one context in ascending order, with the keys of their bindings at the same index.
+     */
+    private static final class SortedNames {
+        final long version;
+        final String[] names;
+        final String[] keys;
+
+        SortedNames(long version, String[] names, String[] keys) {
+            this.version = version;
+            this.names = names;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * A slot in the binding table. Objects and subcontexts share one table, {@link #isContext} tells them apart. Entries
+     * are immutable, a new binding always replaces the whole entry.
+     */
+    static final class Entry {
+        final Object value;
+        final boolean isContext;
+        /* Only for References: State of the single-flight resolution. */
+        final Resolution resolution;
+        /* The name as bound, if it differs from its key. See MemoryContext.key(). */
+        final String name;
+
+        Entry(Object value) {
+            this(value, null);
+        }
+
+        Entry(Object value, String name) {
+            this.value = value;
+            this.isContext = value instanceof Context;
+            this.resolution = value instanceof Reference ? new Resolution() : null;
+            this.name = name;
+        }
+
+        /**
+         * @return The bound object, the instance it was resolved to, if it is a resolved {@link Reference}.
+         */
+        Object listed() {
+            return resolution != null && resolution.resolved ? resolution.instance : value;
+        }
+
+        /**
+         * @return The name to list this entry under.
+         */
+        String name(String key) {
+            return name != null ? name : key;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * A name not found by {@link #lookup(String)}. Valid as long as the modification counter of the tree still has the
+     * value it had before the lookup.
+     */
+    private static final class Miss {
+        final long modification;
+        final String remainingName;
+
+        Miss(long modification, String remainingName) {
+            this.modification = modification;
+            this.remainingName = remainingName;
+        }
+    }
+
+    /**
+     * Resolution of a bound {@link Reference}. Once resolved the instance is read without locking. A ReentrantLock
+     * instead of a monitor lets waiting virtual threads unmount.
+     */
+    private static final class Resolution {
+        final ReentrantLock lock = new ReentrantLock();
+        volatile boolean resolved;
+        volatile Object instance;
+        volatile Exception failure;
+        volatile long retryAt;
+
+        void throwIfBackingOff(String objName) throws NamingException {
+            final Exception failure = this.failure;
+            if (failure != null && System.nanoTime() - retryAt < 0) {
+                LOGGER.debug("Resolution of {} failed recently. Not retrying before backoff expired.", objName);
+                NamingException namingException = new NamingException();
+                namingException.setRootCause(failure);
+                throw namingException;
+            }
+        }
+    }
+
+    /**
+     * A region of a String that is equal to the String keys of {@link #bindings} with the same characters. Used to
+     * probe the binding table without creating a substring for every name component. {@link ConcurrentHashMap#get(Object)}
+     * only calls <code>hashCode()</code> and <code>equals()</code> of the probe, so the probe need not be a String
+     * itself.
+     */
+    private static final class NameRegion {
+        private String name;
+        private int start;
+        private int length;
+        private int hash;
+
+        NameRegion set(String name, int start, int end) {
+            this.name = name;
+            this.start = start;
+            this.length = end - start;
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + name.charAt(i);
+            }
+            this.hash = h;
+            return this;
+        }
+
+        void clear() {
+            name = null;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof String)) {
+                return false;
+            }
+            final String key = (String) obj;
+            return key.length() == length && name.regionMatches(start, key, 0, length);
+        }
     }
 }
 
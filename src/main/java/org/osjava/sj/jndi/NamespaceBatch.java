@@ -0,0 +1,336 @@
+package org.osjava.sj.jndi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Modifications of a {@link MemoryContext} tree that become visible all at once. Operations are only staged until
+ * {@link #commit()}. Lookups in the tree then either see none or all of them, never a part.
+ * <pre>
+ * MemoryContext root = (MemoryContext) new InitialContext().lookup("");
+ * root.batch()
+ *     .rebind("java:comp/env/jdbc/orders", dataSource)
+ *     .rebind("java:comp/env/jdbc/schema", "orders_v2")
+ *     .unbind("java:comp/env/flags/legacyOrders")
+ *     .commit();
+ * </pre>
+ * Operations are grouped by the context they modify, so committing walks to every modified context once, however
+ * many operations it gets. Operations on the same context are applied in the order they were staged, those on a
+ * context before those on its subcontexts. A batch either fails in commit() without any effect, e. g. because a
+ * name is already bound, or is applied completely.
+ * <p>
+ * Subcontexts created by the batch are filled before lookups are blocked, as nobody sees them yet. While lookups
+ * wait, they are only bound, so that attaching a whole tree costs lookups no more than binding its top contexts.
+ * <p>
+ * Batches are atomic with respect to lookups and to other batches. A bind() or unbind() outside of a batch, that
+ * runs concurrently with commit(), is not.
+ *
+ * @see MemoryContext#batch()
+ */
+public final class NamespaceBatch {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NamespaceBatch.class);
+    /* States of a name in validate(), besides an existing Entry and a MemoryContext created by the batch. */
+    private static final Object ABSENT = new Object();
+    private static final Object OBJECT = new Object();
+
+    private final MemoryContext context;
+    private final Node root = new Node();
+    private boolean committed;
+
+    NamespaceBatch(@NotNull MemoryContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Stages a bind. commit() fails with a {@link NameAlreadyBoundException}, if name is bound by then.
+     */
+    public NamespaceBatch bind(@NotNull String name, @Nullable Object object) throws NamingException {
+        return stage(Operation.BIND, name, object);
+    }
+
+    public NamespaceBatch bind(@NotNull Name name, @Nullable Object object) throws NamingException {
+        return stage(Operation.BIND, name, object);
+    }
+
+    public NamespaceBatch rebind(@NotNull String name, @Nullable Object object) throws NamingException {
+        return stage(Operation.REBIND, name, object);
+    }
+
+    public NamespaceBatch unbind(@NotNull String name) throws NamingException {
+        return stage(Operation.UNBIND, name, null);
+    }
+
+    /**
+     * Stages the creation of an empty subcontext, that later operations of this batch may bind into.
+     */
+    public NamespaceBatch createSubcontext(@NotNull String name) throws NamingException {
+        return stage(Operation.CREATE_SUBCONTEXT, name, null);
+    }
+
+    /**
+     * Stages a bind, that is skipped with an error logged, if name is bound by the time of commit(). To merge one
+     * namespace into another, where the binding already there wins.
+     */
+    public NamespaceBatch bindIfAbsent(@NotNull Name name, @Nullable Object object) throws NamingException {
+        return stage(Operation.BIND_IF_ABSENT, name, object);
+    }
+
+    /**
+     * Stages the creation of a subcontext, unless name is bound to a subcontext by the time of commit(). Then later
+     * operations of this batch bind into the existing subcontext. commit() fails with a {@link NotContextException},
+     * if name is bound to an object by then.
+     */
+    public NamespaceBatch mergeSubcontext(@NotNull Name name) throws NamingException {
+        return stage(Operation.MERGE_SUBCONTEXT, name, null);
+    }
+
+    /**
+     * Publishes all staged operations at once.
+     *
+     * @throws NameNotFoundException if a context to modify does not exist.
+     * @throws NameAlreadyBoundException if a name to bind or to create a subcontext for is already bound.
+     * @throws NotContextException if a context to modify or to merge is bound to an object or to a context, that is
+     * not part of this tree.
+     * @throws javax.naming.OperationNotSupportedException if the tree is sealed.
+     */
+    public void commit() throws NamingException {
+        if (committed) {
+            throw new IllegalStateException("Batch already committed.");
+        }
+        context.publish(new MemoryContext.Publication() {
+            @Override
+            public void validate() throws NamingException {
+                NamespaceBatch.this.validate(root, context, context.getNameParser("").parse(""), false);
+            }
+
+            @Override
+            public void verify() throws NamingException {
+                NamespaceBatch.this.verify(root, context, context.getNameParser("").parse(""));
+            }
+
+            @Override
+            public void apply() {
+                NamespaceBatch.this.apply(root, context);
+            }
+        });
+        committed = true;
+    }
+
+    private NamespaceBatch stage(Operation operation, String name, Object object) throws NamingException {
+        return stage(operation, context.getNameParser("").parse(name), object);
+    }
+
+    private NamespaceBatch stage(Operation operation, Name parsed, Object object) throws NamingException {
+        if (committed) {
+            throw new IllegalStateException("Batch already committed.");
+        }
+        if (parsed.isEmpty()) {
+            throw new InvalidNameException("Cannot bind to empty name");
+        }
+        Node node = root;
+        for (int i = 0; i < parsed.size() - 1; i++) {
+            // Keyed like the binding table, so that names equal by the syntax share a node.
+            node = node.children.computeIfAbsent(context.key(parsed.get(i)), key -> new Node());
+        }
+        node.operations.add(new Staged(operation, parsed.get(parsed.size() - 1), object));
+        return this;
+    }
+
+    /**
+     * Replays the operations of node and below on the states of the names they touch. Creates the subcontexts the
+     * batch binds and fills them.
+     *
+     * @param created true: ctx is created by this batch and not bound yet. The operations are applied right away.
+     */
+    private void validate(Node node, MemoryContext ctx, Name path, boolean created) throws NamingException {
+        final Map<String, Object> states = new HashMap<String, Object>();
+        for (Staged staged : node.operations) {
+            final String key = context.key(staged.objName);
+            final Object state = state(states, ctx, key);
+            switch (staged.operation) {
+                case BIND:
+                case CREATE_SUBCONTEXT:
+                    if (state != ABSENT) {
+                        throw new NameAlreadyBoundException("Name " + child(path, staged.objName)
+                                + " already bound.  Use rebind() to override");
+                    }
+                    if (staged.operation == Operation.BIND) {
+                        states.put(key, OBJECT);
+                    }
+                    else {
+                        staged.created = ctx.newDetachedSubcontext(staged.objName);
+                        states.put(key, staged.created);
+                    }
+                    break;
+                case REBIND:
+                    states.put(key, OBJECT);
+                    break;
+                case UNBIND:
+                    states.put(key, ABSENT);
+                    break;
+                case BIND_IF_ABSENT:
+                    staged.skipped = state != ABSENT;
+                    if (staged.skipped) {
+                        LOGGER.error("Can not bind {}: Name already bound in {}.", child(path, staged.objName),
+                                context.getNameInNamespace());
+                    }
+                    else {
+                        states.put(key, OBJECT);
+                    }
+                    break;
+                case MERGE_SUBCONTEXT:
+                    staged.skipped = state != ABSENT;
+                    if (state == ABSENT) {
+                        staged.created = ctx.newDetachedSubcontext(staged.objName);
+                        states.put(key, staged.created);
+                    }
+                    else if (!(state instanceof MemoryContext || state instanceof MemoryContext.Entry
+                            && isSubcontext(ctx, (MemoryContext.Entry) state))) {
+                        throw new NotContextException("Can not create context " + child(path, staged.objName)
+                                + ": Name already bound to an object in " + context.getNameInNamespace());
+                    }
+                    break;
+            }
+        }
+        if (created) {
+            // Nobody sees ctx yet, so lookups need not wait for this.
+            applyOperations(node, ctx);
+        }
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            final Name childPath = child(path, child.getKey());
+            final Node childNode = child.getValue();
+            final Object state = state(states, ctx, child.getKey());
+            if (state instanceof MemoryContext) {
+                childNode.context = (MemoryContext) state;
+                childNode.created = true;
+                validate(childNode, childNode.context, childPath, true);
+            }
+            else if (state == ABSENT) {
+                throw new NameNotFoundException("The subcontext " + childPath + " was not found.");
+            }
+            else if (state instanceof MemoryContext.Entry && isSubcontext(ctx, (MemoryContext.Entry) state)) {
+                childNode.context = (MemoryContext) ((MemoryContext.Entry) state).value;
+                validate(childNode, childNode.context, childPath, false);
+            }
+            else {
+                throw new NotContextException(childPath + " is not a subcontext of " + context.getNameInNamespace());
+            }
+        }
+    }
+
+    /**
+     * Checks, that the existing subcontexts validate() found below node are still bound.
+     */
+    private void verify(Node node, MemoryContext ctx, Name path) throws NamingException {
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            final Node childNode = child.getValue();
+            if (childNode.created) {
+                continue;
+            }
+            final Name childPath = child(path, child.getKey());
+            final MemoryContext.Entry entry = ctx.entry(child.getKey());
+            if (entry == null || entry.value != childNode.context) {
+                // Only when modified concurrently outside of a batch.
+                throw new NameNotFoundException("The subcontext " + childPath + " was unbound while committing.");
+            }
+            verify(childNode, childNode.context, childPath);
+        }
+    }
+
+    private static Object state(Map<String, Object> states, @Nullable MemoryContext ctx, String objName) {
+        final Object state = states.get(objName);
+        if (state != null) {
+            return state;
+        }
+        final MemoryContext.Entry entry = ctx == null ? null : ctx.entry(objName);
+        return entry == null ? ABSENT : entry;
+    }
+
+    private boolean isSubcontext(MemoryContext ctx, MemoryContext.Entry entry) {
+        return entry.isContext && entry.value instanceof MemoryContext
+                && ((MemoryContext) entry.value).isSameTree(ctx);
+    }
+
+    private static Name child(Name path, String objName) throws InvalidNameException {
+        return ((Name) path.clone()).add(objName);
+    }
+
+    private void apply(Node node, MemoryContext ctx) {
+        applyOperations(node, ctx);
+        for (Node child : node.children.values()) {
+            // Created ones are filled already.
+            if (!child.created) {
+                apply(child, child.context);
+            }
+        }
+    }
+
+    private static void applyOperations(Node node, MemoryContext ctx) {
+        for (Staged staged : node.operations) {
+            if (staged.skipped) {
+                continue;
+            }
+            switch (staged.operation) {
+                case BIND:
+                case REBIND:
+                case BIND_IF_ABSENT:
+                    ctx.put(staged.objName, staged.object);
+                    break;
+                case UNBIND:
+                    ctx.remove(staged.objName);
+                    break;
+                case CREATE_SUBCONTEXT:
+                case MERGE_SUBCONTEXT:
+                    ctx.attach(staged.objName, staged.created);
+                    break;
+            }
+        }
+    }
+
+    private enum Operation {
+        BIND, REBIND, UNBIND, CREATE_SUBCONTEXT, BIND_IF_ABSENT, MERGE_SUBCONTEXT
+    }
+
+    private static final class Staged {
+        final Operation operation;
+        final String objName;
+        final Object object;
+        /* Decided by validate(): Not applied. */
+        boolean skipped;
+        /* Created by validate() for CREATE_SUBCONTEXT and MERGE_SUBCONTEXT. */
+        MemoryContext created;
+
+        Staged(Operation operation, String objName, Object object) {
+            this.operation = operation;
+            this.objName = objName;
+            this.object = object;
+        }
+    }
+
+    /**
+     * Staged operations on one context and the subcontexts below it.
+     */
+    private static final class Node {
+        final List<Staged> operations = new ArrayList<Staged>();
+        final Map<String, Node> children = new LinkedHashMap<String, Node>();
+        /* Set by validate(): The context modified. */
+        MemoryContext context;
+        /* Set by validate(): context is created by the batch and filled already. */
+        boolean created;
+    }
+}
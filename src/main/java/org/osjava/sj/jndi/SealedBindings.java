@@ -0,0 +1,138 @@
+package org.osjava.sj.jndi;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable binding table of a sealed {@link MemoryContext}. Keys and entries are kept in two parallel arrays with open
+ * addressing and linear probing at a load factor of at most 0.5. Lookups neither lock nor allocate. Only the read
+ * operations of {@link Map} are supported.
+ *
+ * @see MemoryContext#seal()
+ */
+final class SealedBindings extends AbstractMap<String, MemoryContext.Entry> {
+
+    private final String[] keys;
+    private final MemoryContext.Entry[] entries;
+    private final int mask;
+    private final int size;
+
+    SealedBindings(Map<String, MemoryContext.Entry> bindings) {
+        int capacity = 2;
+        while (capacity < bindings.size() * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        entries = new MemoryContext.Entry[capacity];
+        mask = capacity - 1;
+        int count = 0;
+        for (Map.Entry<String, MemoryContext.Entry> binding : bindings.entrySet()) {
+            int i = spread(binding.getKey().hashCode()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = binding.getKey();
+            entries[i] = binding.getValue();
+            count++;
+        }
+        size = count;
+    }
+
+    /**
+     * @param key A String or any probe with the same hashCode() and equals() as the String it stands for.
+     */
+    @Override
+    public MemoryContext.Entry get(Object key) {
+        int i = spread(key.hashCode()) & mask;
+        String k;
+        while ((k = keys[i]) != null) {
+            if (key.equals(k)) {
+                return entries[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Approximate heap used by this table in bytes, assuming compressed oops.
+     */
+    long estimatedHeapSize() {
+        // object header and fields + two arrays with 16 bytes header each
+        return 32 + 2 * (16 + 4L * keys.length);
+    }
+
+    /**
+     * @return Approximate heap used by a {@link java.util.concurrent.ConcurrentHashMap} with the given number of
+     * mappings in bytes, assuming compressed oops.
+     */
+    static long estimatedHeapSizeOfConcurrentHashMap(int size) {
+        long table = 16;
+        while (table * 3 / 4 < size) {
+            table <<= 1;
+        }
+        // map object + table array + one 32 byte node per mapping
+        return 64 + 16 + 4 * table + 32L * size;
+    }
+
+    @NotNull
+    @Override
+    public Set<Map.Entry<String, MemoryContext.Entry>> entrySet() {
+        return new AbstractSet<Map.Entry<String, MemoryContext.Entry>>() {
+            @NotNull
+            @Override
+            public Iterator<Map.Entry<String, MemoryContext.Entry>> iterator() {
+                return new Iterator<Map.Entry<String, MemoryContext.Entry>>() {
+                    private int next = advance(0);
+
+                    private int advance(int from) {
+                        while (from < keys.length && keys[from] == null) {
+                            from++;
+                        }
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, MemoryContext.Entry> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final int current = next;
+                        next = advance(current + 1);
+                        return new SimpleImmutableEntry<String, MemoryContext.Entry>(keys[current], entries[current]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
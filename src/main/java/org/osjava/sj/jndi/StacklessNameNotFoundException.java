@@ -0,0 +1,20 @@
+package org.osjava.sj.jndi;
+
+import javax.naming.NameNotFoundException;
+
+/**
+ * NameNotFoundException without a stack trace, thrown by {@link MemoryContext} when
+ * {@link MemoryContext#FAST_MISS} is set. Filling in the stack trace is by far the most expensive part of a failed
+ * lookup.
+ */
+final class StacklessNameNotFoundException extends NameNotFoundException {
+
+    StacklessNameNotFoundException(String explanation) {
+        super(explanation);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,183 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The zip file systems of the jar and zip files roots are loaded from. An archive is opened once and shared by all
+ * loads until the last one releases it, so that loading several roots from one jar, or loading a root again while a
+ * context loaded from it is open, does not read its central directory again. An archive modified on disk is opened
+ * anew, the old one is closed when its last user releases it.
+ * <p>
+ * Archives nested in archives, e. g. BOOT-INF/lib/config.jar in a Spring Boot jar, are opened in the file system of
+ * the enclosing archive, without extracting them. A nested archive keeps its enclosing archive open.
+ */
+final class ArchiveFileSystems {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveFileSystems.class);
+
+    /* The current archive of each path, in the default file system or in the file system of the enclosing archive. */
+    private static final Map<Path, Archive> ARCHIVES = new HashMap<Path, Archive>();
+    /* Every archive open, the outdated ones still in use included. */
+    private static final Map<FileSystem, Archive> OPEN = new HashMap<FileSystem, Archive>();
+
+    private ArchiveFileSystems() {
+    }
+
+    /**
+     * @param archive A jar or zip file. In the default file system or in one returned by this method.
+     * @return Not to be closed, but to be released with {@link #release(FileSystem)} when no longer used.
+     */
+    @NotNull
+    static synchronized FileSystem open(@NotNull Path archive) throws IOException {
+        if (archive.getFileSystem() == FileSystems.getDefault()) {
+            archive = archive.toAbsolutePath().normalize();
+        }
+        final BasicFileAttributes attributes = Files.readAttributes(archive, BasicFileAttributes.class);
+        Archive open = ARCHIVES.get(archive);
+        if (open != null && (!open.isCurrent(attributes) || !open.fileSystem.isOpen())) {
+            LOGGER.debug("{} modified. Opening it again.", archive);
+            // Closed by its last user.
+            ARCHIVES.remove(archive);
+            open = null;
+        }
+        if (open == null) {
+            final Archive enclosing = OPEN.get(archive.getFileSystem());
+            open = new Archive(archive, FileSystems.newFileSystem(archive, (ClassLoader) null), attributes, enclosing);
+            if (enclosing != null) {
+                enclosing.users++;
+            }
+            ARCHIVES.put(archive, open);
+            OPEN.put(open.fileSystem, open);
+        }
+        open.users++;
+        return open.fileSystem;
+    }
+
+    /**
+     * Closes fileSystem, if it is not used any more.
+     *
+     * @param fileSystem As returned by {@link #open(Path)} or {@link #resolve(URL)}, once for every call.
+     */
+    static synchronized void release(@NotNull FileSystem fileSystem) {
+        final Archive archive = OPEN.get(fileSystem);
+        if (archive == null || --archive.users > 0) {
+            return;
+        }
+        OPEN.remove(fileSystem);
+        if (ARCHIVES.get(archive.path) == archive) {
+            ARCHIVES.remove(archive.path);
+        }
+        try {
+            fileSystem.close();
+        }
+        catch (IOException e) {
+            LOGGER.warn("Unable to close {}", fileSystem, e);
+        }
+        if (archive.enclosing != null) {
+            release(archive.enclosing.fileSystem);
+        }
+    }
+
+    /**
+     * Opens the archives of a jar URL as returned by {@link ClassLoader#getResources(String)}, nested ones included, e.
+     * g. jar:file:/app.jar!/BOOT-INF/lib/config.jar!/roots or, since Spring Boot 3.2,
+     * jar:nested:/app.jar/!BOOT-INF/lib/config.jar!/roots.
+     *
+     * @return The entry the URL refers to, e. g. /roots in config.jar. Its file system is to be released with
+     * {@link #release(FileSystem)}.
+     */
+    @NotNull
+    static Path resolve(@NotNull URL jarUrl) throws IOException {
+        String spec = jarUrl.toString();
+        if (!spec.startsWith("jar:")) {
+            throw new IOException("Not a jar URL: " + jarUrl);
+        }
+        spec = spec.substring("jar:".length());
+        if (spec.startsWith("nested:")) {
+            spec = "file:" + spec.substring("nested:".length()).replaceFirst("/!", "!/");
+        }
+        final String[] parts = spec.split("!/");
+        FileSystem fileSystem;
+        try {
+            fileSystem = open(Paths.get(new URI(parts[0])));
+        }
+        catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Unable to resolve " + jarUrl, e);
+        }
+        try {
+            // Directories between the archives, e. g. BOOT-INF/classes/ in the Spring Boot 3.2 format.
+            String directory = "";
+            for (int i = 1; i < parts.length - 1; i++) {
+                final Path path = fileSystem.getPath("/" + directory + decode(parts[i]));
+                if (Files.isDirectory(path)) {
+                    directory = directory + decode(parts[i]) + (parts[i].endsWith("/") ? "" : "/");
+                }
+                else {
+                    final FileSystem enclosing = fileSystem;
+                    fileSystem = open(path);
+                    // Kept open by the nested archive.
+                    release(enclosing);
+                    directory = "";
+                }
+            }
+            return fileSystem.getPath("/" + directory + (parts.length > 1 ? decode(parts[parts.length - 1]) : ""));
+        }
+        catch (IOException | RuntimeException e) {
+            release(fileSystem);
+            throw e;
+        }
+    }
+
+    private static String decode(String part) throws UnsupportedEncodingException {
+        return URLDecoder.decode(part.replace("+", "%2B"), "UTF-8");
+    }
+
+    /**
+     * package-private: Only for Testing!
+     *
+     * @return Number of archives open, outdated ones in use included.
+     */
+    static synchronized int size() {
+        return OPEN.size();
+    }
+
+    private static final class Archive {
+        final Path path;
+        final FileSystem fileSystem;
+        /* null: Not nested. */
+        final Archive enclosing;
+        private final long size;
+        private final long lastModified;
+        /* Number of open() not released yet, plus one for each nested archive open. */
+        int users;
+
+        Archive(Path path, FileSystem fileSystem, BasicFileAttributes attributes, Archive enclosing) {
+            this.path = path;
+            this.fileSystem = fileSystem;
+            this.enclosing = enclosing;
+            size = attributes.size();
+            lastModified = attributes.lastModifiedTime().toMillis();
+        }
+
+        boolean isCurrent(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+}
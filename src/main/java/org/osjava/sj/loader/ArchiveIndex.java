@@ -0,0 +1,179 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Lists the files of the roots in a jar or zip file in {@link #LOCATION}, so that loading a root from the archive does
+ * not walk its directories. Written at build time by {@link #main(String[])} into the directory the archive is packed
+ * from, e. g. target/classes.
+ * <p>
+ * One path per line, relative to the archive's root and separated by "/". Lines starting with "#" are ignored.
+ */
+public final class ArchiveIndex {
+
+    public static final String LOCATION = "META-INF/simple-jndi.idx";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveIndex.class);
+
+    private ArchiveIndex() {
+    }
+
+    /**
+     * Arguments: The directory the archive is packed from and the roots to index in it, e. g. "target/classes roots".
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: ArchiveIndex <archive directory> <root>...");
+        }
+        final String[] roots = new String[args.length - 1];
+        System.arraycopy(args, 1, roots, 0, roots.length);
+        final File written = write(new File(args[0]), roots);
+        LOGGER.info("Generated {}", written);
+    }
+
+    /**
+     * @param archiveDirectory The directory the archive is packed from.
+     * @param roots Directories or files relative to archiveDirectory, separated by "/".
+     * @return The index written below archiveDirectory.
+     */
+    @NotNull
+    public static File write(@NotNull File archiveDirectory, @NotNull String... roots) throws IOException {
+        final Path base = archiveDirectory.toPath().toAbsolutePath();
+        final TreeSet<String> entries = new TreeSet<String>();
+        for (String root : roots) {
+            final Path rootPath = base.resolve(trim(root));
+            if (!Files.exists(rootPath)) {
+                throw new FileNotFoundException(rootPath.toString());
+            }
+            Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    entries.add(base.relativize(file).toString().replace(File.separatorChar, '/'));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        final Path index = base.resolve(LOCATION);
+        Files.createDirectories(index.getParent());
+        try (Writer out = Files.newBufferedWriter(index, StandardCharsets.UTF_8)) {
+            out.write("# Files of the Simple-JNDI roots " + String.join(", ", roots) + "\n");
+            for (String entry : entries) {
+                out.write(entry);
+                out.write('\n');
+            }
+        }
+        return index.toFile();
+    }
+
+    /**
+     * @return The visits walking rootDir in archive would make, in the order of the index, but with the files and
+     * subdirectories of a directory together. null: archive has no index or it does not list any file in rootDir.
+     */
+    @Nullable
+    static List<NioBasedJndiLoader.Visit> visits(@NotNull FileSystem archive, @NotNull String rootDir) throws IOException {
+        final Path index = archive.getPath("/" + LOCATION);
+        if (!Files.isRegularFile(index)) {
+            return null;
+        }
+        final String root = trim(rootDir);
+        final String prefix = root.isEmpty() ? "" : root + "/";
+        final Node rootNode = new Node(archive.getPath("/" + root));
+        try (BufferedReader in = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String entry = trim(line);
+                if (entry.equals(root)) {
+                    // rootDir is a file.
+                    final List<NioBasedJndiLoader.Visit> visits = new ArrayList<NioBasedJndiLoader.Visit>(1);
+                    visits.add(new NioBasedJndiLoader.Visit(NioBasedJndiLoader.Visit.VISIT_FILE, rootNode.path, null));
+                    return visits;
+                }
+                if (entry.startsWith(prefix)) {
+                    rootNode.add(entry.substring(prefix.length()).split("/"), 0);
+                }
+            }
+        }
+        if (rootNode.children.isEmpty()) {
+            LOGGER.debug("{} does not list {}. Walking it.", LOCATION, rootDir);
+            return null;
+        }
+        final List<NioBasedJndiLoader.Visit> visits = new ArrayList<NioBasedJndiLoader.Visit>();
+        rootNode.visit(visits);
+        return visits;
+    }
+
+    /**
+     * @return path without leading and trailing "/".
+     */
+    private static String trim(String path) {
+        int from = 0;
+        int to = path.length();
+        while (from < to && path.charAt(from) == '/') {
+            from++;
+        }
+        while (to > from && path.charAt(to - 1) == '/') {
+            to--;
+        }
+        return path.substring(from, to);
+    }
+
+    /**
+     * A file, if it has no children, otherwise a directory.
+     */
+    private static final class Node {
+        final Path path;
+        final Map<String, Node> children = new LinkedHashMap<String, Node>();
+
+        Node(Path path) {
+            this.path = path;
+        }
+
+        void add(String[] names, int i) {
+            Node child = children.get(names[i]);
+            if (child == null) {
+                child = new Node(path.resolve(names[i]));
+                children.put(names[i], child);
+            }
+            if (i + 1 < names.length) {
+                child.add(names, i + 1);
+            }
+        }
+
+        void visit(List<NioBasedJndiLoader.Visit> visits) {
+            if (children.isEmpty()) {
+                visits.add(new NioBasedJndiLoader.Visit(NioBasedJndiLoader.Visit.VISIT_FILE, path, null));
+                return;
+            }
+            visits.add(new NioBasedJndiLoader.Visit(NioBasedJndiLoader.Visit.PRE_VISIT_DIRECTORY, path, null));
+            for (Node child : children.values()) {
+                child.visit(visits);
+            }
+            visits.add(new NioBasedJndiLoader.Visit(NioBasedJndiLoader.Visit.POST_VISIT_DIRECTORY, path, null));
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package org.osjava.sj.loader;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osjava.datasource.SJDataSource;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.loader.convert.BeanConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.RefAddr;
+import javax.naming.Reference;
+import javax.naming.StringRefAddr;
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Generates the source of a class, that binds the content of a root in a context without reading a file at runtime.
+ * Contexts are created and values bound directly, typed values are created by constructor and setter calls instead of
+ * by converters. The root is loaded like {@link NioBasedJndiLoader} loads it. So a type declaration, that can not be
+ * converted, fails when the source is generated, e. g. in the generate-sources phase of a build, and not when the
+ * application starts.
+ * <p>
+ * Values without a direct equivalent in source code, e. g. beans with setters of other than basic types or values
+ * converted by a custom converter, are bound as References, that are converted on first lookup, see
+ * {@link DeferredConversionFactory}. Values referring to system properties or environment variables are resolved when
+ * the source is generated.
+ * <pre>
+ * java -cp simple-jndi.jar:simple-jndi-generator.jar org.osjava.sj.loader.BootstrapGenerator src/main/jndi target/generated-sources/jndi com.example.JndiBootstrap [jndi.properties]
+ * </pre>
+ * Not part of the runtime jar, but packaged separately with the classifier "generator", as it is only needed at build
+ * time.
+ * The generated class has one method: populate(Context). Pass it a context created with the same delimiter the root
+ * was generated with.
+ */
+public class BootstrapGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BootstrapGenerator.class);
+    /* Keeps every generated method far below the size limit of a method. */
+    private static final int STATEMENTS_PER_METHOD = 200;
+    private static final String INDENT = "        ";
+
+    private final Hashtable<Object, Object> env;
+    private final JndiLoader converter;
+
+    /**
+     * @param environment Configures loading the root as for {@link org.osjava.sj.SimpleContextFactory}, e. g.
+     * {@link JndiLoader#DELIMITER}.
+     */
+    public BootstrapGenerator(@NotNull Hashtable<?, ?> environment) {
+        env = new Hashtable<Object, Object>(environment);
+        if (!env.containsKey(JndiLoader.DELIMITER)) {
+            env.put(JndiLoader.DELIMITER, ".");
+        }
+        if (!env.containsKey("jndi.syntax.direction")) {
+            env.put("jndi.syntax.direction", "left_to_right");
+        }
+        if (!env.containsKey("jndi.syntax.separator")) {
+            env.put("jndi.syntax.separator", env.get(JndiLoader.DELIMITER));
+        }
+        converter = new JndiLoader(env);
+    }
+
+    /**
+     * Arguments: The root directory or file, the directory to write the source to, the fully qualified name of the
+     * class to generate and optionally a properties file with the environment, e. g. a jndi.properties.
+     */
+    public static void main(String[] args) throws NamingException, IOException {
+        if (args.length < 3 || args.length > 4) {
+            throw new IllegalArgumentException("Usage: BootstrapGenerator <root> <output directory> <class name> [<environment properties>]");
+        }
+        final Properties environment = new Properties();
+        if (args.length == 4) {
+            try (InputStream in = Files.newInputStream(new File(args[3]).toPath())) {
+                environment.load(in);
+            }
+        }
+        final File written = new BootstrapGenerator(environment).generate(new File(args[0]), new File(args[1]), args[2]);
+        LOGGER.info("Generated {}", written);
+    }
+
+    /**
+     * @param className Fully qualified, e. g. "com.example.JndiBootstrap".
+     * @return The file written below outputDirectory, e. g. com/example/JndiBootstrap.java.
+     */
+    @NotNull
+    public File generate(@NotNull File root, @NotNull File outputDirectory, @NotNull String className) throws NamingException, IOException {
+        final String source = generate(root, className);
+        final Path file = outputDirectory.toPath().resolve(className.replace('.', File.separatorChar) + ".java");
+        Files.createDirectories(file.getParent());
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(source);
+        }
+        return file.toFile();
+    }
+
+    /**
+     * @param className Fully qualified, e. g. "com.example.JndiBootstrap".
+     * @return The source of the class.
+     */
+    @NotNull
+    public String generate(@NotNull File root, @NotNull String className) throws NamingException, IOException {
+        if (!root.exists()) {
+            throw new FileNotFoundException(root.getPath());
+        }
+        // Lists the bindings as loaded. A MemoryContext would convert the deferred values when listing them.
+        final DetachedNamespace ctxt = new DetachedNamespace(new MemoryContext(env));
+        final NioBasedJndiLoader loader = new NioBasedJndiLoader(env);
+        loader.deferConversion = true;
+        loader.load(root, ctxt, BooleanUtils.toBoolean((String) env.get(JndiLoader.FILENAME_TO_CONTEXT)));
+        return new Source().write(ctxt, root.getName(), className);
+    }
+
+    /**
+     * One generated class.
+     */
+    private final class Source {
+        private final StringBuilder methods = new StringBuilder();
+        private int methodCount;
+        private boolean dateUsed;
+
+        String write(Context root, String rootName, String className) throws NamingException {
+            final String first = context(root, "");
+            final int lastDot = className.lastIndexOf('.');
+            final String simpleName = className.substring(lastDot + 1);
+            final StringBuilder source = new StringBuilder();
+            if (lastDot > 0) {
+                source.append("package ").append(className, 0, lastDot).append(";\n\n");
+            }
+            source.append("/**\n")
+                    .append(" * Binds the content of the root ").append(rootName.replace("*/", "*&#47;"))
+                    .append(" in a context. Generated by org.osjava.sj.loader.BootstrapGenerator, do not edit.\n")
+                    .append(" */\n")
+                    .append("public final class ").append(simpleName).append(" {\n\n")
+                    .append("    private ").append(simpleName).append("() {\n    }\n\n")
+                    .append("    public static void populate(javax.naming.Context ctx) throws javax.naming.NamingException {\n")
+                    .append(INDENT).append(first).append("(ctx);\n")
+                    .append("    }\n")
+                    .append(methods);
+            if (dateUsed) {
+                source.append("\n    private static java.util.Date date(String format, String value) {\n")
+                        .append(INDENT).append("try {\n")
+                        .append(INDENT).append("    return new java.text.SimpleDateFormat(format).parse(value);\n")
+                        .append(INDENT).append("}\n")
+                        .append(INDENT).append("catch (java.text.ParseException e) {\n")
+                        .append(INDENT).append("    throw new IllegalStateException(\"Unable to parse '\" + value + \"' as format '\" + format + \"'\", e);\n")
+                        .append(INDENT).append("}\n")
+                        .append("    }\n");
+            }
+            return source.append("}\n").toString();
+        }
+
+        /**
+         * @return The name of the first method populating the context. Every method calls the next one, if the
+         * bindings did not fit into one.
+         */
+        private String context(Context context, String path) throws NamingException {
+            final List<String> statements = new ArrayList<String>();
+            for (Binding binding : sorted(context)) {
+                final String name = binding.getName();
+                final Object value = binding.getObject();
+                final String fullName = path.isEmpty() ? name : path + env.get(JndiLoader.DELIMITER) + name;
+                if (value instanceof Context) {
+                    statements.add(context((Context) value, fullName) + "(c.createSubcontext(" + literal(name) + "));");
+                }
+                else {
+                    statements.add(bind(name, fullName, value));
+                }
+            }
+            String next = null;
+            final int chunks = Math.max(1, (statements.size() + STATEMENTS_PER_METHOD - 1) / STATEMENTS_PER_METHOD);
+            for (int chunk = chunks - 1; chunk >= 0; chunk--) {
+                final String method = "populate" + methodCount++;
+                methods.append("\n    private static void ").append(method)
+                        .append("(javax.naming.Context c) throws javax.naming.NamingException {\n");
+                final int end = Math.min(statements.size(), (chunk + 1) * STATEMENTS_PER_METHOD);
+                for (String statement : statements.subList(chunk * STATEMENTS_PER_METHOD, end)) {
+                    methods.append(INDENT).append(statement).append('\n');
+                }
+                if (next != null) {
+                    methods.append(INDENT).append(next).append("(c);\n");
+                }
+                methods.append("    }\n");
+                next = method;
+            }
+            return next;
+        }
+
+        private List<Binding> sorted(Context context) throws NamingException {
+            final List<Binding> bindings = new ArrayList<Binding>();
+            final NamingEnumeration<Binding> enumeration = context.listBindings("");
+            while (enumeration.hasMore()) {
+                bindings.add(enumeration.next());
+            }
+            Collections.sort(bindings, new Comparator<Binding>() {
+                @Override
+                public int compare(Binding b1, Binding b2) {
+                    return b1.getName().compareTo(b2.getName());
+                }
+            });
+            return bindings;
+        }
+
+        private String bind(String name, String fullName, Object value) throws NamingException {
+            final List<String> lines = new ArrayList<String>();
+            final String expression;
+            if (value instanceof Reference) {
+                final Reference reference = (Reference) value;
+                final RefAddr typeDeclaration = reference.get(DeferredConversionFactory.TYPE_DECLARATION);
+                if (DeferredConversionFactory.class.getName().equals(reference.getFactoryClassName())
+                        && typeDeclaration != null) {
+                    expression = typed(lines, fullName, (Properties) typeDeclaration.getContent());
+                }
+                else {
+                    expression = reference(lines, fullName, reference);
+                }
+            }
+            else {
+                expression = literal(value);
+                if (expression == null) {
+                    throw new NamingException("Can not generate code for " + fullName + ": " + value.getClass().getName());
+                }
+            }
+            final String bind = "c.bind(" + literal(name) + ", " + expression + ");";
+            if (lines.isEmpty()) {
+                return bind;
+            }
+            final StringBuilder block = new StringBuilder("{\n");
+            for (String line : lines) {
+                block.append(INDENT).append("    ").append(line).append('\n');
+            }
+            return block.append(INDENT).append("    ").append(bind).append('\n').append(INDENT).append('}').toString();
+        }
+
+        /**
+         * Converts the value like when loading, to fail now when it can not be converted. Then creates it like the
+         * converter did.
+         */
+        private String typed(List<String> lines, String fullName, Properties typeDeclaration) throws NamingException {
+            final Properties properties = new Properties();
+            properties.putAll(typeDeclaration);
+            final Object converted;
+            try {
+                converted = converter.convert(properties);
+            }
+            catch (RuntimeException e) {
+                final NamingException ne = new NamingException(fullName + ": " + e.getMessage());
+                ne.setRootCause(e);
+                throw ne;
+            }
+            if (converted == null) {
+                throw new NamingException(fullName + ": " + typeDeclaration + " could not be converted. See log.");
+            }
+            final String type = typeDeclaration.getProperty("type");
+            final String converterClassName = typeDeclaration.getProperty("converter");
+            String expression = null;
+            if (converterClassName == null) {
+                expression = converted(lines, type, typeDeclaration, converted);
+            }
+            else if (BeanConverter.class.getName().equals(converterClassName)) {
+                expression = bean(lines, typeDeclaration, converted);
+            }
+            if (expression == null) {
+                LOGGER.debug("{} is converted on first lookup.", fullName);
+                lines.clear();
+                properties(lines, typeDeclaration);
+                expression = "org.osjava.sj.loader.DeferredConversionFactory.toReference(p)";
+            }
+            return expression;
+        }
+
+        @Nullable
+        private String converted(List<String> lines, String type, Properties typeDeclaration, Object converted) {
+            if (converted instanceof Reference) {
+                properties(lines, typeDeclaration);
+                return "org.osjava.sj.jndi.JndiUtils.toReference(p, " + literal(type) + ")";
+            }
+            if (converted instanceof SJDataSource) {
+                properties(lines, typeDeclaration);
+                return "new org.osjava.datasource.SJDataSource(p)";
+            }
+            if (converted instanceof Date && "java.util.Date".equals(type)) {
+                dateUsed = true;
+                return "date(" + literal(typeDeclaration.getProperty("format")) + ", "
+                        + literal(typeDeclaration.getProperty("valueToConvert")) + ")";
+            }
+            if (converted instanceof Map && "java.util.Map".equals(type)) {
+                lines.add("java.util.Map<Object, Object> m = new java.util.HashMap<Object, Object>();");
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) converted).entrySet()) {
+                    final String key = literal(entry.getKey());
+                    final String value = literal(entry.getValue());
+                    if (key == null || value == null) {
+                        return null;
+                    }
+                    lines.add("m.put(" + key + ", " + value + ");");
+                }
+                return "m";
+            }
+            return literal(converted);
+        }
+
+        /**
+         * The same setter calls {@link BeanConverter} made. The values are taken from the bean converted now.
+         *
+         * @return null: Not a public bean or a property without getter or of a type not supported.
+         */
+        @Nullable
+        private String bean(List<String> lines, Properties typeDeclaration, Object bean) {
+            final Class<?> beanClass = bean.getClass();
+            final String className = beanClass.getCanonicalName();
+            if (className == null || !Modifier.isPublic(beanClass.getModifiers())) {
+                return null;
+            }
+            try {
+                if (!Modifier.isPublic(beanClass.getConstructor().getModifiers())) {
+                    return null;
+                }
+                lines.add(className + " b = new " + className + "();");
+                final List<String> keys = sortedKeys(typeDeclaration);
+                for (String key : keys) {
+                    if ("type".equals(key) || "converter".equals(key)) {
+                        continue;
+                    }
+                    if (!(typeDeclaration.get(key) instanceof String)) {
+                        return null;
+                    }
+                    final PropertyDescriptor descriptor = findPropertyDescriptorWithSetter(beanClass, key);
+                    if (descriptor == null || descriptor.getReadMethod() == null) {
+                        return null;
+                    }
+                    final Method setter = descriptor.getWriteMethod();
+                    if (!Modifier.isPublic(setter.getDeclaringClass().getModifiers())) {
+                        return null;
+                    }
+                    final Object value = descriptor.getReadMethod().invoke(bean);
+                    final Class<?> propertyType = descriptor.getPropertyType();
+                    final String literal;
+                    if (value == null) {
+                        if (propertyType.isPrimitive() || propertyType.getCanonicalName() == null) {
+                            return null;
+                        }
+                        literal = "(" + propertyType.getCanonicalName() + ") null";
+                    }
+                    else {
+                        literal = literal(value);
+                    }
+                    if (literal == null) {
+                        return null;
+                    }
+                    lines.add("b." + setter.getName() + "(" + literal + ");");
+                }
+                return "b";
+            }
+            catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException
+                    | IntrospectionException e) {
+                LOGGER.debug("{}", beanClass, e);
+                return null;
+            }
+        }
+
+        /**
+         * Like {@link BeanConverter}: Property names are not case sensitive.
+         */
+        @Nullable
+        private PropertyDescriptor findPropertyDescriptorWithSetter(Class<?> beanClass, String propertyName) throws IntrospectionException {
+            final BeanInfo info = Introspector.getBeanInfo(beanClass, Object.class);
+            for (PropertyDescriptor descriptor : info.getPropertyDescriptors()) {
+                if (descriptor.getName().equalsIgnoreCase(propertyName) && descriptor.getWriteMethod() != null) {
+                    return descriptor;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * References bound by {@link JndiLoader} directly, i. e. declared with javaxNamingSpiObjectFactory.
+         */
+        private String reference(List<String> lines, String fullName, Reference reference) throws NamingException {
+            lines.add("javax.naming.Reference r = new javax.naming.Reference(" + literal(reference.getClassName()) + ", "
+                    + literal(reference.getFactoryClassName()) + ", " + literal(reference.getFactoryClassLocation()) + ");");
+            for (int i = 0; i < reference.size(); i++) {
+                final RefAddr address = reference.get(i);
+                final String content = address instanceof StringRefAddr ? literal(address.getContent()) : null;
+                if (content == null) {
+                    throw new NamingException("Can not generate code for " + fullName + ": " + address);
+                }
+                lines.add("r.add(new javax.naming.StringRefAddr(" + literal(address.getType()) + ", " + content + "));");
+            }
+            return "r";
+        }
+
+        private void properties(List<String> lines, Properties properties) {
+            lines.add("java.util.Properties p = new java.util.Properties();");
+            for (String key : sortedKeys(properties)) {
+                final String value = literal(properties.get(key));
+                if (value == null) {
+                    throw new IllegalStateException("Not a String or a List of Strings: " + key + "=" + properties.get(key));
+                }
+                lines.add("p.put(" + literal(key) + ", " + value + ");");
+            }
+        }
+
+        private List<String> sortedKeys(Properties properties) {
+            final List<String> keys = new ArrayList<String>();
+            for (Object key : properties.keySet()) {
+                keys.add((String) key);
+            }
+            Collections.sort(keys);
+            return keys;
+        }
+    }
+
+    /**
+     * @return A Java expression evaluating to value or null, if the type of value is not supported.
+     */
+    @Nullable
+    static String literal(@Nullable Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof String) {
+            return quote((String) value);
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? "Boolean.TRUE" : "Boolean.FALSE";
+        }
+        if (value instanceof Character) {
+            return "Character.valueOf((char) " + (int) (Character) value + ")";
+        }
+        if (value instanceof Byte) {
+            return "Byte.valueOf((byte) " + value + ")";
+        }
+        if (value instanceof Short) {
+            return "Short.valueOf((short) " + value + ")";
+        }
+        if (value instanceof Integer) {
+            return "Integer.valueOf(" + value + ")";
+        }
+        if (value instanceof Long) {
+            return "Long.valueOf(" + value + "L)";
+        }
+        if (value instanceof Float) {
+            final float f = (Float) value;
+            return Float.isNaN(f) || Float.isInfinite(f)
+                    ? "Float.valueOf(Float.intBitsToFloat(" + Float.floatToRawIntBits(f) + "))"
+                    : "Float.valueOf(" + f + "f)";
+        }
+        if (value instanceof Double) {
+            final double d = (Double) value;
+            return Double.isNaN(d) || Double.isInfinite(d)
+                    ? "Double.valueOf(Double.longBitsToDouble(" + Double.doubleToRawLongBits(d) + "L))"
+                    : "Double.valueOf(" + d + "d)";
+        }
+        if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return "new " + value.getClass().getName() + "(" + quote(value.toString()) + ")";
+        }
+        if (value instanceof Enum) {
+            final Class<?> enumClass = ((Enum<?>) value).getDeclaringClass();
+            return enumClass.getCanonicalName() != null && Modifier.isPublic(enumClass.getModifiers())
+                    ? enumClass.getCanonicalName() + "." + ((Enum<?>) value).name()
+                    : null;
+        }
+        if (value instanceof List) {
+            final StringBuilder list = new StringBuilder("new java.util.LinkedList<Object>(java.util.Arrays.<Object>asList(");
+            String separator = "";
+            for (Object element : (List<?>) value) {
+                final String literal = literal(element);
+                if (literal == null) {
+                    return null;
+                }
+                list.append(separator).append(literal);
+                separator = ", ";
+            }
+            return list.append("))").toString();
+        }
+        return null;
+    }
+
+    /**
+     * Control characters as octal escapes: Unicode escapes are translated before the source is parsed, so that the
+     * escaped line feed would end the line.
+     */
+    private static String quote(String value) {
+        final StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x7f) {
+                        quoted.append(String.format("\\%03o", (int) c));
+                    }
+                    else if (c > 0x7f) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,64 @@
+package org.osjava.sj.loader;
+
+import org.osjava.sj.jndi.DeferredReference;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.RefAddr;
+import javax.naming.Reference;
+import javax.naming.spi.NamingManager;
+import javax.naming.spi.ObjectFactory;
+import java.util.Hashtable;
+import java.util.Properties;
+
+/**
+ * Converts a typed value, e. g. "age/type=java.lang.Integer", when it is looked up the first time instead of when it
+ * is loaded. Used for roots loaded from a {@link NamespaceSnapshot}, so that starting does not pay for creating
+ * DataSources, beans and other objects before they are needed. The {@link org.osjava.sj.jndi.MemoryContext} replaces
+ * the Reference by the converted object on first lookup or listing, see {@link DeferredReference}.
+ */
+public class DeferredConversionFactory implements ObjectFactory {
+
+    static final String TYPE_DECLARATION = "typeDeclaration";
+
+    /**
+     * @param typeProperties The type declaration as passed to a converter, e. g. {type=java.lang.Integer,
+     * valueToConvert=42}.
+     * @return A Reference to bind instead of the converted value.
+     */
+    public static Reference toReference(Properties typeProperties) {
+        return new DeferredReference(typeProperties.getProperty("type"), new TypeDeclaration(typeProperties),
+                DeferredConversionFactory.class.getName(), null);
+    }
+
+    @Override
+    public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment) throws Exception {
+        if (!(obj instanceof Reference)) {
+            return null;
+        }
+        final RefAddr typeDeclaration = ((Reference) obj).get(TYPE_DECLARATION);
+        if (!(typeDeclaration instanceof TypeDeclaration)) {
+            return null;
+        }
+        // A copy: Converters may modify the properties.
+        final Properties properties = new Properties();
+        properties.putAll((Properties) typeDeclaration.getContent());
+        final Object value = new JndiLoader(environment != null ? environment : new Hashtable()).convert(properties);
+        // As when bound while loading: A Reference is resolved on lookup.
+        return value instanceof Reference ? NamingManager.getObjectInstance(value, name, nameCtx, environment) : value;
+    }
+
+    private static final class TypeDeclaration extends RefAddr {
+        private final Properties properties;
+
+        TypeDeclaration(Properties properties) {
+            super(TYPE_DECLARATION);
+            this.properties = properties;
+        }
+
+        @Override
+        public Object getContent() {
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package org.osjava.sj.loader;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osjava.sj.jndi.ContextBindings;
+import org.osjava.sj.jndi.ContextNames;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.jndi.NamespaceBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+import javax.naming.OperationNotSupportedException;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A namespace a loader fills before it becomes visible: Contexts are plain maps, names not found are no exceptions.
+ * {@link #attachTo(Context)} then adds the whole namespace to the context it was loaded for at once.
+ * <p>
+ * Supports what loaders do with a context: bind(), rebind(), lookup(), createSubcontext() and listing. Names are
+ * parsed like in the context attached to. Binding an already bound name fails with a NameAlreadyBoundException, as
+ * with a {@link MemoryContext}. Like there, names equal by jndi.syntax.ignorecase and jndi.syntax.trimblanks are the
+ * same name.
+ * <p>
+ * Not thread-safe.
+ */
+public final class DetachedNamespace implements Context {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DetachedNamespace.class);
+
+    private final NameParser parser;
+    private final Hashtable<?, ?> environment;
+    private final Name nameInNamespace;
+    private final boolean ignoreCase;
+    private final boolean trimBlanks;
+    /* Key: See key(). Subcontexts are DetachedNamespaces. Attached in this order. */
+    private final Map<String, Object> bindings = new LinkedHashMap<String, Object>();
+    /* The name as bound, if it differs from its key. */
+    private final Map<String, String> names = new HashMap<String, String>();
+
+    /**
+     * @param target The context the namespace will be attached to. Only used to parse names the same way.
+     */
+    public DetachedNamespace(@NotNull Context target) throws NamingException {
+        this(target.getNameParser(""), target.getEnvironment(), target.getNameParser("").parse(target.getNameInNamespace()));
+    }
+
+    private DetachedNamespace(NameParser parser, Hashtable<?, ?> environment, Name nameInNamespace) {
+        this.parser = parser;
+        this.environment = environment;
+        this.nameInNamespace = nameInNamespace;
+        ignoreCase = BooleanUtils.toBoolean((String) environment.get("jndi.syntax.ignorecase"));
+        trimBlanks = BooleanUtils.toBoolean((String) environment.get("jndi.syntax.trimblanks"));
+    }
+
+    /**
+     * Adds all bindings to target in one {@link NamespaceBatch}, if target is a {@link MemoryContext}, otherwise one
+     * after the other. Contexts existing in both are merged.
+     *
+     * @throws NameAlreadyBoundException if a name is bound in both. Nothing is attached then, if target is a
+     * MemoryContext.
+     * @throws NotContextException if a context of the namespace is bound to an object in target.
+     */
+    public void attachTo(@NotNull Context target) throws NamingException {
+        attachTo(target, false);
+    }
+
+    /**
+     * Like {@link #attachTo(Context)}, but a name bound in both keeps the binding in target and an error is logged.
+     * E. g. for a resource found more than once on the classpath, where the first one wins.
+     */
+    public void attachKeepingExisting(@NotNull Context target) throws NamingException {
+        attachTo(target, true);
+    }
+
+    private void attachTo(Context target, boolean keepExisting) throws NamingException {
+        if (target instanceof MemoryContext) {
+            final NamespaceBatch batch = ((MemoryContext) target).batch();
+            stage(batch, target.getNameParser("").parse(""), keepExisting);
+            batch.commit();
+        }
+        else {
+            merge(target, keepExisting);
+        }
+    }
+
+    private void stage(NamespaceBatch batch, Name path, boolean keepExisting) throws NamingException {
+        for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+            final Name name = ((Name) path.clone()).add(name(binding.getKey()));
+            if (binding.getValue() instanceof DetachedNamespace) {
+                batch.mergeSubcontext(name);
+                ((DetachedNamespace) binding.getValue()).stage(batch, name, keepExisting);
+            }
+            else if (keepExisting) {
+                batch.bindIfAbsent(name, binding.getValue());
+            }
+            else {
+                batch.bind(name, binding.getValue());
+            }
+        }
+    }
+
+    private void merge(Context target, boolean keepExisting) throws NamingException {
+        for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+            final Name name = target.getNameParser("").parse("").add(name(binding.getKey()));
+            if (binding.getValue() instanceof DetachedNamespace) {
+                Object existing;
+                try {
+                    existing = target.lookup(name);
+                }
+                catch (NameNotFoundException e) {
+                    existing = target.createSubcontext(name);
+                }
+                if (!(existing instanceof Context)) {
+                    throw new NotContextException("Can not create context " + name + ": Name already bound to an object in "
+                            + target.getNameInNamespace());
+                }
+                ((DetachedNamespace) binding.getValue()).merge((Context) existing, keepExisting);
+            }
+            else {
+                try {
+                    target.bind(name, binding.getValue());
+                }
+                catch (NameAlreadyBoundException e) {
+                    if (!keepExisting) {
+                        throw e;
+                    }
+                    LOGGER.error("Can not bind {}: Name already bound in {}.", name, target.getNameInNamespace());
+                }
+            }
+        }
+    }
+
+    /**
+     * For {@link JndiLoader#createSubContexts(Name, Context)}: Without a NameNotFoundException for a missing
+     * subcontext.
+     *
+     * @return The subcontext bound to the atomic name objName, created if not bound yet. Otherwise the object bound.
+     */
+    @NotNull
+    Object subcontext(@NotNull String objName) throws InvalidNameException {
+        Object bound = get(objName);
+        if (bound == null && !isBound(objName)) {
+            bound = newSubcontext(objName);
+            put(objName, bound);
+        }
+        return bound;
+    }
+
+    /**
+     * @return objName as key of {@link #bindings}, folded like by {@link MemoryContext}.
+     */
+    private String key(String objName) {
+        if (trimBlanks) {
+            objName = objName.trim();
+        }
+        if (ignoreCase) {
+            objName = objName.toLowerCase(Locale.ENGLISH);
+        }
+        return objName;
+    }
+
+    /**
+     * @return The name key was bound as.
+     */
+    private String name(String key) {
+        final String name = names.get(key);
+        return name != null ? name : key;
+    }
+
+    private boolean isBound(String objName) {
+        return bindings.containsKey(key(objName));
+    }
+
+    private Object get(String objName) {
+        return bindings.get(key(objName));
+    }
+
+    private void put(String objName, Object object) {
+        final String key = key(objName);
+        bindings.put(key, object);
+        if (key.equals(objName)) {
+            names.remove(key);
+        }
+        else {
+            names.put(key, objName);
+        }
+    }
+
+    private void remove(String objName) {
+        final String key = key(objName);
+        bindings.remove(key);
+        names.remove(key);
+    }
+
+    /**
+     * @return The bindings by the names they were bound as.
+     */
+    private Map<String, Object> named() {
+        if (names.isEmpty()) {
+            return bindings;
+        }
+        final Map<String, Object> named = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+            named.put(name(binding.getKey()), binding.getValue());
+        }
+        return named;
+    }
+
+    private DetachedNamespace newSubcontext(String objName) throws InvalidNameException {
+        return new DetachedNamespace(parser, environment, ((Name) nameInNamespace.clone()).add(objName));
+    }
+
+    /**
+     * @return The context name is bound in. null: A context on the way is missing or an object.
+     */
+    @Nullable
+    private DetachedNamespace parent(Name name) {
+        DetachedNamespace context = this;
+        for (int i = 0; i < name.size() - 1; i++) {
+            final Object bound = context.get(name.get(i));
+            if (!(bound instanceof DetachedNamespace)) {
+                return null;
+            }
+            context = (DetachedNamespace) bound;
+        }
+        return context;
+    }
+
+    private DetachedNamespace existingParent(Name name) throws NamingException {
+        if (name.isEmpty()) {
+            throw new InvalidNameException("Cannot bind to an empty name.");
+        }
+        final DetachedNamespace parent = parent(name);
+        if (parent == null) {
+            throw new NameNotFoundException(name.getPrefix(name.size() - 1) + " not found in " + nameInNamespace);
+        }
+        return parent;
+    }
+
+    @Override
+    public Object lookup(Name name) throws NamingException {
+        if (name.isEmpty()) {
+            return this;
+        }
+        final DetachedNamespace parent = parent(name);
+        final String objName = name.get(name.size() - 1);
+        if (parent == null || !parent.isBound(objName)) {
+            throw new NameNotFoundException(name + " not found in " + nameInNamespace);
+        }
+        return parent.get(objName);
+    }
+
+    @Override
+    public Object lookup(String name) throws NamingException {
+        return lookup(parser.parse(name));
+    }
+
+    @Override
+    public void bind(Name name, Object obj) throws NamingException {
+        final DetachedNamespace parent = existingParent(name);
+        final String objName = name.get(name.size() - 1);
+        if (parent.isBound(objName)) {
+            LOGGER.error("bind() {} already bound in {}", name, nameInNamespace);
+            throw new NameAlreadyBoundException("Name " + name + " already bound.  Use rebind() to override");
+        }
+        parent.put(objName, obj);
+    }
+
+    @Override
+    public void bind(String name, Object obj) throws NamingException {
+        bind(parser.parse(name), obj);
+    }
+
+    @Override
+    public void rebind(Name name, Object obj) throws NamingException {
+        existingParent(name).put(name.get(name.size() - 1), obj);
+    }
+
+    @Override
+    public void rebind(String name, Object obj) throws NamingException {
+        rebind(parser.parse(name), obj);
+    }
+
+    @Override
+    public void unbind(Name name) throws NamingException {
+        existingParent(name).remove(name.get(name.size() - 1));
+    }
+
+    @Override
+    public void unbind(String name) throws NamingException {
+        unbind(parser.parse(name));
+    }
+
+    @Override
+    public Context createSubcontext(Name name) throws NamingException {
+        final DetachedNamespace parent = existingParent(name);
+        final String objName = name.get(name.size() - 1);
+        if (parent.isBound(objName)) {
+            throw new NameAlreadyBoundException("Name " + name + " already bound.  Use rebind() to override");
+        }
+        final DetachedNamespace subcontext = parent.newSubcontext(objName);
+        parent.put(objName, subcontext);
+        return subcontext;
+    }
+
+    @Override
+    public Context createSubcontext(String name) throws NamingException {
+        return createSubcontext(parser.parse(name));
+    }
+
+    @Override
+    public void destroySubcontext(Name name) throws NamingException {
+        final DetachedNamespace parent = existingParent(name);
+        final Object bound = parent.get(name.get(name.size() - 1));
+        if (bound != null && !(bound instanceof DetachedNamespace)) {
+            throw new NotContextException(name + " is not a context");
+        }
+        parent.remove(name.get(name.size() - 1));
+    }
+
+    @Override
+    public void destroySubcontext(String name) throws NamingException {
+        destroySubcontext(parser.parse(name));
+    }
+
+    @Override
+    public void rename(Name oldName, Name newName) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    @Override
+    public void rename(String oldName, String newName) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public NamingEnumeration<NameClassPair> list(Name name) throws NamingException {
+        return new ContextNames(context(name).named());
+    }
+
+    @Override
+    public NamingEnumeration<NameClassPair> list(String name) throws NamingException {
+        return list(parser.parse(name));
+    }
+
+    /**
+     * Enumerates the objects as bound, e. g. References not resolved.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public NamingEnumeration<Binding> listBindings(Name name) throws NamingException {
+        return new ContextBindings(context(name).named());
+    }
+
+    @Override
+    public NamingEnumeration<Binding> listBindings(String name) throws NamingException {
+        return listBindings(parser.parse(name));
+    }
+
+    private DetachedNamespace context(Name name) throws NamingException {
+        final Object context = lookup(name);
+        if (!(context instanceof DetachedNamespace)) {
+            throw new NotContextException(name + " cannot be listed");
+        }
+        return (DetachedNamespace) context;
+    }
+
+    @Override
+    public Object lookupLink(Name name) throws NamingException {
+        return lookup(name);
+    }
+
+    @Override
+    public Object lookupLink(String name) throws NamingException {
+        return lookup(name);
+    }
+
+    @Override
+    public NameParser getNameParser(Name name) {
+        return parser;
+    }
+
+    @Override
+    public NameParser getNameParser(String name) {
+        return parser;
+    }
+
+    @Override
+    public Name composeName(Name name, Name prefix) throws NamingException {
+        return ((Name) prefix.clone()).addAll(name);
+    }
+
+    @Override
+    public String composeName(String name, String prefix) throws NamingException {
+        return composeName(parser.parse(name), parser.parse(prefix)).toString();
+    }
+
+    @Override
+    public Object addToEnvironment(String propName, Object propVal) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    @Override
+    public Object removeFromEnvironment(String propName) throws NamingException {
+        throw new OperationNotSupportedException();
+    }
+
+    @Override
+    public Hashtable<?, ?> getEnvironment() {
+        return (Hashtable<?, ?>) environment.clone();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getNameInNamespace() {
+        return nameInNamespace.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "DetachedNamespace " + nameInNamespace + " " + named().keySet();
+    }
+}
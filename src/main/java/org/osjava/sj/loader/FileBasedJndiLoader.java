@@ -8,7 +8,6 @@ import org.slf4j.LoggerFactory;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Hashtable;
 import java.util.Properties;
@@ -136,11 +135,11 @@ public class FileBasedJndiLoader extends JndiLoader {
             properties = new CustomSJProperties();
         }
 
-        properties.setDelimiter( (String) environment.get(DELIMITER) );
+        properties.setDelimiter(getSeparator());
+        properties.setSubstitution(getSubstitution());
 
-        try (FileInputStream stream = new FileInputStream(file)) {
-            properties.load(stream);
-            return properties;
-        }
+        properties.setCharset(getCharset());
+        properties.load(file.toPath());
+        return properties;
     }
 }
@@ -35,7 +35,7 @@ package org.osjava.sj.loader;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 
 
 /**
@@ -43,7 +43,8 @@ import java.io.InputStreamReader;
  * comments and an order, IniSJProperties reads .ini files. These
  * implicitly have a two level dotted notation, though any values
  * not in the two level are treated as simple one levels.
- * Comments are a semi-colon.
+ * Comments are a semi-colon. Read with the platform's default charset unless set otherwise, see
+ * {@link #setCharset(java.nio.charset.Charset)}.
  */
 public class IniSJProperties extends SJProperties {
 
@@ -52,51 +53,45 @@ public class IniSJProperties extends SJProperties {
      */
     @Override
     public synchronized void load(InputStream in) throws IOException {
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-            String line = "";
-            String block = "";
-            while ((line = reader.readLine()) != null) {
+        final BufferedReader reader = new BufferedReader(ParserInput.reader(in, getCharset(Charset.defaultCharset())));
+        String line;
+        String block = "";
+        while ((line = reader.readLine()) != null) {
 
-                line = line.trim();   // important?? bad??
+            line = line.trim();   // important?? bad??
 
-                // handle blocks
-                if (line.startsWith("[") && line.endsWith("]")) {
-                    block = line.substring(1, line.length() - 1);
-                }
+            // handle blocks
+            if (line.length() >= 2 && line.startsWith("[") && line.endsWith("]")) {
+                block = line.substring(1, line.length() - 1);
+            }
 
-                int idx = line.indexOf(';');
-                // remove comment
-                if (idx != -1) {
-                    line = line.substring(0, idx);
-                }
+            int idx = line.indexOf(';');
+            // remove comment
+            if (idx != -1) {
+                line = line.substring(0, idx);
+            }
 
-                // split equals sign
-                idx = line.indexOf('=');
-                if (idx != -1) {
-                    String value = line.substring(idx + 1);
-                    // Quoted values[edit]
-                    // Some implementations allow values to be quoted, typically using
-                    // double quotes and/or apostrophes. This allows for explicit declaration
-                    // of whitespace, and/or for quoting of special characters (equals,
-                    // semicolon, etc.). The standard Windows function GetPrivateProfileString
-                    // supports this, and will remove quotation marks that surround the values.
-                    // https://en.wikipedia.org/wiki/INI_file
-                    if ("".equals(block)) {
-                        setProperty(line.substring(0, idx), value);
-                    }
-                    else {
-                        setProperty(block + getDelimiter() + line.substring(0, idx), value);
-                    }
+            // split equals sign
+            idx = line.indexOf('=');
+            if (idx != -1) {
+                String value = line.substring(idx + 1);
+                // Quoted values[edit]
+                // Some implementations allow values to be quoted, typically using
+                // double quotes and/or apostrophes. This allows for explicit declaration
+                // of whitespace, and/or for quoting of special characters (equals,
+                // semicolon, etc.). The standard Windows function GetPrivateProfileString
+                // supports this, and will remove quotation marks that surround the values.
+                // https://en.wikipedia.org/wiki/INI_file
+                if ("".equals(block)) {
+                    setProperty(line.substring(0, idx), value);
                 }
                 else {
-                    // Blank line, or just a bad line. We ignore it
+                    setProperty(block + getDelimiter() + line.substring(0, idx), value);
                 }
             }
-            reader.close();
-        }
-        catch (IOException ioe) {
-            ioe.printStackTrace();
+            else {
+                // Blank line, or just a bad line. We ignore it
+            }
         }
     }
 
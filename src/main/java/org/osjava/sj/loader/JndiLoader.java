@@ -44,25 +44,39 @@ import org.slf4j.LoggerFactory;
 
 import javax.naming.*;
 import java.io.File;
+import java.nio.charset.Charset;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  *
  */
 public class JndiLoader {
 
+    /**
+     * Separates the names of contexts in property keys, e. g. "." in "my.ctx.object". One character is taken literally.
+     * More characters are a regular expression, e. g. "\.|/" to accept "my.ctx.object" as well as "my/ctx/object". Then
+     * set jndi.syntax.separator to the separator for lookups, e. g. "/", if the expression does not match itself.
+     */
     public static final String DELIMITER = "org.osjava.sj.delimiter";
 
     /** char(s) to replace with ":" in filenames and directories. Siehe {@link #handleColonReplacement(String)}*/
     public static final String COLON_REPLACE = "org.osjava.sj.colon.replace";
+    /**
+     * Charset of .properties and .ini files, e. g. "UTF-8". Default: ISO-8859-1 for .properties, the platform's default
+     * charset for .ini files.
+     * A byte order mark overrides it. .xml files declare their encoding themselves.
+     */
+    public static final String CHARSET = "org.osjava.sj.charset";
     private static final Properties EMPTY_PROPERTIES = new Properties();
 
     private static ConverterRegistry converterRegistry = new ConverterRegistry();
-    private final Properties envAsProperties;
+    private final KeyClassifier keys;
 
     Hashtable environment = new Hashtable();
+    /* true: Bind typed values as References converted on first lookup. See DeferredConversionFactory. */
+    boolean deferConversion;
+    /* Created with the first file parsed. */
+    private VariableSubstitution substitution;
     private Logger LOGGER = LoggerFactory.getLogger(this.getClass());
     public static final String FILENAME_TO_CONTEXT = "org.osjava.sj.filenameToContext";
 
@@ -76,22 +90,42 @@ public class JndiLoader {
             LOGGER.warn("jndi.syntax.direction not set. Setting to \"left_to_right\"");
             environment.put("jndi.syntax.direction", "left_to_right");
         }
-        Properties props = new Properties();
-        props.putAll(environment);
-        envAsProperties = props;
+        keys = new KeyClassifier((String) environment.get(DELIMITER), (String) environment.get("jndi.syntax.separator"));
+    }
+
+    /**
+     * @param deferConversion true: Bind typed values, e. g. DataSources and beans, as References converted on first
+     * lookup, so that every copy of a context creates its own instances. See {@link DeferredConversionFactory}.
+     */
+    public void setDeferConversion(boolean deferConversion) {
+        this.deferConversion = deferConversion;
+    }
+
+    /**
+     * @return See {@link #CHARSET}. null: The default of the file format.
+     */
+    @Nullable
+    Charset getCharset() {
+        final Object charset = environment.get(CHARSET);
+        return charset != null ? Charset.forName(charset.toString()) : null;
+    }
+
+    /**
+     * @return The substitution of variables in all files this loader parses. See {@link VariableSubstitution}.
+     */
+    synchronized VariableSubstitution getSubstitution() {
+        if (substitution == null) {
+            substitution = VariableSubstitution.snapshot(environment);
+        }
+        return substitution;
     }
 
     /**
      * For example a DataSource definition file with properties without namespace, e. g. "type=javax.sql.DataSource" instead of "Sybase/type=javax.sql.DataSource".
      */
     boolean isNotNamespacedTypeDefinition(Properties properties) {
-        for (Object k : properties.keySet()) {
-            String key = (String) k;
-            if (key.equals("type")) {
-                return true;
-            }
-        }
-        return false;
+        // A hash lookup instead of a scan over all keys. Like keySet() it does not consider defaults.
+        return properties.containsKey("type");
     }
 
     /**
@@ -119,54 +153,59 @@ public class JndiLoader {
 
         // NOTE: "type" effectively turns on pseudo-nodes; if it isn't there then other pseudo-nodes will result in re-bind errors.
 
-        Map typeMap = extractTypedProperties(properties);
-        Iterator iterator;
+        // Every key is classified once: Type declarations ("type", "foo.type") open a typed group (typeMap): {foo: {type: typeValue}}. All other keys are kept in file order, because a type declaration following them may still claim them for its group.
+        Map<String, Properties> typeMap = new HashMap<String, Properties>();
+        List<KeyClassifier.Key> valueKeys = new ArrayList<KeyClassifier.Key>(properties.size());
+        for (Object k : properties.keySet()) {
+            final KeyClassifier.Key key = keys.classify((String) k);
+            if (!addTypeDeclaration(typeMap, key, properties.get(k))) {
+                valueKeys.add(key);
+            }
+        }
+        // The contexts of this load by context path. Keys of a file mostly share a few contexts.
+        final Map<String, Context> contexts = new HashMap<String, Context>();
 
         // If it matches a type root, then it should be added to the properties. If not, then it should be placed in the context (jndiPut()).
         // For each type properties call convert: pass a Properties in that contains everything starting with foo, but without the foo.
         // Put objects in context.
-        iterator = properties.keySet().iterator();
-        while(iterator.hasNext()) {
-            String key = (String) iterator.next();
-            Object value = properties.get(key);
-            final String delimiter = extractDelimiter(key);
-            if (!key.equals("type") && extractTypeDeclaration(key) == null) {
-                if (typeMap.containsKey("datasourceOrBeanProperty")) {
-                    // files with a property named "type" without a namespace in the name.
-                    ((Properties) typeMap.get("datasourceOrBeanProperty")).put(key, value);
-                }
-                else if(typeMap.containsKey(key)) {
-                    // Reached only by keys with basic type declarations like type=java.lang.Integer.
-                    // Gets processed by a converter.
-                    ((Properties) typeMap.get(key)).put("valueToConvert", value);
-                }
-                else if(delimiter != null) {
-                    String pathText = removeLastElement(key, delimiter);
-                    String nodeText = getLastElement(key, delimiter);
-                    if(typeMap.containsKey(pathText)) {
-                        ((Properties) typeMap.get(pathText)).put(nodeText, value);
-                    }
-                    else {
-                        jndiPut(subContext, key, value);
-                    }
-                }
-                else {
-                    jndiPut(subContext, key, value);
-                }
+        // Files with a property named "type" without a namespace in the name.
+        final Properties datasourceOrBeanProperties = typeMap.get("datasourceOrBeanProperty");
+        for (KeyClassifier.Key key : valueKeys) {
+            Object value = properties.get(key.key);
+            if (datasourceOrBeanProperties != null) {
+                datasourceOrBeanProperties.put(key.key, value);
+                continue;
+            }
+            final Properties typeProperties = typeMap.get(key.name);
+            if (typeProperties != null) {
+                // Reached only by keys with basic type declarations like type=java.lang.Integer.
+                // Gets processed by a converter.
+                typeProperties.put("valueToConvert", value);
+                continue;
+            }
+            final String pathText = key.contextPath();
+            final Properties pathProperties = pathText != null ? typeMap.get(pathText) : null;
+            if(pathProperties != null) {
+                pathProperties.put(key.objectName(), value);
+            }
+            else {
+                jndiPut(subContext, key, value, contexts);
             }
         }
 
-        for (Object key : typeMap.keySet()) {
-            String typeKey = (String) key;
-            Properties typeProperties = (Properties) typeMap.get(typeKey);
-            Object value = convert(typeProperties);
+        for (Map.Entry<String, Properties> entry : typeMap.entrySet()) {
+            String typeKey = entry.getKey();
+            Properties typeProperties = entry.getValue();
+            Object value = deferConversion && !typeProperties.containsKey("javaxNamingSpiObjectFactory")
+                    ? DeferredConversionFactory.toReference(typeProperties)
+                    : convert(typeProperties);
             if (typeKey.equals("datasourceOrBeanProperty")) {
                 // Reached only by datasource and bean declarations? Yes, but not always! Not from org.osjava.sj.memory.JndiLoaderTest.testBeanConverter(). testBeanConverter() enters the "else" branch.  Not reached, when the attributes are prefixed with a namespace as in roots/datasource/ds.properties (used in SimpleJndiNewTest.sharedContextWithDataSource2MatchingDelimiter()).
                 // rebind(): For every file there is already a context created and bound under the file's name. In case of bean or datasource declarations the binding must not be a context but the value (the bean, the datasource) itself. This is true as long as the datasource or bean properties are not namespaced. Then the "else" branch is executed.
                 parentCtxt.rebind(subName, value);
             }
             else {
-                jndiPut(subContext, typeKey, value);
+                jndiPut(subContext, keys.classify(typeKey), value, contexts);
             }
         }
 
@@ -178,29 +217,34 @@ public class JndiLoader {
      */
     @NotNull
     Map<String, Properties> extractTypedProperties(Properties properties) throws InvalidNameException {
-        Map typeMap = new HashMap<String, Properties>();
-        Iterator iterator = properties.keySet().iterator();
-        while(iterator.hasNext()) {
-            String key = (String) iterator.next();
-            final String type = extractTypeDeclaration(key);
-            // key.equals("type"): type attribute without namespace
-            // type != null: type attribute prefixed with namespace, e.g. "Sybase/type"
-            if(key.equals("type") || type != null) {
-                Properties props = new Properties();
-                props.put("type", properties.get(key));
-                if(key.equals("type")) {
-                    // Reached only by datasource and bean declarations? Yes, but not always! Not from org.osjava.sj.memory.JndiLoaderTest.testBeanConverter(). testBeanConverter() enters the "else" branch. Not reached, when the attributes are prefixed with a namespace as in roots/datasource/ds.properties (used in SimpleJndiNewTest.sharedContextWithDataSource2MatchingDelimiter()).
-                    typeMap.put("datasourceOrBeanProperty", props);
-                }
-                else {
-                    final String keyWithoutType = key.substring(0, key.length() - type.length() - 1);
-                    typeMap.put(keyWithoutType, props);
-                }
-            }
+        Map<String, Properties> typeMap = new HashMap<String, Properties>();
+        for (Object k : properties.keySet()) {
+            addTypeDeclaration(typeMap, keys.classify((String) k), properties.get(k));
         }
         return typeMap;
     }
 
+    /**
+     * @return false: key is not a type declaration and was not added to typeMap.
+     */
+    private boolean addTypeDeclaration(Map<String, Properties> typeMap, KeyClassifier.Key key, Object value) {
+        // key.equals("type"): type attribute without namespace
+        // Otherwise type attribute prefixed with namespace, e.g. "Sybase/type".
+        Properties props = new Properties();
+        if(key.key.equals("type")) {
+            // Reached only by datasource and bean declarations? Yes, but not always! Not from org.osjava.sj.memory.JndiLoaderTest.testBeanConverter(). testBeanConverter() enters the "else" branch. Not reached, when the attributes are prefixed with a namespace as in roots/datasource/ds.properties (used in SimpleJndiNewTest.sharedContextWithDataSource2MatchingDelimiter()).
+            props.put("type", value);
+            typeMap.put("datasourceOrBeanProperty", props);
+            return true;
+        }
+        if (!key.isTypeDeclaration()) {
+            return false;
+        }
+        props.put("type", value);
+        typeMap.put(key.contextPath(), props);
+        return true;
+    }
+
     private void processTypedProperty(Properties properties, Context subContext, String subName) throws NamingException {
         // IMPROVE Hier müssen irgendwie DataSource definitions unterschieden werden von basic type definitions mit unterschiedlich tief verschachtelten namespaces.
         // DataSource and beans without namespaced attributes
@@ -230,7 +274,7 @@ public class JndiLoader {
                 String value = (String) properties.get(key);
                 notNamespacedKeys.put(key, value);
             }
-            jndiPut(deepestCtx, objName.toString(), convert(notNamespacedKeys));
+            jndiPut(deepestCtx, keys.classify(objName.toString()), convert(notNamespacedKeys), new HashMap<String, Context>());
         }
         else {
             throw new RuntimeException("Not implemented yet.");
@@ -286,11 +330,8 @@ public class JndiLoader {
      */
     @Nullable
     Name extractContextName(String path) throws InvalidNameException {
-        CompoundName name = toCompoundName(path);
-        Name nameWithoutObjectName = name.size() > 1
-                ? name.getPrefix(name.size() - 1)
-                : null;
-        return nameWithoutObjectName;
+        final KeyClassifier.Key key = keys.classify(path);
+        return key.isNamespaced() ? keys.toName(key, 0, key.segments.length - 1) : null;
     }
 
     /**
@@ -299,9 +340,8 @@ public class JndiLoader {
      * @return Either the single component or the last component in a several component path.
      */
     @NotNull
-    String extractObjectName(String path) throws InvalidNameException {
-        CompoundName name = toCompoundName(path);
-        return name.getSuffix(name.size() > 1 ? name.size() - 1 : 0).toString();
+    String extractObjectName(String path) {
+        return keys.classify(path).objectName();
     }
 
     /**
@@ -309,49 +349,33 @@ public class JndiLoader {
      */
     @NotNull
     CompoundName toCompoundName(@NotNull String path) throws InvalidNameException {
-        return JndiUtils.toCompoundName(path, envAsProperties);
-    }
-
-    /**
-     * Incompletely implemented: Let DELIMITER be a regular expression, e.g. "\.|\/".
-     *
-     * @return delimiter "." or "/" or whatever is found by {@link #DELIMITER}.
-     */
-    private String extractDelimiter(String key) {
-        String delimiter = (String) environment.get(DELIMITER);
-        if (delimiter.length() == 1) { // be downwards compatible
-            delimiter = delimiter.replace(".", "\\.");
-        }
-        // IMPROVE Compile once
-        final Pattern pattern = Pattern.compile("^.+(" + delimiter + ").+");
-        final Matcher matcher = pattern.matcher(key);
-        if (matcher.find()) {
-            return matcher.group(1);
-        }
-        return null;
+        final KeyClassifier.Key key = keys.classify(path);
+        return keys.toName(key, 0, key.segments.length);
     }
 
     /**
-     *
-     * @return "type" | null
+     * @return The separator to join names with, e. g. the block and the key of a .ini file. See {@link #DELIMITER}.
      */
-    @Nullable
-    private String extractTypeDeclaration(@NotNull String key) throws InvalidNameException {
-        String objName = extractObjectName(key);
-        return objName.equals("type") ? objName : null;
+    @NotNull
+    String getSeparator() {
+        return keys.getSeparator();
     }
 
     /**
      * Creates contexts defined by namespaced property names, e.g. "my.namespaced.object=...". The last part (here "object") is the name under which the value is bound.
      */
-    private void jndiPut(Context ctxt, String key, Object value) throws NamingException {
-        Name name = extractContextName(key);
-        if (name != null) {
-            Context deepestCtx = createSubContexts(name, ctxt);
-            deepestCtx.bind(extractObjectName(key), value);
+    private void jndiPut(Context ctxt, KeyClassifier.Key key, Object value, Map<String, Context> contexts) throws NamingException {
+        if (key.isNamespaced()) {
+            final String contextPath = key.contextPath();
+            Context deepestCtx = contexts.get(contextPath);
+            if (deepestCtx == null) {
+                deepestCtx = createSubContexts(keys.toName(key, 0, key.segments.length - 1), ctxt);
+                contexts.put(contextPath, deepestCtx);
+            }
+            deepestCtx.bind(key.objectName(), value);
         }
         else {
-            ctxt.bind(toCompoundName(key), value);
+            ctxt.bind(keys.toName(key, 0, key.segments.length), value);
         }
     }
 
@@ -364,7 +388,10 @@ public class JndiLoader {
         for(int i=0; i < name.size(); i++) {
             Object obj;
             try {
-                obj = currentCtx.lookup(name.get(i));
+                // A DetachedNamespace creates missing subcontexts without a NameNotFoundException.
+                obj = currentCtx instanceof DetachedNamespace
+                        ? ((DetachedNamespace) currentCtx).subcontext(name.get(i))
+                        : currentCtx.lookup(name.get(i));
                 if (obj instanceof Context) {
                     currentCtx = (Context) obj;
                 }
@@ -382,7 +409,7 @@ public class JndiLoader {
     }
 
     @Nullable
-    private Object convert(Properties properties) {
+    Object convert(Properties properties) {
         String type = properties.getProperty("type");
         Object obj = properties.get("valueToConvert");
 
@@ -460,15 +487,6 @@ public class JndiLoader {
         return obj;
     }
 
-    private static String getLastElement( String str, String delimiter ) {
-        int idx = str.lastIndexOf(delimiter);
-        return str.substring(idx + 1);
-    }
-    private static String removeLastElement( String str, String delimiter ) {
-        int idx = str.lastIndexOf(delimiter);
-        return str.substring(0, idx);
-    }
-
     /**
      * @return true: .properties, .ini, .xml file.
      */
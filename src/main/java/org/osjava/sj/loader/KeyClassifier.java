@@ -0,0 +1,195 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osjava.sj.jndi.JndiUtils;
+
+import javax.naming.CompoundName;
+import javax.naming.InvalidNameException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits property keys by {@link JndiLoader#DELIMITER} into the names of the contexts and the name of the object, once
+ * per key. Created once per loader.
+ * <p>
+ * A delimiter of one character is taken literally. A longer delimiter is a regular expression, e. g. "\.|/" to accept
+ * "a.b" as well as "a/b", see {@link JndiUtils#delimiterPattern(String)}. A delimiter without special characters,
+ * e. g. "::", therefore is taken literally too.
+ * <p>
+ * Splits like a {@link CompoundName} with the delimiter as separator would, empty components included.
+ */
+final class KeyClassifier {
+
+    private final String delimiter;
+    /* null: delimiter is a single char. */
+    @Nullable
+    private final Pattern pattern;
+    private final String separator;
+    private final Properties syntax;
+
+    /**
+     * @param delimiter See {@link JndiLoader#DELIMITER}.
+     * @param lookupSeparator jndi.syntax.separator. Used to join keys, if delimiter is a regular expression, that does
+     * not match itself.
+     */
+    KeyClassifier(@NotNull String delimiter, @Nullable String lookupSeparator) {
+        this.delimiter = delimiter;
+        pattern = JndiUtils.delimiterPattern(delimiter);
+        if (pattern == null || pattern.matcher(delimiter).matches()) {
+            separator = delimiter;
+        }
+        else if (lookupSeparator != null && pattern.matcher(lookupSeparator).matches()) {
+            separator = lookupSeparator;
+        }
+        else {
+            throw new IllegalArgumentException("Set jndi.syntax.separator to a separator matching " + JndiLoader.DELIMITER
+                    + " " + delimiter);
+        }
+        syntax = new Properties();
+        syntax.setProperty("jndi.syntax.separator", separator);
+        syntax.setProperty("jndi.syntax.direction", "left_to_right");
+    }
+
+    /**
+     * @return The delimiter, if it is not a regular expression. Otherwise a separator matching it. To join names, e. g.
+     * the block and key of a .ini file.
+     */
+    @NotNull
+    String getSeparator() {
+        return separator;
+    }
+
+    @NotNull
+    Key classify(@NotNull String key) {
+        final List<String> segments = new ArrayList<String>(4);
+        // Start of the last delimiter and of the one before.
+        int contextPathEnd = -1;
+        int previous = -1;
+        final int length = key.length();
+        int from = 0;
+        final Matcher matcher = pattern != null ? pattern.matcher(key) : null;
+        while (length > 0) {
+            final int start;
+            final int end;
+            if (matcher == null) {
+                start = key.indexOf(delimiter.charAt(0), from);
+                end = start + 1;
+            }
+            else if (matcher.find(from)) {
+                start = matcher.start();
+                end = matcher.end();
+            }
+            else {
+                start = -1;
+                end = -1;
+            }
+            if (start < 0) {
+                segments.add(key.substring(from));
+                break;
+            }
+            segments.add(key.substring(from, start));
+            previous = contextPathEnd;
+            contextPathEnd = start;
+            from = end;
+            if (from == length) {
+                // As CompoundName: A trailing delimiter adds an empty component, unless all components are empty.
+                if (allEmpty(segments)) {
+                    contextPathEnd = previous;
+                }
+                else {
+                    segments.add("");
+                }
+                break;
+            }
+        }
+        if (segments.size() < 2) {
+            contextPathEnd = -1;
+        }
+        if (matcher == null || segments.size() < 2) {
+            return new Key(key, key, segments.toArray(new String[segments.size()]), contextPathEnd);
+        }
+        // "a.b/c" as "a/b/c", so that keys differing only in the delimiters matched name the same object.
+        final StringBuilder name = new StringBuilder(key.length());
+        for (int i = 0; i < segments.size(); i++) {
+            if (i > 0) {
+                name.append(separator);
+            }
+            name.append(segments.get(i));
+        }
+        return new Key(key, name.toString(), segments.toArray(new String[segments.size()]),
+                name.length() - segments.get(segments.size() - 1).length() - separator.length());
+    }
+
+    private static boolean allEmpty(List<String> segments) {
+        for (String segment : segments) {
+            if (!segment.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A name of the components [from, to) of key.
+     */
+    @NotNull
+    CompoundName toName(@NotNull Key key, int from, int to) throws InvalidNameException {
+        final CompoundName name = new CompoundName("", syntax);
+        for (int i = from; i < to; i++) {
+            name.add(key.segments[i]);
+        }
+        return name;
+    }
+
+    /**
+     * A key split into its components.
+     */
+    static final class Key {
+        /* As in the file. */
+        final String key;
+        /* key with the separator between all components. */
+        final String name;
+        final String[] segments;
+        /* Index in name of the separator before the object name. -1: Not namespaced. */
+        private final int contextPathEnd;
+
+        Key(String key, String name, String[] segments, int contextPathEnd) {
+            this.key = key;
+            this.name = name;
+            this.segments = segments;
+            this.contextPathEnd = contextPathEnd;
+        }
+
+        boolean isNamespaced() {
+            return segments.length > 1;
+        }
+
+        /**
+         * @return The last component, e. g. "object" in "my.ctx.object".
+         */
+        @NotNull
+        String objectName() {
+            return segments.length > 0 ? segments[segments.length - 1] : "";
+        }
+
+        /**
+         * @return The {@link #name} without the object name and the separator before it, e. g. "my.ctx" in
+         * "my.ctx.object". null: Not namespaced.
+         */
+        @Nullable
+        String contextPath() {
+            return contextPathEnd >= 0 ? name.substring(0, contextPathEnd) : null;
+        }
+
+        /**
+         * @return true: A type declaration like "my.ctx.type".
+         */
+        boolean isTypeDeclaration() {
+            return isNamespaced() && "type".equals(objectName());
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What was parsed from the roots, stored in a binary file to load them again without parsing: For each root the
+ * directories and files found and the keys and raw values of every file, including type declarations. Typed values are
+ * converted when they are looked up first, see {@link DeferredConversionFactory}.
+ * <p>
+ * The snapshot is only used, if it was taken from files with the same fingerprint, e. g. a hash over path, size and
+ * modification time of every file. Otherwise the roots are parsed and the snapshot is taken anew. Files with values
+ * depending on system properties or environment variables are always parsed.
+ * <p>
+ * The file is memory-mapped when read. Its format is an implementation detail and may change with any release: A
+ * snapshot written by another version is considered stale.
+ */
+public final class NamespaceSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NamespaceSnapshot.class);
+    /* "SJNS" */
+    private static final int MAGIC = 0x534a4e53;
+    private static final int VERSION = 1;
+    private static final byte PROPERTIES = 0;
+    private static final byte PARSE = 1;
+    private static final byte STRING = 0;
+    private static final byte LIST = 1;
+
+    private final long fingerprint;
+    private final String settings;
+    /* By absolute path of the root. */
+    private final Map<String, Root> roots = new ConcurrentHashMap<String, Root>();
+    private volatile boolean modified;
+
+    private NamespaceSnapshot(long fingerprint, String settings) {
+        this.fingerprint = fingerprint;
+        this.settings = settings;
+    }
+
+    /**
+     * @param fingerprint Identifies the content of the roots as it is now.
+     * @param environment The environment the roots are loaded with.
+     * @return The snapshot stored in file, if it is up to date. Otherwise an empty snapshot, that takes a snapshot of
+     * every root loaded through it.
+     */
+    @NotNull
+    public static NamespaceSnapshot open(@NotNull File file, long fingerprint, @NotNull Hashtable<?, ?> environment) {
+        final NamespaceSnapshot snapshot = new NamespaceSnapshot(fingerprint, settings(environment));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != fingerprint
+                    || !snapshot.settings.equals(readString(buffer))) {
+                LOGGER.info("Snapshot {} is stale.", file);
+                return snapshot;
+            }
+            for (int roots = buffer.getInt(); roots > 0; roots--) {
+                final String path = readString(buffer);
+                snapshot.roots.put(path, Root.read(buffer));
+            }
+            LOGGER.debug("Read snapshot {}", file);
+        }
+        catch (NoSuchFileException e) {
+            LOGGER.debug("No snapshot {}", file);
+        }
+        catch (IOException | RuntimeException e) {
+            LOGGER.warn("Can not read snapshot {}", file, e);
+            snapshot.roots.clear();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Only what parsing a file depends on. The names the files are bound under are determined when loading.
+     */
+    private static String settings(Hashtable<?, ?> environment) {
+        return "delimiter=" + environment.get(JndiLoader.DELIMITER) + ",charset=" + environment.get(JndiLoader.CHARSET);
+    }
+
+    /**
+     * Loads a root like {@link NioBasedJndiLoader#load(File, Context, boolean)}. From this snapshot, if it contains
+     * the root. Otherwise the root is parsed and a snapshot of it is taken.
+     */
+    public void load(@NotNull File fileOrDirectory, @NotNull NioBasedJndiLoader loader, @NotNull Context ctxt,
+                     boolean preserveRootFileNameAsContextName) throws NamingException, IOException {
+        fileOrDirectory = new File(fileOrDirectory.getAbsolutePath());
+        final Root root = roots.get(fileOrDirectory.getPath());
+        if (root != null) {
+            final Path rootPath = fileOrDirectory.toPath();
+            final List<NioBasedJndiLoader.Visit> visits = new ArrayList<NioBasedJndiLoader.Visit>(root.kinds.length);
+            for (int i = 0; i < root.kinds.length; i++) {
+                visits.add(new NioBasedJndiLoader.Visit(root.kinds[i], rootPath.resolve(root.paths[i]), null));
+            }
+            final NioBasedJndiLoader.ParsedFiles parsed = new NioBasedJndiLoader.ParsedFiles(visits);
+            for (int i = 0; i < root.properties.size(); i++) {
+                // null: parsed by replay()
+                parsed.results[i] = root.properties.get(i);
+            }
+            final boolean deferConversion = loader.deferConversion;
+            loader.deferConversion = true;
+            try {
+                loader.replay(fileOrDirectory, root.directory, visits, parsed, ctxt, preserveRootFileNameAsContextName);
+            }
+            finally {
+                loader.deferConversion = deferConversion;
+            }
+            return;
+        }
+        final boolean directory = fileOrDirectory.isDirectory();
+        final List<NioBasedJndiLoader.Visit> visits = loader.walk(fileOrDirectory);
+        final NioBasedJndiLoader.ParsedFiles parsed = new NioBasedJndiLoader.ParsedFiles(visits);
+        loader.replay(fileOrDirectory, directory, visits, parsed, ctxt, preserveRootFileNameAsContextName);
+        for (NioBasedJndiLoader.Visit visit : visits) {
+            if (visit.kind == NioBasedJndiLoader.Visit.VISIT_FILE_FAILED) {
+                // Not complete.
+                return;
+            }
+        }
+        roots.put(fileOrDirectory.getPath(), Root.of(fileOrDirectory.toPath(), directory, visits, parsed));
+        modified = true;
+    }
+
+    /**
+     * @return true: A root was loaded, that this snapshot did not contain yet.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Replaces file atomically, if the file system supports it.
+     */
+    public void write(@NotNull File file) throws IOException {
+        final Path target = file.getAbsoluteFile().toPath();
+        final Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint);
+                writeString(out, settings);
+                out.writeInt(roots.size());
+                for (Map.Entry<String, Root> root : roots.entrySet()) {
+                    writeString(out, root.getKey());
+                    root.getValue().write(out);
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            modified = false;
+            LOGGER.debug("Wrote snapshot {}", file);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The walk over a root and the content of each file found, null for files to parse when loading.
+     */
+    private static final class Root {
+        final boolean directory;
+        final int[] kinds;
+        /* Relative to the root. */
+        final String[] paths;
+        final List<Properties> properties;
+
+        Root(boolean directory, int[] kinds, String[] paths, List<Properties> properties) {
+            this.directory = directory;
+            this.kinds = kinds;
+            this.paths = paths;
+            this.properties = properties;
+        }
+
+        static Root of(Path rootPath, boolean directory, List<NioBasedJndiLoader.Visit> visits,
+                       NioBasedJndiLoader.ParsedFiles parsed) {
+            final int[] kinds = new int[visits.size()];
+            final String[] paths = new String[visits.size()];
+            for (int i = 0; i < kinds.length; i++) {
+                kinds[i] = visits.get(i).kind;
+                paths[i] = rootPath.relativize(visits.get(i).path).toString();
+            }
+            final List<Properties> properties = new ArrayList<Properties>(parsed.results.length);
+            for (Object result : parsed.results) {
+                properties.add(isStorable(result) ? (Properties) result : null);
+            }
+            return new Root(directory, kinds, paths, properties);
+        }
+
+        private static boolean isStorable(Object result) {
+            if (!(result instanceof SJProperties) || ((SJProperties) result).isSubstituted()) {
+                return false;
+            }
+            for (Object value : ((Properties) result).values()) {
+                if (value instanceof List) {
+                    for (Object element : (List<?>) value) {
+                        if (!isStorableValue(element)) {
+                            return false;
+                        }
+                    }
+                }
+                else if (!isStorableValue(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return false: Not a String or a variable was left unresolved, which may be set at the next start.
+         */
+        private static boolean isStorableValue(Object value) {
+            return value instanceof String && !((String) value).contains("${");
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(directory);
+            out.writeInt(kinds.length);
+            for (int i = 0; i < kinds.length; i++) {
+                out.writeByte(kinds[i]);
+                writeString(out, paths[i]);
+            }
+            out.writeInt(properties.size());
+            for (Properties file : properties) {
+                if (file == null) {
+                    out.writeByte(PARSE);
+                    continue;
+                }
+                out.writeByte(PROPERTIES);
+                out.writeInt(file.size());
+                for (Object key : file.keySet()) {
+                    writeString(out, (String) key);
+                    final Object value = file.get(key);
+                    if (value instanceof List) {
+                        out.writeByte(LIST);
+                        out.writeInt(((List<?>) value).size());
+                        for (Object element : (List<?>) value) {
+                            writeString(out, (String) element);
+                        }
+                    }
+                    else {
+                        out.writeByte(STRING);
+                        writeString(out, (String) value);
+                    }
+                }
+            }
+        }
+
+        static Root read(ByteBuffer buffer) {
+            final boolean directory = buffer.get() != 0;
+            final int[] kinds = new int[buffer.getInt()];
+            final String[] paths = new String[kinds.length];
+            for (int i = 0; i < kinds.length; i++) {
+                kinds[i] = buffer.get();
+                paths[i] = readString(buffer);
+            }
+            final int files = buffer.getInt();
+            final List<Properties> properties = new ArrayList<Properties>(files);
+            for (int i = 0; i < files; i++) {
+                if (buffer.get() == PARSE) {
+                    properties.add(null);
+                    continue;
+                }
+                // Keeps the order of the keys, as when parsed. The values are stored as parsed, already substituted.
+                final SJProperties file = new SJProperties();
+                for (int keys = buffer.getInt(); keys > 0; keys--) {
+                    final String key = readString(buffer);
+                    if (buffer.get() == LIST) {
+                        final List<String> values = new LinkedList<String>();
+                        for (int size = buffer.getInt(); size > 0; size--) {
+                            values.add(readString(buffer));
+                        }
+                        file.putRaw(key, values);
+                    }
+                    else {
+                        file.putRaw(key, readString(buffer));
+                    }
+                }
+                properties.add(file);
+            }
+            return new Root(directory, kinds, paths, properties);
+        }
+    }
+}
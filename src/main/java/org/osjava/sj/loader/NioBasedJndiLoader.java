@@ -1,10 +1,11 @@
 package org.osjava.sj.loader;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -12,9 +13,16 @@ import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
@@ -31,11 +39,51 @@ import org.slf4j.LoggerFactory;
 public class NioBasedJndiLoader extends JndiLoader {
 
     private static Logger LOGGER = LoggerFactory.getLogger(NioBasedJndiLoader.class);
+    /**
+     * true: Parse the files of a directory on the {@link ForkJoinPool#commonPool()} before binding them. Binding is
+     * still done by the calling thread and in the same order as without this option.
+     */
+    public static final String PARALLEL_PARSE = "org.osjava.sj.parallelParse";
+    /** Number of files a {@link ParseTask} parses itself instead of forking. */
+    private static final int PARSE_THRESHOLD = 8;
+    /* null: Archives are released after each load. Otherwise kept open until releaseArchives(). */
+    private Set<FileSystem> archives;
 
     public NioBasedJndiLoader(final Hashtable env) {
         super(env);
     }
 
+    /**
+     * @param retainArchives true: Keep the archives loaded from open until {@link #releaseArchives()}, e. g. for the
+     * lifetime of the context loaded, so that loading from them again reuses them. false: Release each after loading.
+     */
+    public synchronized void setRetainArchives(boolean retainArchives) {
+        if (!retainArchives) {
+            releaseArchives();
+        }
+        archives = retainArchives ? new HashSet<FileSystem>() : null;
+    }
+
+    /**
+     * Releases the archives retained, see {@link #setRetainArchives(boolean)}. An archive is closed, when no other
+     * loader uses it.
+     */
+    public synchronized void releaseArchives() {
+        if (archives != null) {
+            for (FileSystem archive : archives) {
+                ArchiveFileSystems.release(archive);
+            }
+            archives.clear();
+        }
+    }
+
+    private synchronized void release(FileSystem archive) {
+        // Retained once per loader.
+        if (archives == null || !archives.add(archive)) {
+            ArchiveFileSystems.release(archive);
+        }
+    }
+
     /**
      * @param fileOrDirectory Not a jar file. To load jar files use {@link #loadJar(File, String, Context, boolean)}
      * @param preserveRootFileNameAsContextName true: If fileOrDirectory is a file, the file's name is taken as context name. This rule is only applied to files which are root files. Files found while traversing directories will always result in subcontexts named as the file. The only exception are files named "default".
@@ -56,11 +104,112 @@ public class NioBasedJndiLoader extends JndiLoader {
      * @param rootDir name-separator has to be platform independent always "/"
      * @param preserveFileNameAsContextName Siehe {@link #load(File, Context, boolean)}
      */
-    public void loadJar(File jarFile, String rootDir, Context ctxt, boolean preserveFileNameAsContextName) throws IOException {
-        Path path = Paths.get(jarFile.toURI());
-        try (FileSystem fs = FileSystems.newFileSystem(path,(Map<String,?>)null)) {
-            Files.walkFileTree(fs.getPath(rootDir), new MySimpleFileVisitor(rootDir, ctxt, "", preserveFileNameAsContextName));
+    public void loadJar(File jarFile, String rootDir, Context ctxt, boolean preserveFileNameAsContextName) throws IOException, NamingException {
+        loadArchive(Paths.get(jarFile.toURI()), rootDir, ctxt, preserveFileNameAsContextName);
+    }
+
+    /**
+     * Loads a directory or file in a jar or zip file. The archive is shared with other loads, see
+     * {@link ArchiveFileSystems}, and possibly retained, see {@link #setRetainArchives(boolean)}. If it contains an
+     * {@link ArchiveIndex}, the files listed there are loaded without walking the directories.
+     *
+     * @param rootDir Separated by "/". "/" for the whole archive.
+     * @param preserveFileNameAsContextName See {@link #load(File, Context, boolean)}
+     */
+    public void loadArchive(Path archive, String rootDir, Context ctxt, boolean preserveFileNameAsContextName) throws IOException, NamingException {
+        final FileSystem fileSystem = ArchiveFileSystems.open(archive);
+        try {
+            loadArchive(fileSystem, rootDir, ctxt, preserveFileNameAsContextName);
+        }
+        finally {
+            release(fileSystem);
+        }
+    }
+
+    private void loadArchive(FileSystem archive, String rootDir, Context ctxt, boolean preserveFileNameAsContextName) throws IOException, NamingException {
+        final Path root = archive.getPath("/").resolve(rootDir);
+        List<Visit> visits = ArchiveIndex.visits(archive, rootDir);
+        if (visits == null) {
+            final RecordingFileVisitor recorder = new RecordingFileVisitor();
+            Files.walkFileTree(root, recorder);
+            visits = recorder.visits;
+        }
+        final boolean directory = !visits.isEmpty() && visits.get(0).kind == Visit.PRE_VISIT_DIRECTORY;
+        replay(root, directory, visits, new ParsedFiles(visits), ctxt, preserveFileNameAsContextName);
+    }
+
+    /**
+     * Loads every directory or file named resource on the classpath of classLoader: From directories, jars and
+     * archives nested in jars, e. g. in a Spring Boot jar. Contexts found more than once are merged. Of a name
+     * bound more than once, the binding found first on the classpath wins.
+     *
+     * @param resource Separated by "/", e. g. "roots/jndi".
+     * @param preserveFileNameAsContextName See {@link #load(File, Context, boolean)}
+     */
+    public void loadClasspath(String resource, ClassLoader classLoader, Context ctxt, boolean preserveFileNameAsContextName) throws IOException, NamingException {
+        final Enumeration<URL> urls = classLoader.getResources(StringUtils.strip(resource, "/"));
+        if (!urls.hasMoreElements()) {
+            throw new FileNotFoundException("classpath:" + resource);
+        }
+        while (urls.hasMoreElements()) {
+            final URL url = urls.nextElement();
+            LOGGER.debug("Loading {}", url);
+            final DetachedNamespace namespace = new DetachedNamespace(ctxt);
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    load(new File(url.toURI()), namespace, preserveFileNameAsContextName);
+                }
+                catch (URISyntaxException e) {
+                    throw new IOException("Unable to resolve " + url, e);
+                }
+            }
+            else {
+                final Path entry = ArchiveFileSystems.resolve(url);
+                try {
+                    loadArchive(entry.getFileSystem(), entry.toString(), namespace, preserveFileNameAsContextName);
+                }
+                finally {
+                    release(entry.getFileSystem());
+                }
+            }
+            namespace.attachKeepingExisting(ctxt);
+        }
+    }
+
+    /**
+     * @return true: file is a jar or zip file, to be loaded with {@link #loadArchive(Path, String, Context, boolean)}.
+     */
+    public static boolean isArchive(File file) {
+        final String extension = FilenameUtils.getExtension(file.getName());
+        return file.isFile() && ("zip".equalsIgnoreCase(extension) || "jar".equalsIgnoreCase(extension));
+    }
+
+    /**
+     * Loads a single file found in a root directory, as {@link #load(File, Context, boolean)} does when loading the
+     * whole directory: Into subcontexts of ctxt named after the directories between rootDirectory and file.
+     *
+     * @param ctxt The context rootDirectory is loaded into.
+     */
+    public void loadFile(File rootDirectory, Path file, Context ctxt) throws NamingException, IOException {
+        loadFile(file, createDirectoryContexts(rootDirectory, file.getParent(), ctxt), null, true);
+    }
+
+    /**
+     * Creates the subcontexts for a directory below rootDirectory, as {@link #load(File, Context, boolean)} does when
+     * loading the whole directory.
+     *
+     * @param ctxt The context rootDirectory is loaded into.
+     * @return The context of directory.
+     */
+    public Context createDirectoryContexts(File rootDirectory, Path directory, Context ctxt) throws NamingException {
+        Context context = ctxt;
+        for (Path part : rootDirectory.getAbsoluteFile().toPath().relativize(directory.toAbsolutePath())) {
+            final String subCtxName = part.toString();
+            if (!subCtxName.isEmpty() && !subCtxName.equals(".svn") && !subCtxName.equals("CVS")) {
+                context = context.createSubcontext(handleColonReplacement(subCtxName));
+            }
         }
+        return context;
     }
 
     /**
@@ -69,11 +218,19 @@ public class NioBasedJndiLoader extends JndiLoader {
      */
     private void loadFile(final Path path, final Context ctxt, Context parentCtxt
             , final boolean preserveFileNameAsContextName) throws IOException, NamingException {
+        loadFile(path, null, ctxt, parentCtxt, preserveFileNameAsContextName);
+    }
+
+    /**
+     * @param parsed The content of the files already parsed, null to parse path now.
+     */
+    private void loadFile(final Path path, final ParsedFiles parsed, final Context ctxt, Context parentCtxt
+            , final boolean preserveFileNameAsContextName) throws IOException, NamingException {
         LOGGER.debug("Loading {}", path);
         String parentName  = path.getFileName().toString();
         parentName = handleColonReplacement(parentName);
         Context subContext = ctxt;
-        Properties properties = toProperties(path);
+        Properties properties = parsed != null ? parsed.get(path) : toProperties(path);
         String subName = null;
         if (isNotNamespacedTypeDefinition(properties)) {
             // preserve the file name as object name.
@@ -105,12 +262,12 @@ public class NioBasedJndiLoader extends JndiLoader {
             properties = new CustomSJProperties();
         }
 
-        properties.setDelimiter( (String) environment.get(DELIMITER) );
+        properties.setDelimiter(getSeparator());
+        properties.setSubstitution(getSubstitution());
 
-        try (InputStream stream = Files.newInputStream(path)){
-            properties.load(stream);
-            return properties;
-        }
+        properties.setCharset(getCharset());
+        properties.load(path);
+        return properties;
     }
 
     /**
@@ -118,7 +275,73 @@ public class NioBasedJndiLoader extends JndiLoader {
      */
     private void loadDirectory(File directory, final String platformSpecificRootDir, final Context ctxt, final Context parentCtxt, final String subName) throws NamingException, IOException {
 
-        Files.walkFileTree(directory.toPath(), new MySimpleFileVisitor(platformSpecificRootDir, ctxt, "", false));
+        if (Boolean.parseBoolean((String) environment.get(PARALLEL_PARSE))) {
+            final List<Visit> visits = walk(directory);
+            replay(directory, true, visits, new ParsedFiles(visits), ctxt, false);
+        }
+        else {
+            Files.walkFileTree(directory.toPath(), new MySimpleFileVisitor(platformSpecificRootDir, ctxt, "", false));
+        }
+    }
+
+    /**
+     * Records the walk {@link #load(File, Context, boolean)} would do over fileOrDirectory, without parsing any file.
+     */
+    List<Visit> walk(File fileOrDirectory) throws IOException {
+        final RecordingFileVisitor recorder = new RecordingFileVisitor();
+        if (fileOrDirectory.isDirectory()) {
+            Files.walkFileTree(fileOrDirectory.toPath(), recorder);
+        }
+        else {
+            recorder.visitFile(fileOrDirectory.toPath(), null);
+        }
+        return recorder.visits;
+    }
+
+    /**
+     * Binds the files of a recorded walk, as {@link #load(File, Context, boolean)} would have bound them. Files not
+     * parsed yet are parsed first, in parallel in case of {@link #PARALLEL_PARSE}.
+     *
+     * @param fileOrDirectory The root walked.
+     */
+    void replay(File fileOrDirectory, boolean directory, List<Visit> visits, ParsedFiles parsed, Context ctxt,
+                boolean preserveRootFileNameAsContextName) throws NamingException, IOException {
+        replay(fileOrDirectory.toPath(), directory, visits, parsed, ctxt, preserveRootFileNameAsContextName);
+    }
+
+    private void replay(Path fileOrDirectory, boolean directory, List<Visit> visits, ParsedFiles parsed, Context ctxt,
+                boolean preserveRootFileNameAsContextName) throws NamingException, IOException {
+        parse(parsed);
+        if (!directory) {
+            loadFile(fileOrDirectory, parsed, ctxt, null, preserveRootFileNameAsContextName);
+            return;
+        }
+        final MySimpleFileVisitor visitor = new MySimpleFileVisitor(fileOrDirectory.toString(), ctxt, "", false);
+        visitor.parsed = parsed;
+        for (Visit visit : visits) {
+            switch (visit.kind) {
+                case Visit.PRE_VISIT_DIRECTORY:
+                    visitor.preVisitDirectory(visit.path, null);
+                    break;
+                case Visit.VISIT_FILE:
+                    visitor.visitFile(visit.path, null);
+                    break;
+                case Visit.VISIT_FILE_FAILED:
+                    visitor.visitFileFailed(visit.path, visit.exc);
+                    break;
+                default:
+                    visitor.postVisitDirectory(visit.path, visit.exc);
+            }
+        }
+    }
+
+    private void parse(ParsedFiles parsed) {
+        if (Boolean.parseBoolean((String) environment.get(PARALLEL_PARSE))) {
+            ForkJoinPool.commonPool().invoke(new ParseTask(parsed, 0, parsed.files.size()));
+        }
+        else {
+            new ParseTask(parsed, 0, parsed.files.size()).parse();
+        }
     }
 
     class MySimpleFileVisitor extends SimpleFileVisitor<Path> {
@@ -128,6 +351,8 @@ public class NioBasedJndiLoader extends JndiLoader {
         private final String subName;
         private final ArrayList<Context> contexts = new ArrayList<>();
         private final boolean preserveRootFileNameAsContextName;
+        /* Only set in case of PARALLEL_PARSE. */
+        private ParsedFiles parsed;
 
         MySimpleFileVisitor(String platformSpecificRootDir, final Context ctxt, final String subName, final boolean preserveRootFileNameAsContextName) {
             if (StringUtils.endsWith(platformSpecificRootDir, File.separator)) {
@@ -162,24 +387,24 @@ public class NioBasedJndiLoader extends JndiLoader {
                     LOGGER.error("", e);
                 }
             }
-            return super.preVisitDirectory(dir, attrs);
+            return FileVisitResult.CONTINUE;
         }
 
         @Override
         public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) throws IOException {
             try {
                 if (path.toString().equals(platformSpecificRootDir)) {
-                    loadFile(path, contexts.get(contexts.size() - 1), null, preserveRootFileNameAsContextName);
+                    loadFile(path, parsed, contexts.get(contexts.size() - 1), null, preserveRootFileNameAsContextName);
                 }
                 else {
-                    loadFile(path, contexts.get(contexts.size() - 1), null, true);
+                    loadFile(path, parsed, contexts.get(contexts.size() - 1), null, true);
                 }
             }
             catch (NamingException e) {
                 LOGGER.error("path: {} ctxt: {} subName: {}", path, ctxt, subName);
                 LOGGER.error("", e);
             }
-            return super.visitFile(path, attrs);
+            return FileVisitResult.CONTINUE;
         }
 
         @Override
@@ -194,7 +419,127 @@ public class NioBasedJndiLoader extends JndiLoader {
             if (!platformSpecificRootDir.equals(dir.toString())) {
                 contexts.remove(contexts.size() - 1);
             }
-            return super.postVisitDirectory(dir, exc);
+            if (exc != null) {
+                throw exc;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    /**
+     * Records a walk over a directory tree, so that the files can be parsed first and the walk replayed afterwards to
+     * bind them in the order a {@link MySimpleFileVisitor} would have seen them.
+     */
+    private static final class RecordingFileVisitor extends SimpleFileVisitor<Path> {
+
+        private final List<Visit> visits = new ArrayList<>();
+
+        @Override
+        public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+            visits.add(new Visit(Visit.PRE_VISIT_DIRECTORY, dir, null));
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+            visits.add(new Visit(Visit.VISIT_FILE, file, null));
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+            visits.add(new Visit(Visit.VISIT_FILE_FAILED, file, exc));
+            return FileVisitResult.TERMINATE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) {
+            visits.add(new Visit(Visit.POST_VISIT_DIRECTORY, dir, exc));
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    static final class Visit {
+        static final int PRE_VISIT_DIRECTORY = 0;
+        static final int VISIT_FILE = 1;
+        static final int VISIT_FILE_FAILED = 2;
+        static final int POST_VISIT_DIRECTORY = 3;
+
+        final int kind;
+        final Path path;
+        final IOException exc;
+
+        Visit(int kind, Path path, IOException exc) {
+            this.kind = kind;
+            this.path = path;
+            this.exc = exc;
+        }
+    }
+
+    /**
+     * The files of a walk and the result of parsing each: Properties or the IOException thrown while reading the file.
+     */
+    static final class ParsedFiles {
+        final List<Path> files = new ArrayList<>();
+        private final Map<Path, Integer> indexes = new HashMap<>();
+        final Object[] results;
+
+        ParsedFiles(List<Visit> visits) {
+            for (Visit visit : visits) {
+                if (visit.kind == Visit.VISIT_FILE) {
+                    indexes.put(visit.path, files.size());
+                    files.add(visit.path);
+                }
+            }
+            results = new Object[files.size()];
+        }
+
+        Properties get(Path path) throws IOException {
+            final Object result = results[indexes.get(path)];
+            if (result instanceof IOException) {
+                throw (IOException) result;
+            }
+            return (Properties) result;
+        }
+    }
+
+    /**
+     * Parses the files of a range of {@link ParsedFiles#files} not parsed yet, splitting it in halves until it is
+     * small enough.
+     */
+    private final class ParseTask extends RecursiveAction {
+        private final ParsedFiles parsed;
+        private final int from;
+        private final int to;
+
+        ParseTask(ParsedFiles parsed, int from, int to) {
+            this.parsed = parsed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARSE_THRESHOLD) {
+                parse();
+            }
+            else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(parsed, from, middle), new ParseTask(parsed, middle, to));
+            }
+        }
+
+        void parse() {
+            for (int i = from; i < to; i++) {
+                if (parsed.results[i] == null) {
+                    try {
+                        parsed.results[i] = toProperties(parsed.files.get(i));
+                    }
+                    catch (IOException e) {
+                        parsed.results[i] = e;
+                    }
+                }
+            }
         }
     }
 }
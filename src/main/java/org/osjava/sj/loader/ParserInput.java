@@ -0,0 +1,141 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The input of all {@link SJProperties} formats, streamed while it is parsed: A file is read as the parser asks for
+ * more, or memory-mapped if it is large, and text is decoded chunk by chunk with a fixed charset. A byte order mark
+ * overrides the charset. So no file is held in the heap as a whole, neither its bytes nor its text.
+ */
+final class ParserInput {
+
+    /* Smaller files are read. Mapping costs more than reading a small file and keeps the file open until the buffer is
+     garbage collected. */
+    static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private ParserInput() {
+    }
+
+    /**
+     * @return The content of file, memory-mapped if it is at least {@link #MAP_THRESHOLD} bytes and not in an archive.
+     * To be closed.
+     */
+    @NotNull
+    static InputStream open(@NotNull Path file) throws IOException {
+        final MappedByteBuffer mapped = map(file);
+        return mapped != null ? stream(mapped) : Files.newInputStream(file);
+    }
+
+    /**
+     * @return null: file is too small or too large to be mapped, or in an archive.
+     */
+    @Nullable
+    static MappedByteBuffer map(@NotNull Path file) throws IOException {
+        // Only files of the default file system can be mapped, not those in a jar.
+        if (file.getFileSystem() != FileSystems.getDefault()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < MAP_THRESHOLD || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // Stays valid when the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Malformed input is replaced, as with an InputStreamReader.
+     *
+     * @param charset Used, if in does not start with a byte order mark for UTF-8 or UTF-16.
+     * @return Decodes in while it is read.
+     */
+    @NotNull
+    static Reader reader(@NotNull InputStream in, @NotNull Charset charset) throws IOException {
+        final PushbackInputStream input = new PushbackInputStream(in, 3);
+        final byte[] start = new byte[3];
+        int read = 0;
+        int count;
+        while (read < start.length && (count = input.read(start, read, start.length - read)) > 0) {
+            read += count;
+        }
+        int bom = 0;
+        if (startsWith(start, read, 0xEF, 0xBB, 0xBF)) {
+            charset = StandardCharsets.UTF_8;
+            bom = 3;
+        }
+        else if (startsWith(start, read, 0xFE, 0xFF)) {
+            charset = StandardCharsets.UTF_16BE;
+            bom = 2;
+        }
+        else if (startsWith(start, read, 0xFF, 0xFE)) {
+            charset = StandardCharsets.UTF_16LE;
+            bom = 2;
+        }
+        input.unread(start, bom, read - bom);
+        return new InputStreamReader(input, charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+    }
+
+    private static boolean startsWith(byte[] start, int length, int... bom) {
+        if (length < bom.length) {
+            return false;
+        }
+        for (int i = 0; i < bom.length; i++) {
+            if ((start[i] & 0xFF) != bom[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Reads the remaining bytes. Closing it has no effect.
+     */
+    @NotNull
+    static InputStream stream(@NotNull final ByteBuffer input) {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return input.hasRemaining() ? input.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(@NotNull byte[] bytes, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!input.hasRemaining()) {
+                    return -1;
+                }
+                len = Math.min(len, input.remaining());
+                input.get(bytes, off, len);
+                return len;
+            }
+
+            @Override
+            public int available() {
+                return input.remaining();
+            }
+        };
+    }
+}
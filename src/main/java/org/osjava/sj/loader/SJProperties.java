@@ -32,16 +32,20 @@
 
 package org.osjava.sj.loader;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
-import org.apache.commons.lang.text.StrLookup;
-import org.apache.commons.lang.text.StrSubstitutor;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -50,11 +54,15 @@ import org.jetbrains.annotations.NotNull;
 public class SJProperties extends Properties {
 
     private String delimiter = ".";
-    // our index for the ordering
-    protected ArrayList index = new ArrayList();
+    /* null: The default of the format. */
+    private Charset charset;
+    // our index for the ordering. A hash set, so that put() and keySet().contains() do not scan all keys.
+    protected LinkedHashSet index = new LinkedHashSet();
     
-    private final StrSubstitutor systemPropertySubstitutor;
-    private final StrSubstitutor environmentVariableSubstitutor;
+    /* null until the first value with a variable, if not set by the loader. */
+    private VariableSubstitution substitution;
+    /* true: A value was changed by substituting a system property or an environment variable. */
+    private boolean substituted;
 
     SJProperties() {
         this(null);
@@ -67,8 +75,13 @@ public class SJProperties extends Properties {
      */
     SJProperties(Properties defaults) {
         super(defaults);
-        systemPropertySubstitutor = new StrSubstitutor(StrLookup.systemPropertiesLookup());
-        environmentVariableSubstitutor = new StrSubstitutor(StrLookup.mapLookup(System.getenv()));
+    }
+
+    /**
+     * @param substitution Shared by all files of a load. See {@link JndiLoader#getSubstitution()}.
+     */
+    void setSubstitution(VariableSubstitution substitution) {
+        this.substitution = substitution;
     }
 
     public void setDelimiter(String delimiter) {
@@ -79,15 +92,58 @@ public class SJProperties extends Properties {
         return this.delimiter;
     }
 
+    /**
+     * @param charset null: The default of the format, ISO 8859-1 for properties as with
+     * {@link Properties#load(InputStream)}, the platform's default charset for .ini files. A byte order mark for UTF-8 or UTF-16 at the start of a file overrides it.
+     * See {@link JndiLoader#CHARSET}.
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    Charset getCharset(Charset defaultCharset) {
+        return charset != null ? charset : defaultCharset;
+    }
+
+    /**
+     * Loads file, streamed while it is parsed or memory-mapped if it is large. See {@link ParserInput}.
+     */
+    public void load(@NotNull Path file) throws IOException {
+        try (InputStream in = ParserInput.open(file)) {
+            load(in);
+        }
+    }
+
+    /**
+     * Parses in while it is read, decoded with the charset set. Overridden by each format.
+     */
+    @Override
+    public void load(InputStream in) throws IOException {
+        load(ParserInput.reader(in, getCharset(StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * @return true: At least one value depends on system properties or environment variables.
+     */
+    boolean isSubstituted() {
+        return substituted;
+    }
+
     @Override
     public synchronized Object put(Object key, Object value) {
-        if (value instanceof String) {
-            value = systemPropertySubstitutor.replace(value);
-            value = environmentVariableSubstitutor.replace(value);
+        if (value instanceof String && ((String) value).contains("${")) {
+            if (substitution == null) {
+                substitution = VariableSubstitution.snapshot(new Hashtable());
+            }
+            final Object raw = value;
+            value = substitution.replace((String) value);
+            substituted |= !raw.equals(value);
         }
-        if(index.contains(key)) {
+        // A repeated key collects its values in a List.
+        if(!index.add(key)) {
             Object obj = get(key);
             if( !(obj instanceof List)) {
+                // Multi-values are bound as LinkedList.
                 List list = new LinkedList();
                 list.add(obj);
                 obj = list;
@@ -95,12 +151,18 @@ public class SJProperties extends Properties {
             ((List)obj).add(value);
             value = obj;
         }
-        if(!index.contains(key)) {
-            index.add(key);
-        }
         return super.put(key, value);
     }
 
+    /**
+     * Puts a value as it was parsed before, without substituting variables and without collecting repeated keys. For
+     * {@link NamespaceSnapshot}.
+     */
+    synchronized void putRaw(String key, Object value) {
+        index.add(key);
+        super.put(key, value);
+    }
+
     @Override
     public synchronized Object setProperty(String key, String value) {
         return put(key,value);
@@ -122,10 +184,13 @@ public class SJProperties extends Properties {
         return propertyNames();
     }
 
+    /**
+     * @return The keys in the order they were put first. Not modifiable.
+     */
     @NotNull
     @Override
     public synchronized Set keySet() {
-        return new OrderedSet(index);
+        return Collections.unmodifiableSet(index);
     }
  
 }
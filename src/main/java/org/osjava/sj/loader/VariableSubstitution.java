@@ -0,0 +1,168 @@
+package org.osjava.sj.loader;
+
+import org.apache.commons.lang.text.StrLookup;
+import org.apache.commons.lang.text.StrSubstitutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replaces variables like ${user.home} in values by system properties or environment variables. They are read once,
+ * when the substitution is created, so that all files of a load see the same values. One instance is shared by all
+ * files a {@link JndiLoader} parses, also when parsed in parallel.
+ * <p>
+ * ${name} is looked up in the system properties first, then in the environment variables. A prefix selects a single
+ * source:
+ * <ul>
+ * <li>${sj.sys:name}: System property.</li>
+ * <li>${sj.env:name}: Environment variable.</li>
+ * <li>${sj.secret:name}: Content of the file name in the directory {@link #SECRETS}, without trailing line break.</li>
+ * <li>${prefix:name}: Looked up in the {@link StrLookup} registered for prefix in {@link #VARIABLE_SOURCES}.</li>
+ * </ul>
+ * Unknown variables are kept as they are. "$${name}" escapes a variable.
+ * <p>
+ * Replaced values are cached, except those depending on a secret or on a {@link #VARIABLE_SOURCES} lookup: Secrets
+ * may be rotated and should not be kept longer than the values bound.
+ */
+public final class VariableSubstitution {
+
+    /** A directory with one file per secret, e. g. as mounted by Docker or Kubernetes. See ${sj.secret:name}. */
+    public static final String SECRETS = "org.osjava.sj.secrets";
+    /**
+     * A Map from prefix to {@link StrLookup}, for variables like ${prefix:name}. Can only be set programmatically, not
+     * in jndi.properties.
+     */
+    public static final String VARIABLE_SOURCES = "org.osjava.sj.variableSources";
+    private static final Logger LOGGER = LoggerFactory.getLogger(VariableSubstitution.class);
+    /* Values repeat across files, e. g. ${db.url} in every DataSource. Bounded, in case every value differs. */
+    private static final int CACHE_SIZE = 4096;
+
+    private final Lookup lookup;
+    private final StrSubstitutor substitutor;
+    private final Map<String, String> replaced = new ConcurrentHashMap<String, String>();
+
+    private VariableSubstitution(Lookup lookup) {
+        this.lookup = lookup;
+        substitutor = new StrSubstitutor(lookup);
+    }
+
+    /**
+     * @param environment May configure {@link #SECRETS} and {@link #VARIABLE_SOURCES}.
+     * @return A substitution with the system properties and environment variables as they are now.
+     */
+    @NotNull
+    public static VariableSubstitution snapshot(@NotNull Hashtable<?, ?> environment) {
+        final Object secrets = environment.get(SECRETS);
+        final Object sources = environment.get(VARIABLE_SOURCES);
+        final Map<String, StrLookup> lookups = new HashMap<String, StrLookup>();
+        if (sources instanceof Map) {
+            for (Map.Entry<?, ?> source : ((Map<?, ?>) sources).entrySet()) {
+                lookups.put(String.valueOf(source.getKey()), (StrLookup) source.getValue());
+            }
+        }
+        return new VariableSubstitution(new Lookup((Properties) System.getProperties().clone(), System.getenv(),
+                secrets != null ? new File(secrets.toString()) : null, lookups));
+    }
+
+    /**
+     * @return value itself, if it contains no variable.
+     */
+    public String replace(@NotNull String value) {
+        if (value.indexOf("${") < 0) {
+            return value;
+        }
+        String result = replaced.get(value);
+        if (result == null) {
+            final boolean[] uncacheable = lookup.uncacheable.get();
+            uncacheable[0] = false;
+            result = substitutor.replace(value);
+            if (!uncacheable[0] && replaced.size() < CACHE_SIZE) {
+                replaced.put(value, result);
+            }
+        }
+        return result;
+    }
+
+    private static final class Lookup extends StrLookup {
+        private final Properties systemProperties;
+        private final Map<String, String> environmentVariables;
+        @Nullable
+        private final File secrets;
+        private final Map<String, StrLookup> sources;
+        /* Set on the thread replacing a value, when a secret or a source was looked up, also for a nested variable. */
+        final ThreadLocal<boolean[]> uncacheable = ThreadLocal.withInitial(() -> new boolean[1]);
+
+        Lookup(Properties systemProperties, Map<String, String> environmentVariables, @Nullable File secrets,
+               Map<String, StrLookup> sources) {
+            this.systemProperties = systemProperties;
+            this.environmentVariables = Collections.unmodifiableMap(environmentVariables);
+            this.secrets = secrets;
+            this.sources = sources;
+        }
+
+        @Override
+        public String lookup(String key) {
+            final int colon = key.indexOf(':');
+            if (colon > 0) {
+                final String prefix = key.substring(0, colon);
+                final String name = key.substring(colon + 1);
+                if ("sj.sys".equals(prefix)) {
+                    return systemProperties.getProperty(name);
+                }
+                if ("sj.env".equals(prefix)) {
+                    return environmentVariables.get(name);
+                }
+                if ("sj.secret".equals(prefix)) {
+                    uncacheable.get()[0] = true;
+                    return secret(name);
+                }
+                final StrLookup source = sources.get(prefix);
+                if (source != null) {
+                    uncacheable.get()[0] = true;
+                    return source.lookup(name);
+                }
+            }
+            final String value = systemProperties.getProperty(key);
+            return value != null ? value : environmentVariables.get(key);
+        }
+
+        @Nullable
+        private String secret(String name) {
+            if (secrets == null) {
+                LOGGER.warn("Secret {} not replaced: {} not set.", name, SECRETS);
+                return null;
+            }
+            if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.equals("..")) {
+                LOGGER.warn("Secret {} not replaced: Not a file name.", name);
+                return null;
+            }
+            try {
+                String secret = new String(Files.readAllBytes(new File(secrets, name).toPath()), StandardCharsets.UTF_8);
+                if (secret.endsWith("\n")) {
+                    secret = secret.substring(0, secret.endsWith("\r\n") ? secret.length() - 2 : secret.length() - 1);
+                }
+                return secret;
+            }
+            catch (NoSuchFileException e) {
+                return null;
+            }
+            catch (IOException e) {
+                LOGGER.warn("Can not read secret {}", name, e);
+                return null;
+            }
+        }
+    }
+}
@@ -32,21 +32,41 @@
 
 package org.osjava.sj.loader;
 
-import org.w3c.dom.*;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Properties;
 
 /**
- * Loads properties using the DOM API from an InputStream containing XML
+ * Loads properties using the StAX API from an InputStream containing XML. Every element below the root element is
+ * a key, e. g. "config.one.two" for &lt;config&gt;&lt;one&gt;&lt;two&gt;, and so is every attribute of these
+ * elements. The document is streamed, only the path of the current element is kept.
  */
 public class XmlSJProperties extends SJProperties {
 
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+    /* Creating a factory is a service lookup. A factory is not guaranteed to be thread-safe, so one per thread. */
+    private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            // Names as written, e. g. "ns:name", and xmlns declarations as attributes.
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            // CDATA sections as such and not as text, to ignore them.
+            if (factory.isPropertySupported(REPORT_CDATA)) {
+                factory.setProperty(REPORT_CDATA, true);
+            }
+            return factory;
+        }
+    };
+
     public XmlSJProperties() {
         super();
     }
@@ -55,64 +75,134 @@ public class XmlSJProperties extends SJProperties {
         super(props);
     }
 
+    /**
+     * Streams in without reading it completely first. The encoding is determined by the document, a charset set is not
+     * used.
+     */
     @Override
     public void load(InputStream in) throws IOException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = null;
-        Document document = null;
-        
+        XMLStreamReader reader = null;
         try {
-            builder = factory.newDocumentBuilder();
-            document = builder.parse(in);            
-        } catch (ParserConfigurationException pce) {
-            throw new IOException("Unable to get DocumentBuilder from factory. " + pce.getMessage());
-        } 
-        catch (SAXException se) {
-            throw new IOException("Unable to parse document. " + se.getMessage());
+            reader = FACTORY.get().createXMLStreamReader(in);
+            load(reader);
         }
-        
-        if (document != null) {
-            loadDocument(document);
+        catch (XMLStreamException se) {
+            throw new IOException("Unable to parse document. " + se.getMessage(), se);
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (XMLStreamException ignore) { }
+            }
         }
     }
 
-    private void loadDocument(Document document) {
-        Element root = document.getDocumentElement();
-        String level = root.getNodeName();
-        processChildren(level, root);
-    }
-    
-    private void processChildren(String level, Node node) {
-        NodeList children = node.getChildNodes();
-        for(int i=0;i<children.getLength();i++) {
-            Node child = children.item(i);
-            addNode(level, child);
-            if (child.hasAttributes()) {
-                String attributeLevel = level + getDelimiter() + child.getNodeName();
-                addAttributes(attributeLevel, child.getAttributes());
+    /**
+     * Keys and their order as with the former DOM based implementation: The text of an element first, then the
+     * elements below it, then its attributes. Text interrupted by a comment, a processing instruction or a CDATA
+     * section results in separate values. CDATA sections are ignored.
+     */
+    private void load(XMLStreamReader reader) throws XMLStreamException {
+        final String delimiter = getDelimiter();
+        final StringBuilder path = new StringBuilder();
+        final StringBuilder text = new StringBuilder();
+        // Per open element below the root: The length of path before the element and its attributes, stored when the
+        // element ends.
+        int[] pathLengths = new int[16];
+        final List<String[]> attributes = new ArrayList<String[]>();
+        int depth = 0;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    store(path, text);
+                    if (depth == 0) {
+                        path.append(name(reader.getPrefix(), reader.getLocalName()));
+                    }
+                    else {
+                        if (depth == pathLengths.length) {
+                            pathLengths = Arrays.copyOf(pathLengths, depth * 2);
+                        }
+                        pathLengths[depth] = path.length();
+                        path.append(delimiter).append(name(reader.getPrefix(), reader.getLocalName()));
+                        attributes.add(attributesOf(reader));
+                    }
+                    depth++;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if (depth > 0) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    store(path, text);
+                    depth--;
+                    if (depth > 0) {
+                        final String[] elementAttributes = attributes.remove(attributes.size() - 1);
+                        if (elementAttributes != null) {
+                            final int length = path.length();
+                            for (int i = 0; i < elementAttributes.length; i += 2) {
+                                path.append(delimiter).append(elementAttributes[i]);
+                                store(path.toString(), elementAttributes[i + 1]);
+                                path.setLength(length);
+                            }
+                        }
+                        path.setLength(pathLengths[depth]);
+                    }
+                    break;
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    store(path, text);
+                    break;
+                default:
             }
         }
     }
-    
-    private void addNode(String level, Node node) {            
-        switch (node.getNodeType()) {
-            case Node.ELEMENT_NODE :
-                level = level + getDelimiter() + node.getNodeName();
-                break;
-            case Node.TEXT_NODE :
-                store(level, node.getNodeValue());
-                break;
+
+    /**
+     * @return name, value, name, value, ... sorted by name as a DOM NamedNodeMap is. null, if there are none.
+     */
+    private static String[] attributesOf(XMLStreamReader reader) {
+        final int count = reader.getAttributeCount();
+        if (count == 0) {
+            return null;
+        }
+        final String[][] sorted = new String[count][];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = new String[]{name(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i)};
+        }
+        if (count > 1) {
+            Arrays.sort(sorted, new Comparator<String[]>() {
+                @Override
+                public int compare(String[] a1, String[] a2) {
+                    return a1[0].compareTo(a2[0]);
+                }
+            });
+        }
+        final String[] attributes = new String[count * 2];
+        for (int i = 0; i < count; i++) {
+            attributes[i * 2] = sorted[i][0];
+            attributes[i * 2 + 1] = sorted[i][1];
         }
-                     
-        processChildren(level, node);        
+        return attributes;
     }
 
-    private void addAttributes(String level, NamedNodeMap map) {
-        for(int i=0;i<map.getLength();i++) {
-            Node attribute = map.item(i);
-            String attributeLevel = level + getDelimiter() + attribute.getNodeName();
-            store(attributeLevel, attribute.getNodeValue());
-        }          
+    private static String name(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+
+    /**
+     * Stores the text collected so far under path.
+     */
+    private void store(StringBuilder path, StringBuilder text) {
+        if (text.length() > 0) {
+            store(path.toString(), text.toString());
+            text.setLength(0);
+        }
     }
 
     private void store(String name, String value) {
@@ -120,4 +210,4 @@ public class XmlSJProperties extends SJProperties {
             setProperty(name, value);
         }
     }
-}
\ No newline at end of file
+}
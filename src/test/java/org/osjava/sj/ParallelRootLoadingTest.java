@@ -0,0 +1,126 @@
+package org.osjava.sj;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Hashtable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link SimpleJndi#LOAD_THREADS}, {@link SimpleJndi#LOAD_EXECUTOR}
+ */
+public class ParallelRootLoadingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Hashtable<String, Object> env;
+
+    @Before
+    public void setUp() throws IOException {
+        final File base = folder.newFolder("base");
+        write(new File(base, "app.properties"), "name=base\nurl=jdbc:base");
+        write(new File(base, "jdbc/orders.properties"), "user=base");
+        final File region = folder.newFolder("region");
+        write(new File(region, "app.properties"), "zone=eu");
+        write(new File(region, "jdbc/customers.properties"), "user=region");
+        final File tenant = folder.newFolder("tenant");
+        write(new File(tenant, "tenant.properties"), "id=42");
+        env = new Hashtable<String, Object>();
+        env.put("org.osjava.sj.root",
+                base.getPath() + File.pathSeparator + region.getPath() + File.pathSeparator + tenant.getPath());
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put("org.osjava.sj.space", "java:comp/env");
+    }
+
+    @Test
+    public void rootsAreMergedInDeclarationOrder() throws NamingException {
+        env.put(SimpleJndi.LOAD_THREADS, "3");
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            assertEquals("base", ctx.lookup("java:comp/env/app/name"));
+            assertEquals("jdbc:base", ctx.lookup("java:comp/env/app/url"));
+            assertEquals("eu", ctx.lookup("java:comp/env/app/zone"));
+            assertEquals("base", ctx.lookup("java:comp/env/jdbc/orders/user"));
+            assertEquals("region", ctx.lookup("java:comp/env/jdbc/customers/user"));
+            assertEquals("42", ctx.lookup("java:comp/env/tenant/id"));
+            // Merged contexts are regular contexts of the target tree.
+            final Context jdbc = (Context) ctx.lookup("java:comp/env/jdbc");
+            assertEquals("java:comp/env/jdbc", jdbc.getNameInNamespace());
+            jdbc.bind("other", "value");
+            assertEquals("value", ctx.lookup("java:comp/env/jdbc/other"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void executorFromEnvironment() throws NamingException {
+        final AtomicInteger executed = new AtomicInteger();
+        env.put(SimpleJndi.LOAD_EXECUTOR, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                new Thread(command).start();
+            }
+        });
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            assertEquals(3, executed.get());
+            assertEquals("42", ctx.lookup("java:comp/env/tenant/id"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void nameBoundByTwoRoots() throws IOException {
+        write(new File(folder.getRoot(), "tenant/app.properties"), "name=tenant");
+        env.put(SimpleJndi.LOAD_THREADS, "3");
+        try {
+            new InitialContext(env);
+            fail();
+        }
+        catch (NameAlreadyBoundException expected) {
+        }
+        catch (NamingException e) {
+            fail(e.toString());
+        }
+    }
+
+    @Test
+    public void failureOfOneRoot() {
+        env.put("org.osjava.sj.root", env.get("org.osjava.sj.root") + File.pathSeparator + "doesNotExist.properties");
+        env.put(SimpleJndi.LOAD_THREADS, "4");
+        try {
+            new InitialContext(env);
+            fail();
+        }
+        catch (NamingException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("doesNotExist.properties"));
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
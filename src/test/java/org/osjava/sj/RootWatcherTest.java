@@ -0,0 +1,239 @@
+package org.osjava.sj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.loader.JndiLoader;
+import org.osjava.sj.loader.NioBasedJndiLoader;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Hashtable;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link SimpleJndi#WATCH}
+ */
+public class RootWatcherTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File base;
+    private File tenant;
+    private Hashtable<String, String> env;
+    private MemoryContext ctx;
+    private RootWatcher watcher;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.newFolder("base");
+        tenant = folder.newFolder("tenant");
+        write(new File(base, "app.properties"), "name=base\nurl=jdbc:base");
+        write(new File(base, "jdbc/orders.properties"), "user=base");
+        env = new Hashtable<String, String>();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, "/");
+        env.put(SimpleJndi.WATCH_DEBOUNCE, "200");
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (ctx != null) {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void changedFileIsReloaded() throws Exception {
+        watch(base);
+        write(new File(base, "app.properties"), "name=changed");
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return "changed".equals(ctx.lookup("app/name"));
+            }
+        });
+        assertUnbound("app/url");
+        assertEquals("base", ctx.lookup("jdbc/orders/user"));
+    }
+
+    @Test
+    public void addedAndRemovedFiles() throws Exception {
+        watch(base);
+        write(new File(base, "jms/queue.properties"), "name=orders");
+        new File(base, "jdbc/orders.properties").delete();
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isBound("jms/queue/name") && !isBound("jdbc/orders");
+            }
+        });
+        assertEquals("orders", ctx.lookup("jms/queue/name"));
+        // The directory still exists.
+        assertTrue(ctx.lookup("jdbc") instanceof Context);
+    }
+
+    @Test
+    public void removedDirectory() throws Exception {
+        watch(base);
+        new File(base, "jdbc/orders.properties").delete();
+        new File(base, "jdbc").delete();
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return !isBound("jdbc");
+            }
+        });
+        assertEquals("base", ctx.lookup("app/name"));
+    }
+
+    @Test
+    public void unchangedContentIsNotParsedAgain() throws Exception {
+        watch(base);
+        final int parsed = watcher.parsed.get();
+        write(new File(base, "app.properties"), "name=base\nurl=jdbc:base");
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return watcher.bursts.get() > 0;
+            }
+        });
+        assertEquals(parsed, watcher.parsed.get());
+        assertEquals("base", ctx.lookup("app/name"));
+    }
+
+    @Test
+    public void burstOfChangesIsOneReload() throws Exception {
+        watch(base);
+        for (int i = 0; i < 50; i++) {
+            write(new File(base, "many/file" + i + ".properties"), "value=" + i);
+        }
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return isBound("many/file49/value");
+            }
+        });
+        assertEquals(1, watcher.bursts.get());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(String.valueOf(i), ctx.lookup("many/file" + i + "/value"));
+        }
+    }
+
+    @Test
+    public void earlierRootWins() throws Exception {
+        write(new File(tenant, "app.properties"), "name=tenant");
+        watch(tenant, base);
+        assertEquals("tenant", ctx.lookup("app/name"));
+        write(new File(base, "app.properties"), "name=base2\nurl=jdbc:base2");
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return "jdbc:base2".equals(ctx.lookup("app/url"));
+            }
+        });
+        assertEquals("tenant", ctx.lookup("app/name"));
+        new File(tenant, "app.properties").delete();
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return "base2".equals(ctx.lookup("app/name"));
+            }
+        });
+    }
+
+    @Test
+    public void initialContext() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("org.osjava.sj.root", base.getPath());
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put("org.osjava.sj.space", "java:comp/env");
+        env.put(SimpleJndi.WATCH, "true");
+        env.put(SimpleJndi.WATCH_DEBOUNCE, "100");
+        final InitialContext initialContext = new InitialContext(env);
+        try {
+            assertEquals("base", initialContext.lookup("java:comp/env/app/name"));
+            write(new File(base, "app.properties"), "name=changed");
+            await(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return "changed".equals(initialContext.lookup("java:comp/env/app/name"));
+                }
+            });
+        }
+        finally {
+            initialContext.close();
+        }
+    }
+
+    private void watch(File... roots) throws Exception {
+        ctx = new MemoryContext(env);
+        final String[] paths = new String[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            new NioBasedJndiLoader(env).load(roots[i], ctx, false);
+            paths[i] = roots[i].getPath();
+        }
+        watcher = RootWatcher.start(paths, ctx, env);
+    }
+
+    private boolean isBound(String name) throws NamingException {
+        try {
+            ctx.lookup(name);
+            return true;
+        }
+        catch (NamingException e) {
+            // NameNotFoundException or missing subcontext
+            return false;
+        }
+    }
+
+    private void assertUnbound(String name) throws NamingException {
+        assertFalse(name, isBound(name));
+    }
+
+    private static void await(Callable<Boolean> condition) throws Exception {
+        final long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!isTrue(condition)) {
+            if (System.currentTimeMillis() > end) {
+                fail("Not reloaded within " + TIMEOUT_MILLIS + " ms");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static boolean isTrue(Callable<Boolean> condition) throws Exception {
+        try {
+            return condition.call();
+        }
+        catch (NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,98 @@
+package org.osjava.sj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link SimpleJndi#SEAL}
+ */
+public class SealedNamespaceTest {
+
+    private InitialContext ctx;
+
+    @Before
+    public void setUp() throws NamingException {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("org.osjava.sj.root", "src/test/resources/roots/untypedProperty");
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put("org.osjava.sj.space", "java:comp/env");
+        env.put(SimpleJndi.SEAL, "true");
+        ctx = new InitialContext(env);
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Test
+    public void lookup() throws NamingException {
+        assertEquals("holger", ctx.lookup("java:comp/env/file1/name"));
+        final Context file1 = (Context) ctx.lookup("java:comp/env/file1");
+        assertEquals("holger", file1.lookup("name"));
+        final NamingEnumeration<Binding> bindings = file1.listBindings("");
+        assertTrue(bindings.hasMore());
+        assertEquals("name", bindings.next().getName());
+        assertFalse(bindings.hasMore());
+    }
+
+    @Test
+    public void modificationsAreRejected() throws NamingException {
+        try {
+            ctx.bind("java:comp/env/file1/other", "value");
+            fail();
+        }
+        catch (OperationNotSupportedException expected) { }
+        try {
+            ctx.rebind("java:comp/env/file1/name", "value");
+            fail();
+        }
+        catch (OperationNotSupportedException expected) { }
+        try {
+            ctx.unbind("java:comp/env/file1/name");
+            fail();
+        }
+        catch (OperationNotSupportedException expected) { }
+        try {
+            ctx.createSubcontext("java:comp/env/other");
+            fail();
+        }
+        catch (OperationNotSupportedException expected) { }
+        assertEquals("holger", ctx.lookup("java:comp/env/file1/name"));
+    }
+
+    @Test
+    public void sealManyBindings() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        final MemoryContext memoryContext = new MemoryContext(env);
+        final Context sub = memoryContext.createSubcontext("sub");
+        for (int i = 0; i < 1000; i++) {
+            sub.bind("name" + i, i);
+        }
+        assertTrue(memoryContext.seal() > 0);
+        assertTrue(memoryContext.isSealed());
+        assertTrue(((MemoryContext) sub).isSealed());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, memoryContext.lookup("sub/name" + i));
+        }
+        memoryContext.close();
+    }
+}
@@ -0,0 +1,172 @@
+package org.osjava.sj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.DelimiterConvertingContext;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.ConfigurationException;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SharedContexts}
+ */
+public class SharedContextsTest {
+
+    private Hashtable<String, String> env;
+
+    @Before
+    public void setUp() {
+        env = new Hashtable<String, String>();
+        env.put("org.osjava.sj.root", "src/test/resources/roots/untypedProperty");
+        env.put("org.osjava.sj.jndi.shared", "true");
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("org.osjava.sj.delimiter", "/");
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        env.remove(MemoryContext.IGNORE_CLOSE);
+        env.remove(SimpleJndi.CLOSE_ON_LAST_HANDLE);
+        new InitialContext(env).close();
+    }
+
+    @Test
+    public void concurrentThreadsLoadOnce() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Object[] names = new Object[32];
+        final InitialContext[] contexts = new InitialContext[names.length];
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < names.length; i++) {
+            final int index = i;
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        contexts[index] = new InitialContext(env);
+                        names[index] = contexts[index].lookup("file1/name");
+                    }
+                    catch (Exception e) {
+                        names[index] = e;
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("holger", names[0]);
+        for (Object name : names) {
+            assertSame(names[0], name);
+        }
+        for (InitialContext context : contexts) {
+            context.close();
+        }
+    }
+
+    @Test
+    public void closeOnLastHandle() throws NamingException {
+        env.put(SimpleJndi.CLOSE_ON_LAST_HANDLE, "true");
+        final InitialContext ctx1 = new InitialContext(env);
+        final InitialContext ctx2 = new InitialContext(env);
+        final Object name = ctx1.lookup("file1/name");
+        ctx1.close();
+        ctx1.close();
+        assertSame(name, ctx2.lookup("file1/name"));
+        ctx2.close();
+        final InitialContext ctx3 = new InitialContext(env);
+        assertNotSame(name, ctx3.lookup("file1/name"));
+        ctx3.close();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void conflictingCloseOnLastHandle() throws NamingException {
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            env.put(SimpleJndi.CLOSE_ON_LAST_HANDLE, "true");
+            new InitialContext(env);
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    /**
+     * Users of a shared context may cast it as before.
+     */
+    @Test
+    public void sameTypesAsUnshared() throws NamingException {
+        final Context simple = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        final Hashtable<String, String> memoryEnv = new Hashtable<String, String>(env);
+        memoryEnv.put("java.naming.factory.initial", "org.osjava.sj.MemoryContextFactory");
+        final Context memory = new MemoryContextFactory().getInitialContext(memoryEnv);
+        try {
+            assertTrue(simple instanceof DelimiterConvertingContext);
+            assertTrue(memory instanceof MemoryContext);
+            ((MemoryContext) memory).bind("name", "value");
+            assertEquals("value", new MemoryContextFactory().getInitialContext(memoryEnv).lookup("name"));
+        }
+        finally {
+            simple.close();
+            memory.close();
+        }
+    }
+
+    @Test
+    public void ignoreCloseIsPerHandle() throws NamingException {
+        final Hashtable<String, String> envNotClosable = new Hashtable<String, String>(env);
+        envNotClosable.put(MemoryContext.IGNORE_CLOSE, "true");
+        final InitialContext notClosable = new InitialContext(envNotClosable);
+        final InitialContext closable = new InitialContext(env);
+        assertEquals("true", notClosable.getEnvironment().get(MemoryContext.IGNORE_CLOSE));
+        assertFalse(closable.getEnvironment().containsKey(MemoryContext.IGNORE_CLOSE));
+        closable.close();
+    }
+
+    /**
+     * Ignoring close() on one handle must not close the context for the others.
+     */
+    @Test
+    public void ignoreCloseSetLater() throws NamingException {
+        final InitialContext ctx1 = new InitialContext(env);
+        final InitialContext ctx2 = new InitialContext(env);
+        assertEquals("holger", ctx2.lookup("file1/name"));
+        ctx1.addToEnvironment(MemoryContext.IGNORE_CLOSE, "true");
+        assertEquals("holger", ctx2.lookup("file1/name"));
+        ctx1.close();
+        assertEquals("holger", ctx2.lookup("file1/name"));
+        ctx2.close();
+    }
+
+    @Test
+    public void evictUnused() throws NamingException {
+        final Hashtable<String, String> envNotClosable = new Hashtable<String, String>(env);
+        envNotClosable.put(MemoryContext.IGNORE_CLOSE, "true");
+        final InitialContext ctx1 = new InitialContext(envNotClosable);
+        final Object name = ctx1.lookup("file1/name");
+        ctx1.close();
+        final InitialContext ctx2 = new InitialContext(envNotClosable);
+        assertSame(name, ctx2.lookup("file1/name"));
+        assertTrue(SimpleJndiContextFactory.evictUnused() >= 1);
+        final InitialContext ctx3 = new InitialContext(envNotClosable);
+        assertNotSame(name, ctx3.lookup("file1/name"));
+        ctx3.close();
+    }
+}
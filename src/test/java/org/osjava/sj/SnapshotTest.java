@@ -0,0 +1,217 @@
+package org.osjava.sj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osjava.sj.loader.convert.ConverterIF;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameClassPair;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SimpleJndi#SNAPSHOT}
+ */
+public class SnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private File snapshot;
+    private Hashtable<String, String> env;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.newFolder("root");
+        write(new File(root, "app.properties"), "name=holger\nages=24\nages=25\nage/type=java.lang.Integer\nage=42\n"
+                + "counted/type=java.lang.String\ncounted/converter=" + CountingConverter.class.getName() + "\ncounted=x");
+        write(new File(root, "jdbc/orders.properties"), "user=scott");
+        snapshot = new File(folder.getRoot(), "namespace.snapshot");
+        env = new Hashtable<String, String>();
+        env.put("org.osjava.sj.root", root.getPath());
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put("org.osjava.sj.space", "java:comp/env");
+        env.put(SimpleJndi.SNAPSHOT, snapshot.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("sj.snapshot.test");
+        CountingConverter.conversions.set(0);
+    }
+
+    @Test
+    public void secondStartLoadsSnapshot() throws NamingException {
+        final InitialContext first = new InitialContext(env);
+        final Map<String, String> listed;
+        try {
+            assertTrue(snapshot.exists());
+            assertEquals(1, CountingConverter.conversions.get());
+            assertLoaded(first);
+            listed = classNames(first, "java:comp/env/app");
+        }
+        finally {
+            first.close();
+        }
+        CountingConverter.conversions.set(0);
+        final InitialContext second = new InitialContext(env);
+        try {
+            // Typed values are converted on first lookup.
+            assertEquals(0, CountingConverter.conversions.get());
+            assertEquals("converted x", second.lookup("java:comp/env/app/counted"));
+            assertEquals(1, CountingConverter.conversions.get());
+            assertLoaded(second);
+        }
+        finally {
+            second.close();
+        }
+        final InitialContext third = new InitialContext(env);
+        try {
+            // Or when listed: list() and listBindings() show the same as without snapshot.
+            assertEquals(listed, classNames(third, "java:comp/env/app"));
+            assertEquals(Integer.class, bound(third, "java:comp/env/app", "age").getClass());
+        }
+        finally {
+            third.close();
+        }
+    }
+
+    @Test
+    public void staleSnapshotIsReplaced() throws Exception {
+        new InitialContext(env).close();
+        final long written = snapshot.lastModified();
+        write(new File(root, "jdbc/orders.properties"), "user=tiger-changed");
+        CountingConverter.conversions.set(0);
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            assertEquals("tiger-changed", ctx.lookup("java:comp/env/jdbc/orders/user"));
+            // Parsed and converted while loading.
+            assertEquals(1, CountingConverter.conversions.get());
+        }
+        finally {
+            ctx.close();
+        }
+        assertTrue(snapshot.lastModified() >= written);
+        CountingConverter.conversions.set(0);
+        final InitialContext again = new InitialContext(env);
+        try {
+            assertEquals(0, CountingConverter.conversions.get());
+            assertEquals("tiger-changed", again.lookup("java:comp/env/jdbc/orders/user"));
+        }
+        finally {
+            again.close();
+        }
+    }
+
+    @Test
+    public void substitutedValuesAreParsedAgain() throws NamingException, IOException {
+        write(new File(root, "host.properties"), "name=${sj.snapshot.test}");
+        System.setProperty("sj.snapshot.test", "first");
+        new InitialContext(env).close();
+        System.setProperty("sj.snapshot.test", "second");
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            assertEquals("second", ctx.lookup("java:comp/env/host/name"));
+            assertEquals("holger", ctx.lookup("java:comp/env/app/name"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    /**
+     * Kept as they are while loading, but may be set at the next start.
+     */
+    @Test
+    public void unresolvedVariablesAreParsedAgain() throws NamingException, IOException {
+        write(new File(root, "host.properties"), "name=${sj.snapshot.test}");
+        new InitialContext(env).close();
+        System.setProperty("sj.snapshot.test", "set");
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            assertEquals("set", ctx.lookup("java:comp/env/host/name"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void corruptSnapshotIsIgnored() throws NamingException, IOException {
+        write(snapshot, "not a snapshot");
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            assertLoaded(ctx);
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    private static void assertLoaded(Context ctx) throws NamingException {
+        assertEquals("holger", ctx.lookup("java:comp/env/app/name"));
+        assertEquals(Arrays.asList("24", "25"), ctx.lookup("java:comp/env/app/ages"));
+        assertEquals(42, ctx.lookup("java:comp/env/app/age"));
+        assertEquals("scott", ctx.lookup("java:comp/env/jdbc/orders/user"));
+        assertTrue(ctx.lookup("java:comp/env/jdbc/orders/user") instanceof String);
+        assertTrue(ctx.lookup("java:comp/env/app/ages") instanceof List);
+    }
+
+    private static Map<String, String> classNames(Context ctx, String context) throws NamingException {
+        final Map<String, String> classNames = new TreeMap<String, String>();
+        final NamingEnumeration<NameClassPair> names = ctx.list(context);
+        while (names.hasMore()) {
+            final NameClassPair pair = names.next();
+            classNames.put(pair.getName(), pair.getClassName());
+        }
+        return classNames;
+    }
+
+    private static Object bound(Context ctx, String context, String name) throws NamingException {
+        final NamingEnumeration<Binding> bindings = ctx.listBindings(context);
+        while (bindings.hasMore()) {
+            final Binding binding = bindings.next();
+            if (binding.getName().equals(name)) {
+                return binding.getObject();
+            }
+        }
+        throw new AssertionError(name + " not bound");
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public static class CountingConverter implements ConverterIF {
+        static final AtomicInteger conversions = new AtomicInteger();
+
+        @Override
+        public Object convert(Properties properties, String type) {
+            conversions.incrementAndGet();
+            return "converted " + properties.getProperty("valueToConvert");
+        }
+    }
+}
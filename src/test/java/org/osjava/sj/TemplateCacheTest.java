@@ -0,0 +1,167 @@
+package org.osjava.sj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link SimpleJndi#TEMPLATE_CACHE}
+ */
+public class TemplateCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private Hashtable<String, String> env;
+
+    @Before
+    public void setUp() throws IOException {
+        RootTemplates.clear();
+        file = new File(folder.getRoot(), "file1.properties");
+        write("name=holger");
+        env = new Hashtable<String, String>();
+        env.put("org.osjava.sj.root", folder.getRoot().getPath());
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put("org.osjava.sj.space", "java:comp/env");
+        env.put(SimpleJndi.TEMPLATE_CACHE, "true");
+    }
+
+    @After
+    public void tearDown() {
+        RootTemplates.clear();
+    }
+
+    @Test
+    public void contextsAreCopiesOfOneTemplate() throws NamingException {
+        final InitialContext ctx1 = new InitialContext(env);
+        final InitialContext ctx2 = new InitialContext(env);
+        try {
+            assertEquals("holger", ctx1.lookup("java:comp/env/file1/name"));
+            // Same object: Not parsed again.
+            assertSame(ctx1.lookup("java:comp/env/file1/name"), ctx2.lookup("java:comp/env/file1/name"));
+            assertNotSame(ctx1.lookup("java:comp/env/file1"), ctx2.lookup("java:comp/env/file1"));
+
+            ctx1.bind("java:comp/env/file1/other", "value");
+            ctx1.unbind("java:comp/env/file1/name");
+            try {
+                ctx2.lookup("java:comp/env/file1/other");
+                fail();
+            }
+            catch (NameNotFoundException expected) { }
+            assertEquals("holger", ctx2.lookup("java:comp/env/file1/name"));
+        }
+        finally {
+            ctx1.close();
+            ctx2.close();
+        }
+        final InitialContext ctx3 = new InitialContext(env);
+        try {
+            assertEquals("holger", ctx3.lookup("java:comp/env/file1/name"));
+        }
+        finally {
+            ctx3.close();
+        }
+    }
+
+    @Test
+    public void modifiedFileIsReloaded() throws Exception {
+        final InitialContext ctx1 = new InitialContext(env);
+        assertEquals("holger", ctx1.lookup("java:comp/env/file1/name"));
+        ctx1.close();
+
+        write("name=thurow");
+        file.setLastModified(file.lastModified() + 2000);
+        // The change is noticed asynchronously.
+        final long deadline = System.currentTimeMillis() + 10000;
+        String name;
+        do {
+            final InitialContext ctx2 = new InitialContext(env);
+            name = (String) ctx2.lookup("java:comp/env/file1/name");
+            ctx2.close();
+        } while (!"thurow".equals(name) && System.currentTimeMillis() < deadline && sleep());
+        assertEquals("thurow", name);
+    }
+
+    /**
+     * Both templates watch the same directory through the shared WatchService.
+     */
+    @Test
+    public void changeIsSeenByAllTemplatesOfTheRoot() throws Exception {
+        final Hashtable<String, String> otherEnv = new Hashtable<String, String>(env);
+        otherEnv.put("org.osjava.sj.space", "java:comp/other");
+        new InitialContext(env).close();
+        new InitialContext(otherEnv).close();
+        assertEquals(2, RootTemplates.size());
+
+        write("name=thurow");
+        file.setLastModified(file.lastModified() + 2000);
+        final long deadline = System.currentTimeMillis() + 10000;
+        String name;
+        String otherName;
+        do {
+            final InitialContext ctx = new InitialContext(env);
+            final InitialContext other = new InitialContext(otherEnv);
+            name = (String) ctx.lookup("java:comp/env/file1/name");
+            otherName = (String) other.lookup("java:comp/other/file1/name");
+            ctx.close();
+            other.close();
+        } while (!("thurow".equals(name) && "thurow".equals(otherName)) && System.currentTimeMillis() < deadline
+                && sleep());
+        assertEquals("thurow", name);
+        assertEquals("thurow", otherName);
+    }
+
+    @Test
+    public void typedValuesAreConvertedPerContext() throws Exception {
+        write("name=holger\nsize/type=java.lang.Integer\nsize=5\nlist=a\nlist=b");
+        final InitialContext ctx1 = new InitialContext(env);
+        final InitialContext ctx2 = new InitialContext(env);
+        try {
+            assertEquals(5, ctx1.lookup("java:comp/env/file1/size"));
+            assertEquals(Arrays.asList("a", "b"), ctx1.lookup("java:comp/env/file1/list"));
+            assertNotSame(ctx1.lookup("java:comp/env/file1/size"), ctx2.lookup("java:comp/env/file1/size"));
+            assertNotSame(ctx1.lookup("java:comp/env/file1/list"), ctx2.lookup("java:comp/env/file1/list"));
+        }
+        finally {
+            ctx1.close();
+            ctx2.close();
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedTemplatesAreEvicted() throws NamingException {
+        for (int i = 0; i <= RootTemplates.MAX_TEMPLATES; i++) {
+            env.put("org.osjava.sj.space", "java:comp/env" + i);
+            new InitialContext(env).close();
+        }
+        assertEquals(RootTemplates.MAX_TEMPLATES, RootTemplates.size());
+    }
+
+    private static boolean sleep() throws InterruptedException {
+        Thread.sleep(50);
+        return true;
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,223 @@
+package org.osjava.sj.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Roots in zip files, jars nested in jars and on the classpath. See {@link NioBasedJndiLoader#loadArchive}, {@link
+ * NioBasedJndiLoader#loadClasspath}, {@link ArchiveIndex}.
+ */
+public class ArchiveRootTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Hashtable<String, String> env;
+    private int archivesOpen;
+
+    @Before
+    public void setUp() {
+        env = new Hashtable<String, String>();
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("org.osjava.sj.delimiter", "/");
+        archivesOpen = ArchiveFileSystems.size();
+    }
+
+    @After
+    public void tearDown() {
+        // Nothing left open.
+        assertEquals(archivesOpen, ArchiveFileSystems.size());
+    }
+
+    @Test
+    public void zipFileAsRoot() throws Exception {
+        final Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put("app.properties", "name=zipped");
+        entries.put("jdbc/", null);
+        entries.put("jdbc/orders.properties", "user=orders");
+        final File zip = zip(folder.newFile("config.zip"), entries);
+        env.put("org.osjava.sj.root", zip.getPath());
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            assertEquals("zipped", ctx.lookup("app/name"));
+            assertEquals("orders", ctx.lookup("jdbc/orders/user"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void indexInsteadOfWalking() throws Exception {
+        final File classes = folder.newFolder("classes");
+        write(new File(classes, "roots/app.properties"), "name=indexed");
+        write(new File(classes, "roots/jdbc/orders.properties"), "user=orders");
+        ArchiveIndex.write(classes, "roots");
+        // Not in the index, so not loaded.
+        write(new File(classes, "roots/unlisted.properties"), "name=unlisted");
+        final Map<String, String> entries = new LinkedHashMap<String, String>();
+        for (String name : new String[]{ArchiveIndex.LOCATION, "roots/app.properties", "roots/jdbc/orders.properties",
+                "roots/unlisted.properties"}) {
+            entries.put(name, new String(Files.readAllBytes(new File(classes, name).toPath()), StandardCharsets.UTF_8));
+        }
+        final File jar = zip(folder.newFile("config.jar"), entries);
+
+        final MemoryContext ctx = new MemoryContext(env);
+        new NioBasedJndiLoader(env).loadJar(jar, "/roots", ctx, false);
+        assertEquals("indexed", ctx.lookup("app/name"));
+        assertEquals("orders", ctx.lookup("jdbc/orders/user"));
+        try {
+            ctx.lookup("unlisted");
+            fail();
+        }
+        catch (NameNotFoundException expected) { }
+    }
+
+    @Test
+    public void archivesKeptOpenUntilModified() throws IOException {
+        final File zip = zip(folder.newFile("config.zip"), Collections.singletonMap("a.properties", "a=1"));
+        final FileSystem fileSystem = ArchiveFileSystems.open(zip.toPath());
+        assertSame(fileSystem, ArchiveFileSystems.open(zip.toPath()));
+        zip(zip, Collections.singletonMap("a.properties", "a=2"));
+        zip.setLastModified(zip.lastModified() + 2000);
+        final FileSystem reopened = ArchiveFileSystems.open(zip.toPath());
+        assertNotSame(fileSystem, reopened);
+        assertEquals("a=2", new String(Files.readAllBytes(reopened.getPath("/a.properties")), StandardCharsets.UTF_8));
+        // Still used twice.
+        assertTrue(fileSystem.isOpen());
+        ArchiveFileSystems.release(fileSystem);
+        assertTrue(fileSystem.isOpen());
+        ArchiveFileSystems.release(fileSystem);
+        assertFalse(fileSystem.isOpen());
+        ArchiveFileSystems.release(reopened);
+        assertFalse(reopened.isOpen());
+    }
+
+    @Test
+    public void archiveClosedWithContext() throws Exception {
+        final File zip = zip(folder.newFile("config.zip"), Collections.singletonMap("app.properties", "name=zipped"));
+        env.put("org.osjava.sj.root", zip.getPath());
+        final InitialContext ctx = new InitialContext(env);
+        final FileSystem fileSystem = ArchiveFileSystems.open(zip.toPath());
+        ArchiveFileSystems.release(fileSystem);
+        // Kept open for the context.
+        assertTrue(fileSystem.isOpen());
+        final InitialContext other = new InitialContext(env);
+        other.close();
+        assertTrue(fileSystem.isOpen());
+        ctx.close();
+        assertFalse(fileSystem.isOpen());
+    }
+
+    /**
+     * A jar in a jar, as in a Spring Boot jar, and a directory, found by the same classpath: root. The first one on
+     * the classpath wins.
+     */
+    @Test
+    public void classpathRoot() throws Exception {
+        final Map<String, String> config = new LinkedHashMap<String, String>();
+        config.put("config/", null);
+        config.put("config/app.properties", "name=nested\nurl=jdbc:nested");
+        final byte[] inner = zip(config);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("BOOT-INF/"));
+            out.putNextEntry(new ZipEntry("BOOT-INF/lib/"));
+            out.putNextEntry(new ZipEntry("BOOT-INF/lib/config.jar"));
+            out.write(inner);
+        }
+        final File outer = folder.newFile("app.jar");
+        Files.write(outer.toPath(), bytes.toByteArray());
+        final File directory = folder.newFolder("classes");
+        write(new File(directory, "config/app.properties"), "name=directory");
+
+        final URL nested = new URL("jar:" + outer.toURI() + "!/BOOT-INF/lib/config.jar!/config");
+        final URL inDirectory = new File(directory, "config").toURI().toURL();
+        final ClassLoader classLoader = new URLClassLoader(new URL[0], null) {
+            @Override
+            public Enumeration<URL> getResources(String name) {
+                assertEquals("config", name);
+                return Collections.enumeration(Arrays.asList(inDirectory, nested));
+            }
+        };
+        final MemoryContext ctx = new MemoryContext(env);
+        new NioBasedJndiLoader(env).loadClasspath("/config", classLoader, ctx, false);
+        assertEquals("directory", ctx.lookup("app/name"));
+        assertEquals("jdbc:nested", ctx.lookup("app/url"));
+    }
+
+    @Test
+    public void classpathRootInEnvironment() throws NamingException {
+        env.put("org.osjava.sj.root", "classpath:roots/contextWithContextsAndObjects");
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            assertEquals("Java", ctx.lookup("language"));
+            assertEquals("german", ctx.lookup("my/language"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param entries null content: A directory.
+     */
+    private static File zip(File file, Map<String, String> entries) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            out.write(zip(entries));
+        }
+        return file;
+    }
+
+    private static byte[] zip(Map<String, String> entries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                if (entry.getValue() != null) {
+                    out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
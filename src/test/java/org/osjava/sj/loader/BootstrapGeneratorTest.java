@@ -0,0 +1,174 @@
+package org.osjava.sj.loader;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osjava.datasource.SJDataSource;
+import org.osjava.sj.BeanWithSetterMixedTypes;
+import org.osjava.sj.BeanWithSetterStringsOnly;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link BootstrapGenerator}. Compiles the generated classes and compares what they bind with what is loaded from the
+ * same root.
+ */
+public class BootstrapGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void typedProperties() throws Exception {
+        assertSameNamespace(new File("src/test/resources/roots/typedProperty"), ".");
+        assertSameNamespace(new File("src/test/resources/roots/multiValueAttributes"), "/");
+    }
+
+    @Test
+    public void maps() throws Exception {
+        assertSameNamespace(new File("src/test/resources/roots/maps"), ".");
+    }
+
+    @Test
+    public void dataSource() throws Exception {
+        final File root = folder.newFolder("datasource");
+        Files.write(new File(root, "ds.properties").toPath(), ("TestDS.type=javax.sql.DataSource\n"
+                + "TestDS.url=jdbc:hsqldb:mem:bootstrap\n"
+                + "TestDS.poolname=bootstrap\n"
+                + "TestDS.driverClassName=org.hsqldb.jdbcDriver\n").getBytes(StandardCharsets.ISO_8859_1));
+        final MemoryContext ctxt = populate(root, ".");
+        assertTrue(ctxt.lookup("ds.TestDS") instanceof SJDataSource);
+        ctxt.close();
+    }
+
+    @Test
+    public void beanBySetterCalls() throws Exception {
+        final File root = new File("src/test/resources/roots/beanWithSetter");
+        final String source = generator(".").generate(root, "test.BeanBootstrap");
+        assertTrue(source, source.contains("b.setSize(Integer.valueOf(186));"));
+        assertFalse(source, source.contains("DeferredConversionFactory"));
+        final MemoryContext ctxt = populate(root, ".");
+        final BeanWithSetterMixedTypes bean = (BeanWithSetterMixedTypes) ctxt.lookup("bean");
+        assertEquals(186, bean.getSize());
+        assertEquals("\"Holger Thurow\"", bean.getFullName());
+        ctxt.close();
+    }
+
+    @Test
+    public void beanWithListConvertedOnLookup() throws Exception {
+        final File root = new File("src/test/resources/roots/beanWithSetterStringsOnly");
+        assertTrue(generator(".").generate(root, "test.BeanBootstrap").contains("DeferredConversionFactory"));
+        final MemoryContext ctxt = populate(root, ".");
+        final BeanWithSetterStringsOnly bean = (BeanWithSetterStringsOnly) ctxt.lookup("bean");
+        assertEquals("Holger", bean.getFirstName());
+        ctxt.close();
+    }
+
+    @Test
+    public void invalidValueFailsGeneration() throws IOException {
+        final File root = folder.newFolder("invalid");
+        Files.write(new File(root, "person.properties").toPath(),
+                "age.type=java.lang.Integer\nage=old\n".getBytes(StandardCharsets.ISO_8859_1));
+        try {
+            generator(".").generate(root, "test.Invalid");
+            fail();
+        }
+        catch (NamingException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("person.age"));
+        }
+    }
+
+    @Test
+    public void manyBindingsAndSpecialCharacters() throws Exception {
+        final File root = folder.newFolder("many");
+        final StringBuilder properties = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            properties.append("key").append(i).append('=').append("value ").append(i).append('\n');
+        }
+        properties.append("special=\\\"quoted\\\" \\\\u0041 C:\\\\users \\u00e4\\t\\n\\u0001\n");
+        Files.write(new File(root, "file.properties").toPath(), properties.toString().getBytes(StandardCharsets.ISO_8859_1));
+        assertSameNamespace(root, ".");
+    }
+
+    private BootstrapGenerator generator(String delimiter) {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(JndiLoader.DELIMITER, delimiter);
+        return new BootstrapGenerator(env);
+    }
+
+    private Hashtable<String, String> contextEnvironment(String delimiter) {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(JndiLoader.DELIMITER, delimiter);
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", delimiter);
+        return env;
+    }
+
+    private void assertSameNamespace(File root, String delimiter) throws Exception {
+        final MemoryContext loaded = new MemoryContext(contextEnvironment(delimiter));
+        new NioBasedJndiLoader(contextEnvironment(delimiter)).load(root, loaded, false);
+        final MemoryContext generated = populate(root, delimiter);
+        final Map<String, Object> expected = new TreeMap<String, Object>();
+        final Map<String, Object> actual = new TreeMap<String, Object>();
+        collect(loaded, "", expected);
+        collect(generated, "", actual);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+        loaded.close();
+        generated.close();
+    }
+
+    /**
+     * Compiles the generated class and calls its populate().
+     */
+    private MemoryContext populate(File root, String delimiter) throws Exception {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        final File sources = folder.newFolder();
+        final File source = generator(delimiter).generate(root, sources, "test.JndiBootstrap");
+        final int result = compiler.run(null, null, null, "-classpath", System.getProperty("java.class.path"),
+                "-d", sources.getPath(), source.getPath());
+        assertEquals(new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8), 0, result);
+        final MemoryContext ctxt = new MemoryContext(contextEnvironment(delimiter));
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{sources.toURI().toURL()}, getClass().getClassLoader())) {
+            classLoader.loadClass("test.JndiBootstrap").getMethod("populate", Context.class).invoke(null, ctxt);
+        }
+        return ctxt;
+    }
+
+    private void collect(Context context, String path, Map<String, Object> values) throws NamingException {
+        final NamingEnumeration<Binding> bindings = context.listBindings("");
+        while (bindings.hasMore()) {
+            final Binding binding = bindings.next();
+            final String name = path + "/" + binding.getName();
+            final Object value = context.lookup(binding.getName());
+            if (value instanceof Context) {
+                collect((Context) value, name, values);
+            }
+            else {
+                values.put(name, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.osjava.sj.loader;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link DetachedNamespace}
+ */
+public class DetachedNamespaceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Hashtable<String, String> env;
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() {
+        env = new Hashtable<String, String>();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, "/");
+        ctx = new MemoryContext(env);
+    }
+
+    @Test
+    public void loadAndAttach() throws Exception {
+        final File root = folder.newFolder("root");
+        new File(root, "db").mkdirs();
+        Files.write(new File(root, "db/pool.properties").toPath(),
+                "url=jdbc:hsqldb:mem:test\nsize=5\nsize/type=java.lang.Integer\n".getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(new File(root, "default.properties").toPath(),
+                "a/b/c=1\n".getBytes(StandardCharsets.ISO_8859_1));
+        final DetachedNamespace namespace = new DetachedNamespace(ctx);
+        new NioBasedJndiLoader(env).load(root, namespace, false);
+        try {
+            ctx.lookup("db");
+            fail("Visible before attached");
+        }
+        catch (NameNotFoundException ignore) {
+        }
+        namespace.attachTo(ctx);
+        assertEquals("jdbc:hsqldb:mem:test", ctx.lookup("db/pool/url"));
+        assertEquals(5, ctx.lookup("db/pool/size"));
+        assertEquals("1", ctx.lookup("a/b/c"));
+        assertTrue(ctx.lookup("a/b") instanceof MemoryContext);
+    }
+
+    @Test
+    public void attachMerges() throws NamingException {
+        ctx.createSubcontext("shared");
+        ctx.bind("shared/kept", "old");
+        final DetachedNamespace namespace = new DetachedNamespace(ctx);
+        namespace.createSubcontext("shared");
+        namespace.bind("shared/added", "new");
+        namespace.attachTo(ctx);
+        assertEquals("old", ctx.lookup("shared/kept"));
+        assertEquals("new", ctx.lookup("shared/added"));
+    }
+
+    @Test
+    public void attachFailsOnConflicts() throws NamingException {
+        ctx.createSubcontext("shared");
+        ctx.bind("shared/kept", "old");
+        ctx.bind("object", "old");
+        final DetachedNamespace namespace = new DetachedNamespace(ctx);
+        namespace.createSubcontext("shared");
+        namespace.bind("shared/kept", "new");
+        namespace.bind("shared/added", "new");
+        try {
+            namespace.attachTo(ctx);
+            fail();
+        }
+        catch (NameAlreadyBoundException expected) { }
+        assertEquals("old", ctx.lookup("shared/kept"));
+        try {
+            ctx.lookup("shared/added");
+            fail("Attached partly");
+        }
+        catch (NameNotFoundException expected) { }
+
+        final DetachedNamespace below = new DetachedNamespace(ctx);
+        below.createSubcontext("object");
+        below.bind("object/below", "new");
+        try {
+            below.attachTo(ctx);
+            fail();
+        }
+        catch (NotContextException expected) { }
+        assertEquals("old", ctx.lookup("object"));
+    }
+
+    @Test
+    public void attachKeepingExisting() throws NamingException {
+        ctx.createSubcontext("shared");
+        ctx.bind("shared/kept", "old");
+        final DetachedNamespace namespace = new DetachedNamespace(ctx);
+        namespace.createSubcontext("shared");
+        namespace.bind("shared/kept", "new");
+        namespace.bind("shared/added", "new");
+        namespace.attachKeepingExisting(ctx);
+        assertEquals("old", ctx.lookup("shared/kept"));
+        assertEquals("new", ctx.lookup("shared/added"));
+    }
+
+    @Test
+    public void namesFoldedLikeMemoryContext() throws NamingException {
+        env.put("jndi.syntax.ignorecase", "true");
+        env.put("jndi.syntax.trimblanks", "true");
+        ctx = new MemoryContext(env);
+        final DetachedNamespace namespace = new DetachedNamespace(ctx);
+        namespace.createSubcontext("Sub");
+        namespace.bind("sub/Name", "value");
+        try {
+            namespace.bind(" SUB/name ", "other");
+            fail();
+        }
+        catch (NameAlreadyBoundException ignore) {
+        }
+        assertEquals("value", namespace.lookup("SUB/NAME"));
+        assertEquals("Sub", namespace.list("").next().getName());
+        namespace.attachTo(ctx);
+        assertEquals("value", ctx.lookup("sub/name"));
+        assertEquals("Sub", ((NameClassPair) ctx.list("").next()).getName());
+    }
+
+    @Test
+    public void bindLikeMemoryContext() throws NamingException {
+        final DetachedNamespace namespace = new DetachedNamespace(ctx);
+        final Context sub = namespace.createSubcontext("sub");
+        sub.bind("name", "value");
+        assertEquals("value", namespace.lookup("sub/name"));
+        assertEquals("sub", sub.getNameInNamespace());
+        try {
+            namespace.bind("sub/name", "other");
+            fail();
+        }
+        catch (NameAlreadyBoundException ignore) {
+        }
+        namespace.rebind("sub/name", "other");
+        assertEquals("other", namespace.lookup("sub/name"));
+        try {
+            namespace.bind("missing/name", "value");
+            fail();
+        }
+        catch (NameNotFoundException ignore) {
+        }
+    }
+
+    @Test
+    public void createSubContextsWithoutExceptions() throws NamingException {
+        final DetachedNamespace namespace = new DetachedNamespace(ctx);
+        final JndiLoader loader = new JndiLoader(env);
+        final Context created = loader.createSubContexts(namespace.getNameParser("").parse("a/b/c"), namespace);
+        assertEquals("a/b/c", created.getNameInNamespace());
+        assertEquals(created, loader.createSubContexts(namespace.getNameParser("").parse("a/b/c"), namespace));
+        namespace.bind("a/object", "value");
+        try {
+            loader.createSubContexts(namespace.getNameParser("").parse("a/object/d"), namespace);
+            fail();
+        }
+        catch (NotContextException ignore) {
+        }
+    }
+}
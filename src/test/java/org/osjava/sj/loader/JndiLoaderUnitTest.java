@@ -1,8 +1,10 @@
 package org.osjava.sj.loader;
 
 import org.junit.Test;
+import org.osjava.sj.jndi.DelimiterConvertingContext;
 import org.osjava.sj.jndi.MemoryContext;
 
+import javax.naming.CompoundName;
 import javax.naming.Context;
 import javax.naming.Name;
 import javax.naming.Reference;
@@ -313,4 +315,88 @@ public class JndiLoaderUnitTest {
         Object o = loader.processType(properties, javax.sql.DataSource.class.getName(), null);
         assertEquals(Reference.class.getName(), o.getClass().getName());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void typeDeclarationAfterValuesAndKeysEndingWithType() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, "/");
+
+        SJProperties props = new SJProperties();
+        props.setProperty("my/int", "1");
+        props.setProperty("prototype", "plain");
+        props.setProperty("my/subtype", "plain too");
+        props.setProperty("my/int/type", "java.lang.Integer");
+
+        MemoryContext ctxt = new MemoryContext(env);
+        new JndiLoader(env).load(props, ctxt);
+        assertEquals(1, ctxt.lookup("my/int"));
+        assertEquals("plain", ctxt.lookup("prototype"));
+        assertEquals("plain too", ctxt.lookup("my/subtype"));
+        ctxt.close();
+    }
+
+    @Test
+    public void regularExpressionAsDelimiter() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, "\\.|/");
+
+        SJProperties props = new SJProperties();
+        props.setProperty("a.b/c", "1");
+        props.setProperty("a/b.d", "2");
+        props.setProperty("a/b/e", "3");
+        props.setProperty("a.b.e.type", "java.lang.Integer");
+
+        MemoryContext ctxt = new MemoryContext(env);
+        JndiLoader loader = new JndiLoader(env);
+        loader.load(props, ctxt);
+        assertEquals("1", ctxt.lookup("a/b/c"));
+        assertEquals("2", ctxt.lookup("a/b/d"));
+        // a/b/e and a.b.e are different keys, but name the same object.
+        assertEquals(3, ctxt.lookup("a/b/e"));
+        assertEquals("a/b", loader.extractContextName("a.b/c").toString());
+        assertEquals("/", loader.getSeparator());
+        // Lookups split names with the same expression.
+        final DelimiterConvertingContext converting = new DelimiterConvertingContext(ctxt);
+        assertEquals("1", converting.lookup("a.b.c"));
+        assertEquals("2", converting.lookup("a/b.d"));
+        ctxt.close();
+    }
+
+    @Test
+    public void multiCharacterDelimiter() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "::");
+        env.put(JndiLoader.DELIMITER, "::");
+
+        SJProperties props = new SJProperties();
+        props.setProperty("a::b.c::d", "1");
+
+        MemoryContext ctxt = new MemoryContext(env);
+        new JndiLoader(env).load(props, ctxt);
+        assertEquals("1", ctxt.lookup("a::b.c::d"));
+        assertTrue(ctxt.lookup("a::b.c") instanceof Context);
+        ctxt.close();
+    }
+
+    @Test
+    public void splitsLikeCompoundName() throws Exception {
+        Properties syntax = new Properties();
+        syntax.setProperty("jndi.syntax.direction", "left_to_right");
+        syntax.setProperty("jndi.syntax.separator", ".");
+        KeyClassifier keys = new KeyClassifier(".", null);
+        for (String key : new String[]{"", "a", "a.b.c", "a..b", ".a", "a.", ".", "..", " a . b ", "a\\.b", "'a.b'.c"}) {
+            CompoundName expected = new CompoundName(key, syntax);
+            KeyClassifier.Key classified = keys.classify(key);
+            assertEquals(key, expected, keys.toName(classified, 0, classified.segments.length));
+            if (expected.size() > 1) {
+                assertEquals(key, expected.get(expected.size() - 1), classified.objectName());
+                assertEquals(key, expected.getPrefix(expected.size() - 1), keys.toName(classified, 0, classified.segments.length - 1));
+            }
+        }
+    }
+}
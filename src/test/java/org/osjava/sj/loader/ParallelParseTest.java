@@ -0,0 +1,111 @@
+package org.osjava.sj.loader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osjava.sj.jndi.MemoryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link NioBasedJndiLoader#PARALLEL_PARSE}. Compares loading a generated tree with and without the option. The
+ * timings are logged, only equality of the loaded namespaces is asserted.
+ */
+public class ParallelParseTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelParseTest.class);
+    private static final int DIRECTORIES = 40;
+    private static final int FILES_PER_DIRECTORY = 25;
+    private static final int KEYS_PER_FILE = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameNamespaceAsSequentialLoading() throws Exception {
+        final File root = generateTree();
+        final Map<String, Object> sequential = dump(load(root, false));
+        final Map<String, Object> parallel = dump(load(root, true));
+        assertEquals(DIRECTORIES * FILES_PER_DIRECTORY * KEYS_PER_FILE + 2, sequential.size());
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void compareWithSequentialLoading() throws Exception {
+        final File root = generateTree();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            load(root, false);
+            final long sequential = System.nanoTime() - start;
+            start = System.nanoTime();
+            load(root, true);
+            final long parallel = System.nanoTime() - start;
+            LOGGER.info("{} files: sequential {} ms, parallel parse {} ms",
+                    DIRECTORIES * FILES_PER_DIRECTORY, sequential / 1000000, parallel / 1000000);
+        }
+    }
+
+    private MemoryContext load(File root, boolean parallel) throws NamingException, IOException {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, "/");
+        env.put(NioBasedJndiLoader.PARALLEL_PARSE, String.valueOf(parallel));
+        final MemoryContext ctx = new MemoryContext(env);
+        new NioBasedJndiLoader(env).load(root, ctx, false);
+        return ctx;
+    }
+
+    private File generateTree() throws IOException {
+        final File root = folder.newFolder("root");
+        for (int d = 0; d < DIRECTORIES; d++) {
+            final File directory = new File(root, "dir" + d);
+            directory.mkdirs();
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                final StringBuilder content = new StringBuilder();
+                for (int k = 0; k < KEYS_PER_FILE; k++) {
+                    content.append("key").append(k).append('=').append("value").append(d).append('_').append(f)
+                            .append('_').append(k).append('\n');
+                }
+                Files.write(new File(directory, "file" + f + ".properties").toPath(),
+                        content.toString().getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+        Files.write(new File(root, "default.properties").toPath(),
+                "a=1\nb=2\n".getBytes(StandardCharsets.ISO_8859_1));
+        return root;
+    }
+
+    private static Map<String, Object> dump(Context ctx) throws NamingException {
+        final Map<String, Object> result = new TreeMap<String, Object>();
+        dump(ctx, "", result);
+        return result;
+    }
+
+    private static void dump(Context ctx, String prefix, Map<String, Object> result) throws NamingException {
+        final NamingEnumeration<Binding> bindings = ctx.listBindings("");
+        while (bindings.hasMore()) {
+            final Binding binding = bindings.next();
+            if (binding.getObject() instanceof Context) {
+                dump((Context) binding.getObject(), prefix + binding.getName() + "/", result);
+            }
+            else {
+                result.put(prefix + binding.getName(), binding.getObject());
+            }
+        }
+    }
+}
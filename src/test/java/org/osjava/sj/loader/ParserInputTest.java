@@ -0,0 +1,149 @@
+package org.osjava.sj.loader;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link ParserInput} and the formats reading through it. The throughput on 100 MB files is only measured with
+ * -Dsj.benchmark=true.
+ */
+public class ParserInputTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParserInputTest.class);
+    private static final int BENCHMARK_SIZE = 100 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void byteOrderMarkOverridesCharset() throws IOException {
+        final byte[] utf8 = "k=\u00e4".getBytes(StandardCharsets.UTF_8);
+        final byte[] withBom = new byte[utf8.length + 3];
+        withBom[0] = (byte) 0xEF;
+        withBom[1] = (byte) 0xBB;
+        withBom[2] = (byte) 0xBF;
+        System.arraycopy(utf8, 0, withBom, 3, utf8.length);
+        assertEquals("k=\u00e4", decode(withBom));
+        assertEquals("k=\u00e4", decode("k=\u00e4".getBytes(StandardCharsets.UTF_16)));
+        assertEquals("k=\u00c3\u00a4", decode(utf8));
+        assertEquals("k", decode("k".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String decode(byte[] bytes) throws IOException {
+        return IOUtils.toString(ParserInput.reader(new ByteArrayInputStream(bytes), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void iniLineEndings() throws IOException {
+        final SJProperties ini = new IniSJProperties();
+        ini.load(new ByteArrayInputStream("a=1\r\n\nb=2\rc=3 \n  d=4  ".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), new ArrayList<Object>(ini.keySet()));
+        assertEquals("3", ini.get("c"));
+        assertEquals("4", ini.get("d"));
+    }
+
+    @Test
+    public void charsetOfPropertiesAndIni() throws IOException {
+        final File properties = folder.newFile("utf8.properties");
+        Files.write(properties.toPath(), "k=\u00e4\\u00e4\n".getBytes(StandardCharsets.UTF_8));
+        final SJProperties defaultCharset = new CustomSJProperties();
+        defaultCharset.load(properties.toPath());
+        assertEquals("\u00c3\u00a4\u00e4", defaultCharset.get("k"));
+        final SJProperties utf8 = new CustomSJProperties();
+        utf8.setCharset(StandardCharsets.UTF_8);
+        utf8.load(properties.toPath());
+        assertEquals("\u00e4\u00e4", utf8.get("k"));
+
+        // As before: .ini files in the platform's charset.
+        final String value = Charset.defaultCharset().newEncoder().canEncode('\u00e4') ? "\u00e4" : "a";
+        final File ini = folder.newFile("default.ini");
+        Files.write(ini.toPath(), ("[block]\r\nk=" + value + " ; comment\r\n[\r\n").getBytes(Charset.defaultCharset()));
+        final SJProperties iniProperties = new IniSJProperties();
+        iniProperties.load(ini.toPath());
+        assertEquals(value + " ", iniProperties.get("block.k"));
+        assertEquals(1, iniProperties.size());
+        final File utf8Ini = folder.newFile("utf8.ini");
+        Files.write(utf8Ini.toPath(), "k=\u00e4\u20ac".getBytes(StandardCharsets.UTF_8));
+        final SJProperties utf8IniProperties = new IniSJProperties();
+        utf8IniProperties.setCharset(StandardCharsets.UTF_8);
+        utf8IniProperties.load(utf8Ini.toPath());
+        assertEquals("\u00e4\u20ac", utf8IniProperties.get("k"));
+    }
+
+    @Test
+    public void largeFilesMapped() throws IOException {
+        final File file = folder.newFile("large.properties");
+        write(file, (int) ParserInput.MAP_THRESHOLD, "key%d=value%d\n");
+        assertNotNull(ParserInput.map(file.toPath()));
+        final SJProperties properties = new CustomSJProperties();
+        properties.load(file.toPath());
+        assertEquals("value0", properties.get("key0"));
+        assertNull(ParserInput.map(folder.newFile("small.properties").toPath()));
+    }
+
+    @Test
+    public void throughput() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean("sj.benchmark"));
+        benchmark("properties", new CustomSJProperties(), "key%d=value%d\n");
+        benchmark("ini", new IniSJProperties(), "[block%d]\nkey=value%d ; comment\n");
+        final File xml = folder.newFile("benchmark.xml");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(xml.toPath()))) {
+            out.write("<config>".getBytes(StandardCharsets.UTF_8));
+            int size = 0;
+            for (int i = 0; size < BENCHMARK_SIZE; i++) {
+                final byte[] line = String.format("<key%d a='%d'>value%d</key%d>\n", i, i, i, i).getBytes(StandardCharsets.UTF_8);
+                out.write(line);
+                size += line.length;
+            }
+            out.write("</config>".getBytes(StandardCharsets.UTF_8));
+        }
+        measure("xml", new XmlSJProperties(), xml);
+    }
+
+    private void benchmark(String format, SJProperties properties, String line) throws IOException {
+        final File file = folder.newFile("benchmark." + format);
+        write(file, BENCHMARK_SIZE, line);
+        measure(format, properties, file);
+    }
+
+    private void measure(String format, SJProperties properties, File file) throws IOException {
+        final long start = System.nanoTime();
+        properties.load(file.toPath());
+        final long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        LOGGER.info("{}: {} MB, {} keys in {} ms, {} MB/s", format, file.length() / (1024 * 1024), properties.size(),
+                millis, file.length() * 1000 / millis / (1024 * 1024));
+        assertFalse(properties.isEmpty());
+    }
+
+    private void write(File file, int size, String line) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            int written = 0;
+            for (int i = 0; written < size; i++) {
+                final byte[] bytes = String.format(line, i, i).getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                written += bytes.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.osjava.sj.loader;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loading n keys into {@link SJProperties} must scale linearly. Loads 1k up to 1M keys, every tenth key repeated, and
+ * logs the timings. Only the content is asserted.
+ */
+public class SJPropertiesScalingTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SJPropertiesScalingTest.class);
+
+    @Test
+    public void scaling() throws IOException {
+        for (int keys = 1000; keys <= 1000000; keys *= 10) {
+            final String content = generate(keys);
+            final SJProperties properties = new SJProperties();
+            final long start = System.nanoTime();
+            properties.load(new StringReader(content));
+            final long millis = (System.nanoTime() - start) / 1000000;
+            LOGGER.info("{} keys loaded in {} ms", keys, millis);
+
+            assertEquals(keys, properties.size());
+            assertEquals(keys, properties.keySet().size());
+            final Iterator iterator = properties.keySet().iterator();
+            for (int i = 0; i < keys; i++) {
+                assertEquals("key" + i, iterator.next());
+            }
+            assertTrue(properties.keySet().contains("key" + (keys - 1)));
+            assertEquals("value9", properties.get("key9"));
+            assertEquals(Arrays.asList("value10", "again10"), properties.get("key10"));
+            assertTrue(properties.get("key" + (keys - 10)) instanceof List);
+        }
+    }
+
+    private String generate(int keys) {
+        final StringBuilder content = new StringBuilder(keys * 24);
+        for (int i = 0; i < keys; i++) {
+            content.append("key").append(i).append("=value").append(i).append('\n');
+        }
+        for (int i = 10; i < keys; i += 10) {
+            content.append("key").append(i).append("=again").append(i).append('\n');
+        }
+        return content.toString();
+    }
+}
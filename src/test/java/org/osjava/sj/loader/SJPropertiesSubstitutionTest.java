@@ -1,23 +1,36 @@
 package org.osjava.sj.loader;
 
+import org.apache.commons.lang.text.StrLookup;
 import org.junit.After;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Hashtable;
 import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class SJPropertiesSubstitutionTest {
 
     private final String sysName = "test.property";
     private final String literalValue = "${sj.sys:" + sysName + "}";
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @After
     public void tearDown() throws Exception {
         System.clearProperty(sysName);
+        System.clearProperty("sj.test.password");
     }
 
     @Test
@@ -91,4 +104,60 @@ public class SJPropertiesSubstitutionTest {
 
         assertEquals("systemProperty", sjProperties.get(key));
     }
+
+    @Test
+    public void snapshotPerLoad() {
+        System.setProperty(sysName, "first");
+        final VariableSubstitution substitution = VariableSubstitution.snapshot(new Hashtable());
+        System.setProperty(sysName, "second");
+        SJProperties sjProperties = new SJProperties();
+        sjProperties.setSubstitution(substitution);
+        sjProperties.setProperty("key", "${" + sysName + "}");
+        assertEquals("first", sjProperties.get("key"));
+        assertEquals("second", VariableSubstitution.snapshot(new Hashtable()).replace("${" + sysName + "}"));
+    }
+
+    @Test
+    public void valueWithoutVariableIsNotCopied() {
+        final String value = new String("plain value");
+        assertSame(value, VariableSubstitution.snapshot(new Hashtable()).replace(value));
+        assertEquals("${sj.env:NO_SUCH_VARIABLE_SJ}", VariableSubstitution.snapshot(new Hashtable()).replace("${sj.env:NO_SUCH_VARIABLE_SJ}"));
+    }
+
+    @Test
+    public void secretsAndOtherSources() throws IOException {
+        final File secrets = folder.newFolder("secrets");
+        Files.write(new File(secrets, "db-password").toPath(), "s3cret\n".getBytes(StandardCharsets.UTF_8));
+        final Hashtable env = new Hashtable();
+        env.put(VariableSubstitution.SECRETS, secrets.getPath());
+        env.put(VariableSubstitution.VARIABLE_SOURCES,
+                Collections.singletonMap("upper", new StrLookup() {
+                    @Override
+                    public String lookup(String key) {
+                        return key.toUpperCase();
+                    }
+                }));
+        final VariableSubstitution substitution = VariableSubstitution.snapshot(env);
+        assertEquals("password=s3cret", substitution.replace("password=${sj.secret:db-password}"));
+        assertEquals("${sj.secret:missing}", substitution.replace("${sj.secret:missing}"));
+        assertEquals("${sj.secret:../db-password}", substitution.replace("${sj.secret:../db-password}"));
+        assertEquals("NAME", substitution.replace("${upper:name}"));
+    }
+
+    @Test
+    public void rotatedSecretIsNotCached() throws IOException {
+        final File secrets = folder.newFolder("secrets");
+        final File secret = new File(secrets, "db-password");
+        Files.write(secret.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+        System.setProperty("sj.test.password", "${sj.secret:db-password}");
+        final Hashtable env = new Hashtable();
+        env.put(VariableSubstitution.SECRETS, secrets.getPath());
+        final VariableSubstitution substitution = VariableSubstitution.snapshot(env);
+        assertEquals("old", substitution.replace("${sj.secret:db-password}"));
+        assertEquals("old", substitution.replace("${sj.test.password}"));
+        Files.write(secret.toPath(), "new".getBytes(StandardCharsets.UTF_8));
+        assertEquals("new", substitution.replace("${sj.secret:db-password}"));
+        // Also when the secret is referred to by another variable.
+        assertEquals("new", substitution.replace("${sj.test.password}"));
+    }
 }
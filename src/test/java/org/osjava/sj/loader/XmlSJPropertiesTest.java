@@ -34,13 +34,19 @@ package org.osjava.sj.loader;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class XmlSJPropertiesTest {
 
@@ -66,4 +72,54 @@ public class XmlSJPropertiesTest {
 
     }
 
+    @Test
+    public void textAttributesAndOrder() throws IOException {
+        final XmlSJProperties xmlProperties = load("<config a='root attribute ignored'>"
+                + "<one z='26' b='2'>inner<sub a='b'>deep</sub>tail</one>"
+                + "<p:ns xmlns:p='urn:p' p:attr='1'>nsval</p:ns>"
+                + "<mix>a<!-- c -->b<![CDATA[ignored]]>c</mix>"
+                + "</config>");
+        assertEquals(Arrays.asList("inner", "tail"), xmlProperties.get("config.one"));
+        assertEquals("deep", xmlProperties.get("config.one.sub"));
+        assertEquals("b", xmlProperties.get("config.one.sub.a"));
+        assertEquals("1", xmlProperties.get("config.p:ns.p:attr"));
+        assertEquals(Arrays.asList("a", "b", "c"), xmlProperties.get("config.mix"));
+        assertEquals(null, xmlProperties.get("config.a"));
+        // Text, elements below, then attributes sorted by name.
+        assertEquals(Arrays.asList("config.one", "config.one.sub", "config.one.sub.a", "config.one.b", "config.one.z",
+                "config.p:ns", "config.p:ns.p:attr", "config.p:ns.xmlns:p", "config.mix"),
+                new ArrayList<Object>(xmlProperties.keySet()));
+    }
+
+    @Test
+    public void largeDocument() throws IOException {
+        final StringBuilder xml = new StringBuilder("<config>");
+        for (int i = 0; i < 100000; i++) {
+            xml.append("<entry").append(i).append(" id='").append(i).append("'><value>").append(i)
+                    .append("</value></entry").append(i).append('>');
+        }
+        xml.append("</config>");
+        final XmlSJProperties xmlProperties = load(xml.toString());
+        assertEquals(200000, xmlProperties.size());
+        assertEquals("99999", xmlProperties.get("config.entry99999.value"));
+        assertEquals("99999", xmlProperties.get("config.entry99999.id"));
+    }
+
+    @Test
+    public void malformed() {
+        try {
+            load("<config><one>1</config>");
+            fail();
+        }
+        catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Unable to parse document."));
+        }
+    }
+
+    private XmlSJProperties load(String xml) throws IOException {
+        final XmlSJProperties xmlProperties = new XmlSJProperties();
+        xmlProperties.load(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        return xmlProperties;
+    }
+
 }
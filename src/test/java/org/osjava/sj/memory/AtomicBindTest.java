@@ -0,0 +1,151 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link MemoryContext#rebind(String, Object)}, {@link MemoryContext#bindIfAbsent(String, Object)},
+ * {@link MemoryContext#computeIfAbsent(String, java.util.function.Function)} and
+ * {@link MemoryContext#createSubcontexts(String)}
+ */
+public class AtomicBindTest {
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(MemoryContext.PATH_INDEX, "true");
+        ctx = new MemoryContext(env);
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Test
+    public void rebindIsNeverMissing() throws Exception {
+        ctx.createSubcontext("a");
+        ctx.bind("a/name", 0);
+        final AtomicInteger misses = new AtomicInteger();
+        final long end = System.currentTimeMillis() + 300;
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        ctx.lookup("a/name");
+                    }
+                    catch (NamingException e) {
+                        misses.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+        int i = 0;
+        while (System.currentTimeMillis() < end) {
+            ctx.rebind("a/name", ++i);
+        }
+        reader.join();
+        assertEquals(0, misses.get());
+        assertEquals(i, ctx.lookup("a/name"));
+    }
+
+    @Test
+    public void rebindWithoutTargetContext() throws NamingException {
+        try {
+            ctx.rebind("missing/name", "value");
+            fail();
+        }
+        catch (NamingException expected) { }
+    }
+
+    @Test
+    public void bindIfAbsent() throws NamingException {
+        ctx.createSubcontexts("a/b");
+        assertTrue(ctx.bindIfAbsent("a/b/name", "first"));
+        assertFalse(ctx.bindIfAbsent("a/b/name", "second"));
+        assertEquals("first", ctx.lookup("a/b/name"));
+        try {
+            ctx.bindIfAbsent("missing/name", "value");
+            fail();
+        }
+        catch (NameNotFoundException expected) { }
+    }
+
+    @Test
+    public void computeIfAbsentCallsFactoryOnce() throws Exception {
+        ctx.createSubcontexts("registry");
+        final AtomicInteger created = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Object[] results = new Object[8];
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < results.length; i++) {
+            final int index = i;
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results[index] = ctx.computeIfAbsent("registry/service", name -> {
+                            created.incrementAndGet();
+                            return new Object();
+                        });
+                    }
+                    catch (Exception e) {
+                        results[index] = e;
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, created.get());
+        for (Object result : results) {
+            assertSame(results[0], result);
+        }
+        assertSame(results[0], ctx.lookup("registry/service"));
+    }
+
+    @Test
+    public void createSubcontexts() throws NamingException {
+        final Context deep = ctx.createSubcontexts("a/b/c");
+        assertSame(deep, ctx.lookup("a/b/c"));
+        assertSame(deep, ctx.createSubcontexts("a/b/c"));
+        assertEquals("a/b/c", deep.getNameInNamespace());
+        deep.bind("name", "value");
+        assertEquals("value", ctx.lookup("a/b/c/name"));
+        ctx.bind("a/object", "value");
+        try {
+            ctx.createSubcontexts("a/object/c");
+            fail();
+        }
+        catch (NameAlreadyBoundException expected) { }
+    }
+}
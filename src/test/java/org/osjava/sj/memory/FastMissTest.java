@@ -0,0 +1,112 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link MemoryContext#FAST_MISS} and {@link MemoryContext#NEGATIVE_CACHE_SIZE}
+ */
+public class FastMissTest {
+
+    private MemoryContext ctx;
+    private Context sub;
+
+    @Before
+    public void setUp() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(MemoryContext.FAST_MISS, "true");
+        env.put(MemoryContext.NEGATIVE_CACHE_SIZE, "2");
+        ctx = new MemoryContext(env);
+        sub = ctx.createSubcontext("a").createSubcontext("b");
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Test
+    public void missHasNoStackTrace() throws NamingException {
+        NameNotFoundException miss = lookupMissing("a/b/missing");
+        assertEquals(0, miss.getStackTrace().length);
+        assertEquals("missing", miss.getExplanation());
+        miss = lookupMissing(ctx.getNameParser("").parse("a/b/missing"));
+        assertEquals(0, miss.getStackTrace().length);
+    }
+
+    @Test
+    public void bindInvalidatesCachedMiss() throws NamingException {
+        // twice: second time from cache
+        assertEquals("missing", lookupMissing("a/b/missing").getExplanation());
+        assertEquals("missing", lookupMissing("a/b/missing").getExplanation());
+        sub.bind("missing", "found");
+        assertEquals("found", ctx.lookup("a/b/missing"));
+        sub.unbind("missing");
+        lookupMissing("a/b/missing");
+    }
+
+    @Test
+    public void cacheIsBounded() throws NamingException {
+        for (int i = 0; i < 10; i++) {
+            lookupMissing("a/b/missing" + i);
+        }
+        sub.bind("missing9", "found");
+        sub.bind("missing0", "found");
+        assertEquals("found", ctx.lookup("a/b/missing9"));
+        assertEquals("found", ctx.lookup("a/b/missing0"));
+    }
+
+    @Test
+    public void foreignTreeIsNotCached() throws NamingException {
+        final MemoryContext other = new MemoryContext(ctx.getEnvironment());
+        sub.bind("other", other);
+        lookupMissing("a/b/other/name");
+        other.bind("name", "value");
+        assertEquals("value", ctx.lookup("a/b/other/name"));
+    }
+
+    @Test
+    public void missWithoutFastMissHasStackTrace() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        final MemoryContext context = new MemoryContext(env);
+        try {
+            context.lookup("missing");
+            fail();
+        }
+        catch (NameNotFoundException expected) {
+            assertTrue(expected.getStackTrace().length > 0);
+        }
+    }
+
+    private NameNotFoundException lookupMissing(Object name) throws NamingException {
+        try {
+            if (name instanceof String) {
+                ctx.lookup((String) name);
+            }
+            else {
+                ctx.lookup((Name) name);
+            }
+        }
+        catch (NameNotFoundException expected) {
+            return expected;
+        }
+        fail(name + " found");
+        return null;
+    }
+}
@@ -0,0 +1,115 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Binding;
+import javax.naming.NameClassPair;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MemoryContext#list(String)} and {@link MemoryContext#listBindings(String)}
+ */
+public class ListBindingsTest {
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        ctx = new MemoryContext(env);
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Test
+    public void modifyWhileListing() throws NamingException {
+        for (int i = 0; i < 100; i++) {
+            ctx.bind("name" + i, i);
+        }
+        final NamingEnumeration bindings = ctx.listBindings("");
+        final Set<String> names = new HashSet<String>();
+        while (bindings.hasMore()) {
+            final Binding binding = (Binding) bindings.next();
+            names.add(binding.getName());
+            ctx.unbind(binding.getName());
+            ctx.bind("other" + binding.getName(), binding.getObject());
+        }
+        assertTrue(names.size() >= 100);
+    }
+
+    @Test
+    public void listNull() throws NamingException {
+        ctx.bind("null", null);
+        final NamingEnumeration names = ctx.list("");
+        final NameClassPair pair = (NameClassPair) names.next();
+        assertEquals("null", pair.getName());
+        assertNull(pair.getClassName());
+    }
+
+    @Test
+    public void pages() throws NamingException {
+        ctx.createSubcontext("sub");
+        for (int i = 0; i < 1000; i++) {
+            ctx.bind("sub/name" + String.format("%04d", 999 - i), i);
+        }
+        final List<String> names = new ArrayList<String>();
+        String after = null;
+        while (true) {
+            final NamingEnumeration<Binding> page = ctx.listBindings("sub", after, 64);
+            int size = 0;
+            while (page.hasMore()) {
+                after = page.next().getName();
+                names.add(after);
+                size++;
+            }
+            assertTrue(size <= 64);
+            if (size == 0) {
+                break;
+            }
+        }
+        assertEquals(1000, names.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("name" + String.format("%04d", i), names.get(i));
+        }
+    }
+
+    /**
+     * The sorted names are kept between pages, but must not hide bindings changed meanwhile.
+     */
+    @Test
+    public void pagesSeeModifications() throws NamingException {
+        for (int i = 0; i < 10; i++) {
+            ctx.bind("name" + i, i);
+        }
+        NamingEnumeration<Binding> page = ctx.listBindings("", null, 5);
+        String after = null;
+        while (page.hasMore()) {
+            after = page.next().getName();
+        }
+        assertEquals("name4", after);
+        ctx.unbind("name5");
+        ctx.bind("name45", 45);
+        page = ctx.listBindings("", after, 2);
+        assertEquals("name45", page.next().getName());
+        assertEquals("name6", page.next().getName());
+        assertTrue(!page.hasMore());
+    }
+}
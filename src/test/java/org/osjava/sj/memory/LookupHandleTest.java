@@ -0,0 +1,103 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.LookupHandle;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link LookupHandle}
+ */
+public class LookupHandleTest {
+
+    private MemoryContext ctx;
+    private Context jdbc;
+
+    @Before
+    public void setUp() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        ctx = new MemoryContext(env);
+        jdbc = ctx.createSubcontext("java:comp").createSubcontext("env").createSubcontext("jdbc");
+        jdbc.bind("orders", "orders1");
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Test
+    public void seesRebindAndUnbind() throws NamingException {
+        final LookupHandle handle = ctx.handle("java:comp/env/jdbc/orders");
+        assertEquals("orders1", handle.get());
+        assertSame(handle.get(), handle.get());
+
+        jdbc.rebind("orders", "orders2");
+        assertEquals("orders2", handle.get());
+
+        ctx.rebind("java:comp/env/jdbc/orders", "orders3");
+        assertEquals("orders3", handle.get());
+
+        jdbc.unbind("orders");
+        try {
+            handle.get();
+            fail();
+        }
+        catch (NameNotFoundException expected) { }
+
+        jdbc.bind("orders", "orders4");
+        assertEquals("orders4", handle.get());
+    }
+
+    @Test
+    public void seesReplacedSubcontext() throws NamingException {
+        final LookupHandle handle = ctx.handle("java:comp/env/jdbc/orders");
+        assertEquals("orders1", handle.get());
+        ((Context) ctx.lookup("java:comp/env")).destroySubcontext("jdbc");
+        ((Context) ctx.lookup("java:comp/env")).createSubcontext("jdbc").bind("orders", "recreated");
+        assertEquals("recreated", handle.get());
+    }
+
+    @Test
+    public void tracksBoundMemoryContexts() throws NamingException {
+        final MemoryContext other = new MemoryContext(ctx.getEnvironment());
+        other.bind("name", "value1");
+        ctx.bind("other", other);
+        final LookupHandle handle = ctx.handle("other/name");
+        assertEquals("value1", handle.get());
+        other.rebind("name", "value2");
+        assertEquals("value2", handle.get());
+    }
+
+    @Test
+    public void viaInitialContext() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("java.naming.factory.initial", "org.osjava.sj.MemoryContextFactory");
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        final InitialContext ic = new InitialContext(env);
+        try {
+            ic.createSubcontext("a").bind("b", "value");
+            final LookupHandle handle = ((MemoryContext) ic.lookup("")).handle("a/b");
+            assertEquals("value", handle.get());
+            ic.rebind("a/b", "changed");
+            assertEquals("changed", handle.get());
+        }
+        finally {
+            ic.close();
+        }
+    }
+}
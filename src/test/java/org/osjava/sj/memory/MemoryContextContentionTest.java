@@ -0,0 +1,140 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lookup throughput of {@link MemoryContext} under contention. Lookups do not lock, so throughput should grow with the
+ * number of threads up to the number of available cores. The numbers are logged, only correctness is asserted.
+ */
+public class MemoryContextContentionTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryContextContentionTest.class);
+    private static final long MEASURE_MILLIS = 200;
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        ctx = new MemoryContext(env);
+        final Context jdbc = ctx.createSubcontext("java:comp").createSubcontext("env").createSubcontext("jdbc");
+        for (int i = 0; i < 100; i++) {
+            jdbc.bind("ds" + i, "value" + i);
+        }
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Test
+    public void lookupScalesWithThreads() throws Exception {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        long singleThreaded = 0;
+        for (int threads = 1; threads <= Math.max(cores, 4); threads *= 2) {
+            final long lookups = measure(threads);
+            if (threads == 1) {
+                singleThreaded = lookups;
+            }
+            LOGGER.info("threads={} cores={} lookups/s={} speedup={}", threads, cores,
+                    lookups * 1000 / MEASURE_MILLIS, singleThreaded == 0 ? 0 : (double) lookups / singleThreaded);
+            assertTrue(lookups > 0);
+        }
+    }
+
+    @Test
+    public void concurrentBindOfSameNameBindsOnce() throws Exception {
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong bound = new AtomicLong();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final int value = i;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        ctx.bind("java:comp/env/jdbc/race", value);
+                        bound.incrementAndGet();
+                    }
+                    catch (NamingException ignore) {
+                        // NameAlreadyBoundException for all but one.
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(1, bound.get());
+    }
+
+    private long measure(int threads) throws InterruptedException {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong total = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch ready = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    ready.countDown();
+                    try {
+                        while (!stop.get()) {
+                            int i = (int) (count % 100);
+                            if (!("value" + i).equals(ctx.lookup("java:comp/env/jdbc/ds" + i))) {
+                                throw new AssertionError("Wrong value for ds" + i);
+                            }
+                            count++;
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.set(e);
+                    }
+                    total.addAndGet(count);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        Thread.sleep(MEASURE_MILLIS);
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertNull(failure.get());
+        return total.get();
+    }
+}
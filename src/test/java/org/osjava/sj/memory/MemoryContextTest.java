@@ -7,13 +7,20 @@ import org.osjava.sj.jndi.MemoryContext;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.util.Hashtable;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 /**
  * @author Holger Thurow (thurow.h@gmail.com) on 04/02/2017.
@@ -168,4 +175,115 @@ public class MemoryContextTest {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * lookup(String) walks the name without a NameParser. The results must not differ from lookup(Name).
+     */
+    @Test
+    public void lookupStringEqualsLookupName() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "::");
+        final MemoryContext ctx = new MemoryContext(env);
+        try {
+            final Context deepest = ctx.createSubcontext("a").createSubcontext("b").createSubcontext("c");
+            deepest.bind("name", "value");
+            deepest.bind("a.b", "dotted");
+            assertEquals("value", ctx.lookup("a::b::c::name"));
+            assertEquals("dotted", ctx.lookup("a::b::c::a.b"));
+            assertSame(deepest, ctx.lookup("a::b::c"));
+            assertEquals(ctx.lookup(ctx.getNameParser("").parse("a::b::c::name")), ctx.lookup("a::b::c::name"));
+            try {
+                ctx.lookup("a::b::c::missing");
+                fail();
+            }
+            catch (NameNotFoundException expected) {
+                assertEquals("missing", expected.getMessage());
+            }
+            try {
+                ctx.lookup("a::missing::name");
+                fail();
+            }
+            catch (NameNotFoundException e) {
+                fail("Missing subcontexts are reported as NamingException");
+            }
+            catch (NamingException expected) { }
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void lookupFlatName() throws Exception {
+        final MemoryContext ctx = new MemoryContext(new Hashtable());
+        try {
+            ctx.bind("a/b.c", "value");
+            assertEquals("value", ctx.lookup("a/b.c"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    /**
+     * Names equal by jndi.syntax.ignorecase and jndi.syntax.trimblanks are the same binding, like CompoundNames are
+     * equal. list() shows the name as bound.
+     */
+    @Test
+    public void ignoreCaseAndTrimBlanks() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("jndi.syntax.ignorecase", "true");
+        env.put("jndi.syntax.trimblanks", "true");
+        final MemoryContext ctx = new MemoryContext(env);
+        try {
+            ctx.createSubcontext("Sub");
+            ctx.bind("Sub/Foo", "value");
+            assertEquals("value", ctx.lookup("sub/foo"));
+            assertEquals("value", ctx.lookup(" SUB / foo "));
+            ctx.bind(" a ", "blanks");
+            assertEquals("blanks", ctx.lookup("a"));
+            try {
+                ctx.bind("sub/FOO", "other");
+                fail();
+            }
+            catch (NameAlreadyBoundException expected) { }
+            ctx.rebind("sub/FOO", "other");
+            assertEquals("other", ctx.lookup("Sub/Foo"));
+            final NamingEnumeration<NameClassPair> names = ctx.list("SUB");
+            assertEquals("FOO", names.next().getName());
+            assertFalse(names.hasMore());
+            ctx.unbind("A");
+            try {
+                ctx.lookup("a");
+                fail();
+            }
+            catch (NameNotFoundException expected) { }
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void caseSensitiveByDefault() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        final MemoryContext ctx = new MemoryContext(env);
+        try {
+            ctx.bind("Foo", "value");
+            ctx.bind(" Foo", "blank");
+            assertEquals("blank", ctx.lookup(" Foo"));
+            try {
+                ctx.lookup("foo");
+                fail();
+            }
+            catch (NameNotFoundException expected) { }
+        }
+        finally {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.jndi.NamespaceBatch;
+
+import javax.naming.Context;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link NamespaceBatch}
+ */
+public class NamespaceBatchTest {
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(MemoryContext.PATH_INDEX, "true");
+        ctx = new MemoryContext(env);
+        ctx.createSubcontext("jdbc");
+        ctx.createSubcontext("flags");
+        ctx.bind("flags/legacy", Boolean.TRUE);
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Test
+    public void commit() throws NamingException {
+        ctx.batch()
+                .bind("jdbc/orders", "dataSource")
+                .rebind("jdbc/schema", "orders_v2")
+                .unbind("flags/legacy")
+                .createSubcontext("new")
+                .bind("new/name", "value")
+                .commit();
+        assertEquals("dataSource", ctx.lookup("jdbc/orders"));
+        assertEquals("orders_v2", ctx.lookup("jdbc/schema"));
+        assertEquals("value", ctx.lookup("new/name"));
+        assertEquals("value", ((Context) ctx.lookup("new")).lookup("name"));
+        try {
+            ctx.lookup("flags/legacy");
+            fail();
+        }
+        catch (NameNotFoundException expected) { }
+    }
+
+    @Test
+    public void failedCommitHasNoEffect() throws NamingException {
+        final NamespaceBatch batch = ctx.batch()
+                .bind("jdbc/orders", "dataSource")
+                .unbind("flags/legacy")
+                .bind("flags/legacy", "again")
+                .bind("flags/legacy", "twice");
+        try {
+            batch.commit();
+            fail();
+        }
+        catch (NameAlreadyBoundException expected) { }
+        assertEquals(Boolean.TRUE, ctx.lookup("flags/legacy"));
+        try {
+            ctx.lookup("jdbc/orders");
+            fail();
+        }
+        catch (NameNotFoundException expected) { }
+    }
+
+    @Test
+    public void missingContext() throws NamingException {
+        try {
+            ctx.batch().bind("missing/name", "value").commit();
+            fail();
+        }
+        catch (NameNotFoundException expected) { }
+        try {
+            ctx.batch().bind("flags/legacy/name", "value").commit();
+            fail();
+        }
+        catch (NotContextException expected) { }
+        try {
+            ctx.batch().unbind("flags").bind("flags/other", "value").commit();
+            fail();
+        }
+        catch (NameNotFoundException expected) { }
+    }
+
+    @Test
+    public void mergeKeepsExisting() throws NamingException {
+        final NameParser parser = ctx.getNameParser("");
+        ctx.batch()
+                .mergeSubcontext(parser.parse("jdbc"))
+                .bindIfAbsent(parser.parse("jdbc/url"), "url")
+                .bindIfAbsent(parser.parse("flags/legacy"), Boolean.FALSE)
+                .mergeSubcontext(parser.parse("new"))
+                .bindIfAbsent(parser.parse("new/name"), "value")
+                .mergeSubcontext(parser.parse("new/sub"))
+                .bindIfAbsent(parser.parse("new/sub/name"), "below")
+                .commit();
+        assertEquals("url", ctx.lookup("jdbc/url"));
+        assertEquals(Boolean.TRUE, ctx.lookup("flags/legacy"));
+        assertEquals("value", ctx.lookup("new/name"));
+        assertEquals("below", ctx.lookup("new/sub/name"));
+        // Created subcontexts are regular ones.
+        ctx.unbind("new/sub");
+        try {
+            ctx.lookup("new/sub/name");
+            fail();
+        }
+        catch (NamingException expected) { }
+    }
+
+    @Test
+    public void mergeIntoObjectFails() throws NamingException {
+        final NameParser parser = ctx.getNameParser("");
+        final NamespaceBatch batch = ctx.batch()
+                .mergeSubcontext(parser.parse("new"))
+                .mergeSubcontext(parser.parse("flags/legacy"))
+                .bindIfAbsent(parser.parse("flags/legacy/below"), "value");
+        try {
+            batch.commit();
+            fail();
+        }
+        catch (NotContextException expected) { }
+        assertEquals(Boolean.TRUE, ctx.lookup("flags/legacy"));
+        try {
+            ctx.lookup("new");
+            fail();
+        }
+        catch (NameNotFoundException expected) { }
+    }
+
+    /**
+     * Every batch replaces a subcontext and binds into the new one. Lookups must never see the subcontext missing or
+     * empty.
+     */
+    @Test
+    public void lookupsSeeWholeBatches() throws Exception {
+        ctx.batch().createSubcontext("swap").bind("swap/value", 0).commit();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] readers = new Thread[4];
+        final long end = System.currentTimeMillis() + 500;
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            ctx.lookup("swap/value");
+                        }
+                    }
+                    catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            readers[i].start();
+        }
+        int i = 0;
+        while (System.currentTimeMillis() < end) {
+            ctx.batch().unbind("swap").createSubcontext("swap").bind("swap/value", ++i).commit();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertEquals(i, ctx.lookup("swap/value"));
+    }
+}
@@ -0,0 +1,117 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link MemoryContext#PATH_INDEX}
+ */
+public class PathIndexTest {
+
+    private MemoryContext ctx;
+    private Context deepest;
+
+    @Before
+    public void setUp() throws NamingException {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(MemoryContext.PATH_INDEX, "true");
+        ctx = new MemoryContext(env);
+        deepest = ctx.createSubcontext("a").createSubcontext("b").createSubcontext("c").createSubcontext("d")
+                .createSubcontext("e");
+        deepest.bind("name", "value");
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Test
+    public void lookupDeepName() throws NamingException {
+        assertEquals("value", ctx.lookup("a/b/c/d/e/name"));
+        assertSame(deepest, ctx.lookup("a/b/c/d/e"));
+    }
+
+    @Test
+    public void rebindIsVisible() throws NamingException {
+        assertEquals("value", ctx.lookup("a/b/c/d/e/name"));
+        deepest.rebind("name", "other");
+        assertEquals("other", ctx.lookup("a/b/c/d/e/name"));
+        ctx.rebind("a/b/c/d/e/name", "third");
+        assertEquals("third", ctx.lookup("a/b/c/d/e/name"));
+    }
+
+    @Test
+    public void unbindRemovesSubtree() throws NamingException {
+        assertEquals("value", ctx.lookup("a/b/c/d/e/name"));
+        ((Context) ctx.lookup("a/b")).unbind("c");
+        try {
+            ctx.lookup("a/b/c/d/e/name");
+            fail();
+        }
+        catch (NamingException expected) { }
+        try {
+            ctx.lookup("a/b/c");
+            fail();
+        }
+        catch (NameNotFoundException expected) { }
+    }
+
+    @Test
+    public void destroySubcontext() throws NamingException {
+        ((Context) ctx.lookup("a/b/c/d")).destroySubcontext("e");
+        try {
+            ctx.lookup("a/b/c/d/e/name");
+            fail();
+        }
+        catch (NamingException expected) { }
+        ((Context) ctx.lookup("a/b/c/d")).createSubcontext("e").bind("name", "new");
+        assertEquals("new", ctx.lookup("a/b/c/d/e/name"));
+    }
+
+    @Test
+    public void bindingInUnboundSubcontextIsNotIndexed() throws NamingException {
+        final Context c = (Context) ctx.lookup("a/b/c");
+        ((Context) ctx.lookup("a/b")).unbind("c");
+        c.bind("late", "value");
+        try {
+            ctx.lookup("a/b/c/late");
+            fail();
+        }
+        catch (NamingException expected) { }
+    }
+
+    /**
+     * An atomic name containing the separator must not be mistaken for a path.
+     */
+    @Test
+    public void nameContainingSeparator() throws NamingException {
+        ctx.createSubcontext("x").bind("y", "path");
+        final Name atomic = ctx.getNameParser("").parse("");
+        atomic.add("x/y");
+        ctx.bind(atomic, "atomic");
+        assertEquals("path", ctx.lookup("x/y"));
+        assertEquals("atomic", ctx.lookup(atomic));
+        ctx.unbind("x");
+        assertEquals("atomic", ctx.lookup(atomic));
+        try {
+            ctx.lookup("x/y");
+            fail();
+        }
+        catch (NamingException expected) { }
+    }
+}
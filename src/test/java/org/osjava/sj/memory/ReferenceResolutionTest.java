@@ -0,0 +1,123 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.spi.ObjectFactory;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Resolution of {@link Reference}s bound in a {@link MemoryContext}.
+ */
+public class ReferenceResolutionTest {
+
+    private static final AtomicInteger created = new AtomicInteger();
+    private static final AtomicInteger failed = new AtomicInteger();
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() {
+        created.set(0);
+        failed.set(0);
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(MemoryContext.REFERENCE_RETRY_BACKOFF, "60000");
+        ctx = new MemoryContext(env);
+    }
+
+    @After
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Test
+    public void concurrentLookupsCreateOneInstance() throws Exception {
+        ctx.bind("pool", new Reference(Object.class.getName(), SlowFactory.class.getName(), null));
+        final int threads = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Object[] results = new Object[threads];
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results[index] = ctx.lookup("pool");
+                    }
+                    catch (Exception e) {
+                        results[index] = e;
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(1, created.get());
+        for (Object result : results) {
+            assertSame(results[0], result);
+        }
+    }
+
+    @Test
+    public void failedResolutionIsNotRetriedDuringBackoff() throws Exception {
+        ctx.bind("broken", new Reference(Object.class.getName(), FailingFactory.class.getName(), null));
+        for (int i = 0; i < 3; i++) {
+            try {
+                ctx.lookup("broken");
+                fail();
+            }
+            catch (NamingException expected) {
+                assertEquals(IllegalStateException.class, expected.getRootCause().getClass());
+            }
+        }
+        assertEquals(1, failed.get());
+    }
+
+    @Test
+    public void rebindDuringResolutionWins() throws Exception {
+        final Context sub = ctx.createSubcontext("sub");
+        sub.bind("pool", new Reference(Object.class.getName(), SlowFactory.class.getName(), null));
+        ctx.lookup("sub/pool");
+        sub.rebind("pool", "replaced");
+        assertEquals("replaced", ctx.lookup("sub/pool"));
+    }
+
+    public static class SlowFactory implements ObjectFactory {
+        @Override
+        public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment) throws Exception {
+            Thread.sleep(50);
+            created.incrementAndGet();
+            return new Object();
+        }
+    }
+
+    public static class FailingFactory implements ObjectFactory {
+        @Override
+        public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment) {
+            failed.incrementAndGet();
+            throw new IllegalStateException("Broken factory");
+        }
+    }
+}